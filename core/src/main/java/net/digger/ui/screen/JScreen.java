@@ -1,35 +1,29 @@
 package net.digger.ui.screen;
 
 import java.awt.BorderLayout;
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
-import java.awt.event.ActionEvent;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
-import java.awt.event.MouseMotionAdapter;
 import java.io.Closeable;
 import java.util.ArrayList;
-import java.util.EnumSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
-import javax.swing.ButtonGroup;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
-import javax.swing.JMenu;
-import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
-import javax.swing.JRadioButtonMenuItem;
 import javax.swing.SwingUtilities;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -45,7 +39,6 @@ import net.digger.ui.screen.io.JScreenSound;
 import net.digger.ui.screen.mode.JScreenMode;
 import net.digger.ui.screen.protocol.PlainText;
 import net.digger.ui.screen.protocol.JScreenTextProtocol;
-import net.digger.util.Pause;
 
 /**
  * Copyright © 2017  David Walton
@@ -71,47 +64,62 @@ import net.digger.util.Pause;
  * @author walton
  */
 public class JScreen implements Closeable {
-	private static final String VERSION = "1.2.0";
-	private static final String COPYRIGHT = "\u00A92017,2018";
+	static final String VERSION = "1.2.0";
+	static final String COPYRIGHT = "\u00A92017,2018";
 	// default values
 	private static final String DEFAULT_WINDOW_TITLE = "JScreen";
 	private static final JScreenMode DEFAULT_SCREEN_MODE = JScreenMode.DEFAULT_MODE;
-	
-	// ui component
-	private final JScreenComponent screen;
-	
-	// context menu
-	private JPopupMenu menu = null;
-	private JMenu scaleMenu = null;
-	private JMenu fontMenu = null;
-	
-	// screen backing array
-	// this array is referenced by [y][x] to simplify scrolling
-	private JScreenCell[][] cells;
+	private static final int DEFAULT_MAX_FRAME_RATE = 60;
+	
+	// swing view, or null if headless
+	private volatile JScreenView view = null;
+	
+	// screen backing store
+	private JScreenBuffer cells;
+	// what has changed since the last frame was published
+	private JScreenDamage damage;
+	// held while changing, moving or replacing the cells or moving the cursor, and while publishing a frame,
+	// so frames are never taken mid-change
+	private final Object frameLock = new Object();
+	// frames for the view: the publisher fills backFrame and swaps it with readyFrame, and the view swaps in its own
+	private JScreenFrame backFrame = null;
+	private final AtomicReference<JScreenFrame> readyFrame = new AtomicReference<>();
+	private long frameEpoch = 0;
+	// changes when everything needs to be rendered again
+	private int generation = 0;
+	// minimum time between repaint requests (in nanos)
+	private volatile long frameInterval = TimeUnit.SECONDS.toNanos(1) / DEFAULT_MAX_FRAME_RATE;
+	private volatile long lastFrame = 0;
+	private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+	// given each frame published; a headless screen with none publishes no frames
+	private final List<JScreenRenderer> renderers = new CopyOnWriteArrayList<>();
+	// nesting depth of beginUpdate(), during which no frames are published
+	private final AtomicInteger updateDepth = new AtomicInteger(0);
+	// when fast-forwarding, changes aren't tracked, and the screen is sampled once per frame interval instead
+	private volatile boolean fastForward = false;
+	private volatile boolean sampleNeeded = false;
+	private ScheduledFuture<?> sampler = null;
 	
 	// screen dimensions (in chars)
 	private Rectangle screenCells;
-	// screen dimensions (in pixels)
-	private Rectangle screenPixels;
-	
-	// cell dimensions (in pixels)
-	private Dimension cellSize;
 	
 	// current screen colors and attributes
 	private JScreenPalette palette;
 	private int fgColor;
 	private int bgColor;
-	private EnumSet<Attr> attrs = EnumSet.noneOf(Attr.class);
+	// packed text attribute mask (see Attr.mask())
+	private int attrs = 0;
 	private ScrollFillMethod scrollFillMethod = ScrollFillMethod.DEFAULT;
 	
 	// screen font
 	private JScreenFont[] fonts;
 	private int font;
-	private int fontScale;
-	private int maxFontScale = 1;
 	
 	// current text window bounds (in chars)
 	private Rectangle window;
+	// scrolling region within the text window (lines relative to the window, inclusive), or -1 if not set
+	private int marginTop = -1;
+	private int marginBottom = -1;
 	
 	// cursor renderer
 	private JScreenCursor cursorRenderer;
@@ -121,7 +129,6 @@ public class JScreen implements Closeable {
 	private boolean cursorVisible = true;
 	// is the cursor blinking?
 	private boolean cursorBlink = true;
-	private ScheduledFuture<?> cursorBlinker = null;
 	
 	// interprets text protocol (ANSI, AVATAR, etc)
 	private JScreenTextProtocol protocol;
@@ -130,11 +137,18 @@ public class JScreen implements Closeable {
 	
 	// screen effects
 	private boolean scanLines = false;
-	private ScheduledThreadPoolExecutor scheduler = null;
-	private boolean blinkingChars = false;
-	private boolean blinked = false;
-	private Point selectionStarted = null;
+	// timer service for blinking and frame pacing
+	private volatile JScreenScheduler scheduler = JScreenScheduler.getDefault();
+	private final Runnable blinker = this::blink;
+	private double blinkRate;
+	private volatile boolean closed = false;
+	// current phase of blinking, applied to the cursor and blinking cells as they are rendered
+	private volatile boolean blinked = false;
 	private Rectangle selection = null;
+	// paces output for printBPS(), created when first needed
+	private JScreenPacer pacer = null;
+	// output pipelines printing to the screen, stopped when it is closed
+	private final List<JScreenOutputPipeline> pipelines = new CopyOnWriteArrayList<>();
 	
 	// key event handler
 	public final JScreenKeyboard keyboard;
@@ -177,181 +191,165 @@ public class JScreen implements Closeable {
 	 * @param copyright Copyright notice to display.
 	 */
 	public JScreen(JScreenMode mode, String copyright) {
+		this(mode, copyright, false);
+	}
+	
+	/**
+	 * Create a new JScreen instance using the given screen mode.
+	 * @param mode Screen mode to use.
+	 * @param copyright Copyright notice to display, if there is a view.
+	 * @param headless If true, don't create a Swing view.
+	 */
+	private JScreen(JScreenMode mode, String copyright, boolean headless) {
 		mode = (mode == null) ? DEFAULT_SCREEN_MODE : mode;
-		screen = new JScreenComponent(this::paintScreen);
 		setScreenMode(mode);
 		setTextProtocol(new PlainText(this));
 		
-		screen.setEnabled(true);
-		screen.setFocusable(true);
-		screen.setFocusTraversalKeysEnabled(false);
-		
 		keyboard = new JScreenKeyboard(this);
 		sound = new JScreenSound();
 		
-		screen.addMouseListener(new MouseAdapter() {
-			@Override
-			public void mouseClicked(MouseEvent e) {
-				switch (e.getClickCount()) {
-					case 3:
-						doTripleClick(e);
-						break;
-					case 2:
-						doDoubleClick(e);
-						break;
-					default:
-						doClick(e);
-						break;
-				}
-			}
-			
-			private void doClick(MouseEvent e) {
-				selectionStarted = null;
-				clearSelection();
-			}
-			
-			private void doDoubleClick(MouseEvent e) {
-				Point clicked = findCell(e.getPoint());
-				int startX = clicked.x;
-				int endX = clicked.x;
-				int y = clicked.y;
-				boolean space = (getCellChar(startX, y) == ' ');
-				do {
-					startX--;
-				} while ((startX >= 0) && checkChar(getCellChar(startX, y), space));
-				startX++;
-				do {
-					endX++;
-				} while ((endX < screenCells.width) && checkChar(getCellChar(endX, y), space));
-				endX--;
-				selectCells(new Rectangle(startX, y, (endX - startX) + 1, 1));
-			}
-			
-			private void doTripleClick(MouseEvent e) {
-				Point clicked = findCell(e.getPoint());
-				int startX = 0;
-				int endX = screenCells.width - 1;
-				int y = clicked.y;
-				selectCells(new Rectangle(startX, y, (endX - startX) + 1, 1));
-			}
-			
-			private boolean checkChar(char ch, boolean space) {
-				return space ? (ch == ' ') : (ch != ' ');
-			}
-
-			@Override
-			public void mousePressed(MouseEvent e) {
-				selectionStarted = findCell(e.getPoint());
-			}
-
-			@Override
-			public void mouseReleased(MouseEvent e) {
-				selectionStarted = null;
-			}
-		});
-		
-		screen.addMouseMotionListener(new MouseMotionAdapter() {
-			@Override
-			public void mouseDragged(MouseEvent e) {
-				if (selectionStarted != null) {
-					Point cell = findCell(e.getPoint());
-					selectCells(new Rectangle(
-							Math.min(selectionStarted.x, cell.x),
-							Math.min(selectionStarted.y, cell.y),
-							Math.abs(cell.x - selectionStarted.x) + 1,
-							Math.abs(cell.y - selectionStarted.y) + 1)
-					);
-				}
-			}
-		});
-		
-		// right-click context menu
-		menu = new JPopupMenu();
-		screen.setComponentPopupMenu(menu);
-		if (copyright != null) {
-			menu.add(new JMenuItem(copyright));
+		if (!headless) {
+			// attaches itself
+			new JScreenView(this, copyright);
 		}
-		menu.add(new JMenuItem("JScreen v" + VERSION + " " + COPYRIGHT + " by David Walton"));
-		
-		JMenuItem copy = new JMenuItem("Copy selection text to clipboard");
-		menu.add(copy);
-		copy.addActionListener((ActionEvent e) -> {
-			copySelectionToClipboard();
-		});
-		JMenuItem paste = new JMenuItem("Paste text to keyboard buffer");
-		menu.add(paste);
-		paste.addActionListener((ActionEvent e) -> {
-			if (keyboard != null) {
-				keyboard.pasteClipboard();
-			}
-		});
-		
-		fontMenu = new JMenu("Fonts");
-		menu.add(fontMenu);
-		addFontMenus();
-		scaleMenu = new JMenu("Font Scale");
-		menu.add(scaleMenu);
-		addFontScaleMenus();
-		
-		// blink text
-		startBlinker(mode.blinkRate);
-		
-		Runtime.getRuntime().addShutdownHook(new Thread() {
-			@Override
-			public void run() {
-				close();
-			}
-		});
 	}
 	
+	/**
+	 * Create a new JScreen instance with no Swing view, using the given screen mode.
+	 * This needs no display, so can be used with java.awt.headless=true.
+	 * A JScreenView can be attached later, if the screen needs to be shown.
+	 * @param mode Screen mode to use.
+	 * @return New JScreen instance.
+	 */
+	public static JScreen createHeadlessScreen(JScreenMode mode) {
+		return new JScreen(mode, null, true);
+	}
 
-	private void startBlinker(double blinkRate) {
+	/**
+	 * Returns the timer service used for blinking and frame pacing.
+	 * @return Scheduler for this screen.
+	 */
+	public JScreenScheduler getScheduler() {
+		return scheduler;
+	}
+	
+	/**
+	 * Set the timer service used for blinking and frame pacing.
+	 * Defaults to JScreenScheduler.getDefault(), which is shared by every screen.
+	 * @param scheduler Scheduler to use.
+	 */
+	public synchronized void setScheduler(JScreenScheduler scheduler) {
 		if (scheduler == null) {
-			scheduler = new ScheduledThreadPoolExecutor(1);
-			scheduler.setRemoveOnCancelPolicy(true);
-		}
-		if (cursorBlinker != null) {
-			cursorBlinker.cancel(false);
-		}
-		cursorBlinker = scheduler.scheduleAtFixedRate(() -> {
-			// toggle the state of the blink
-			blinked = !blinked;
-			if (blinkingChars) {
-				boolean found = false;
-				for (int y=0; y<screenCells.height; y++) {
-					for (int x=0; x<screenCells.width; x++) {
-						JScreenCell cell = cells[y][x];
-						if (cell.attrs.contains(Attr.BLINKING)) {
-							found = true;
-							cell.setAttr(Attr._IS_BLINKED, blinked);
-							screen.repaint(cellPixels(x, y));
-						}
-					}
-				}
-				if (!found) {
-					// if no blinking chars found, stop checking
-					// anywhere that updates a cell to blink needs to turn this on
-					blinkingChars = false;
+			throw new IllegalArgumentException("Scheduler is required.");
+		}
+		this.scheduler.removeBlinker(blinker);
+		this.scheduler = scheduler;
+		if (!closed) {
+			scheduler.addBlinker(blinker, blinkRate);
+		}
+	}
+
+	/**
+	 * Start blinking at the given rate, replacing any previous rate.
+	 * @param blinkRate Blink phase changes per second.
+	 */
+	private synchronized void startBlinker(double blinkRate) {
+		this.blinkRate = blinkRate;
+		if (closed) {
+			return;
+		}
+		scheduler.removeBlinker(blinker);
+		scheduler.addBlinker(blinker, blinkRate);
+	}
+	
+	/**
+	 * Called by the scheduler each time the blink phase changes.
+	 */
+	private void blink() {
+		// toggle the state of the blink, which is applied when the cells are rendered
+		blinked = !blinked;
+		if (renderers.isEmpty()) {
+			// headless, so nothing to render
+			return;
+		}
+		boolean changed = false;
+		// the buffer counts the blinking cells in each row, so only those rows need repainting
+		// (holding the frame lock so rows can't be scrolled while doing this)
+		synchronized (frameLock) {
+			for (int y=0; y<screenCells.height; y++) {
+				if (cells.getBlinkCount(y) > 0) {
+					damage.mark(0, y, screenCells.width, 1);
+					changed = true;
 				}
 			}
-			if (cursorVisible && cursorBlink) {
-				JScreenCell cell = cells[cursor.y][cursor.x];
-				cell.setAttr(Attr._IS_BLINKED, blinked);
-				screen.repaint(cellPixels(cursor));
-			}
-		}, 0, (int)(1000 / blinkRate), TimeUnit.MILLISECONDS);
+		}
+		if (cursorVisible && cursorBlink) {
+			damage.mark(cursor.x, cursor.y, 1, 1);
+			changed = true;
+		}
+		if (changed) {
+			requestFrame();
+		}
 	}
 	
 	/**
 	 * Call when done with the JScreen component, to clean up resources.
+	 * The screen stops blinking, repainting and fast-forwarding, discards any text waiting in its pacer
+	 * or output pipelines, and releases its back buffer.  Key events are discarded, and anything
+	 * waiting for one is woken with IllegalStateException (see JScreenKeyboard.close()).
+	 * The scheduler isn't closed, as it may be shared.
 	 */
 	@Override
-	public void close() {
-		if ((scheduler != null) && !scheduler.isShutdown()) {
-			scheduler.shutdownNow();
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		scheduler.removeBlinker(blinker);
+		fastForward = false;
+		if (sampler != null) {
+			sampler.cancel(false);
+			sampler = null;
+		}
+		if (pacer != null) {
+			pacer.clear();
 		}
+		for (JScreenOutputPipeline pipeline : pipelines) {
+			pipeline.abort();
+		}
+		for (JScreenRenderer renderer : renderers) {
+			renderer.release();
+		}
+		keyboard.close();
+	}
+
+	/**
+	 * Check whether the screen has been closed.
+	 * @return True if close() has been called.
+	 */
+	public boolean isClosed() {
+		return closed;
 	}
 
+	/**
+	 * Called by an output pipeline when it starts, so it can be stopped when the screen is closed.
+	 * @param pipeline Pipeline printing to this screen.
+	 */
+	synchronized void addPipeline(JScreenOutputPipeline pipeline) {
+		if (closed) {
+			pipeline.abort();
+		} else {
+			pipelines.add(pipeline);
+		}
+	}
+
+	/**
+	 * Called by an output pipeline when its thread finishes.
+	 * @param pipeline Pipeline which was printing to this screen.
+	 */
+	void removePipeline(JScreenOutputPipeline pipeline) {
+		pipelines.remove(pipeline);
+	}
 
 	// ##### Window creation methods #####
 	
@@ -417,7 +415,7 @@ public class JScreen implements Closeable {
 	public void resetTextColors() {
 		setFGColor(palette.defaultFG);
 		setBGColor(palette.defaultBG);
-		this.attrs = createAttrSet((Attr[])null);
+		this.attrs = 0;
 	}
 	
 	/**
@@ -429,7 +427,7 @@ public class JScreen implements Closeable {
 	public void setTextColors(int fg, int bg, Attr... attrs) {
 		setFGColor(fg);
 		setBGColor(bg);
-		this.attrs = createAttrSet(attrs);
+		this.attrs = Attr.toMask(attrs);
 	}
 	
 	/** 
@@ -478,8 +476,8 @@ public class JScreen implements Closeable {
 	 * @return Array of colors: [fg, bg]
 	 */
 	public int[] getCellColors(Point coord) {
-		JScreenCell cell = getWindowCell(coord);
-		return new int[] { cell.fg, cell.bg };
+		long cell = getWindowCell(coord);
+		return new int[] { JScreenBuffer.getFG(cell), JScreenBuffer.getBG(cell) };
 	}
 	
 	/**
@@ -489,8 +487,8 @@ public class JScreen implements Closeable {
 	 * @return Array of colors: [fg, bg]
 	 */
 	public int[] getCellColors(int x, int y) {
-		JScreenCell cell = getWindowCell(x, y);
-		return new int[] { cell.fg, cell.bg };
+		long cell = getWindowCell(x, y);
+		return new int[] { JScreenBuffer.getFG(cell), JScreenBuffer.getBG(cell) };
 	}
 	
 	/**
@@ -499,7 +497,7 @@ public class JScreen implements Closeable {
 	 * @return Foreground color palette index.
 	 */
 	public int getCellFGColor(Point coord) {
-		return getWindowCell(coord).fg;
+		return JScreenBuffer.getFG(getWindowCell(coord));
 	}
 
 	/**
@@ -509,7 +507,7 @@ public class JScreen implements Closeable {
 	 * @return Foreground color palette index.
 	 */
 	public int getCellFGColor(int x, int y) {
-		return getWindowCell(x, y).fg;
+		return JScreenBuffer.getFG(getWindowCell(x, y));
 	}
 
 	/**
@@ -518,7 +516,7 @@ public class JScreen implements Closeable {
 	 * @return Background color palette index.
 	 */
 	public int getCellBGColor(Point coord) {
-		return getWindowCell(coord).bg;
+		return JScreenBuffer.getBG(getWindowCell(coord));
 	}
 	
 	/**
@@ -528,7 +526,7 @@ public class JScreen implements Closeable {
 	 * @return Background color palette index.
 	 */
 	public int getCellBGColor(int x, int y) {
-		return getWindowCell(x, y).bg;
+		return JScreenBuffer.getBG(getWindowCell(x, y));
 	}
 	
 	/**
@@ -548,9 +546,9 @@ public class JScreen implements Closeable {
 	 */
 	public void setTextAttr(Attr attr, boolean on) {
 		if (on) {
-			attrs.add(attr);
+			attrs |= attr.mask();
 		} else {
-			attrs.remove(attr);
+			attrs &= ~attr.mask();
 		}
 	}
 	
@@ -559,11 +557,7 @@ public class JScreen implements Closeable {
 	 * @param attr Display attribute to toggle.
 	 */
 	public void toggleTextAttr(Attr attr) {
-		if (attrs.contains(attr)) {
-			attrs.remove(attr);
-		} else {
-			attrs.add(attr);
-		}
+		attrs ^= attr.mask();
 	}
 	
 	/**
@@ -572,14 +566,14 @@ public class JScreen implements Closeable {
 	 * @return Current state of attribute.
 	 */
 	public boolean getTextAttr(Attr attr) {
-		return attrs.contains(attr);
+		return (attrs & attr.mask()) != 0;
 	}
 	
 	/**
 	 * Clears all text attributes.
 	 */
 	public void clearTextAttrs() {
-		attrs.clear();
+		attrs = 0;
 	}
 	
 	/**
@@ -600,12 +594,11 @@ public class JScreen implements Closeable {
 	 * @param on Turn it on or off.
 	 */
 	public void setCellAttr(int x, int y, Attr attr, boolean on) {
-		JScreenCell cell = getWindowCell(x, y);
-		cell.setAttr(attr, on);
-		if ((attr == Attr.BLINKING) && on) {
-			blinkingChars = true;
+		synchronized (frameLock) {
+			Point coord = windowCoordToScreen(x, y);
+			cells.setAttr(coord.x, coord.y, attr, on);
+			repaintCells(coord.x, coord.y, 1, 1);
 		}
-		screen.repaint(cellPixels(x, y));
 	}
 	
 	/**
@@ -624,12 +617,11 @@ public class JScreen implements Closeable {
 	 * @param attr Display attribute to toggle.
 	 */
 	public void toggleCellAttr(int x, int y, Attr attr) {
-		JScreenCell cell = getWindowCell(x, y);
-		cell.toggleAttr(attr);
-		if (cell.attrs.contains(Attr.BLINKING)) {
-			blinkingChars = true;
+		synchronized (frameLock) {
+			Point coord = windowCoordToScreen(x, y);
+			cells.toggleAttr(coord.x, coord.y, attr);
+			repaintCells(coord.x, coord.y, 1, 1);
 		}
-		screen.repaint(cellPixels(x, y));
 	}
 	
 	/**
@@ -639,7 +631,7 @@ public class JScreen implements Closeable {
 	 * @return Current state of attribute.
 	 */
 	public boolean getCellAttr(Point coord, Attr attr) {
-		return getWindowCell(coord).attrs.contains(attr);
+		return JScreenBuffer.hasAttr(getWindowCell(coord), attr);
 	}
 
 	/**
@@ -650,24 +642,7 @@ public class JScreen implements Closeable {
 	 * @return Current state of attribute.
 	 */
 	public boolean getCellAttr(int x, int y, Attr attr) {
-		return getWindowCell(x, y).attrs.contains(attr);
-	}
-
-	/**
-	 * Create an EnumSet of attributes from varargs or an array of Attrs.
-	 * @param attrs Zero or more attributes to add to the set.
-	 * @return EnumSet of attributes.
-	 */
-	private EnumSet<Attr> createAttrSet(Attr... attrs) {
-		EnumSet<Attr> set = EnumSet.noneOf(Attr.class);
-		if (attrs != null) {
-			for (Attr attr : attrs) {
-				if (attr != null) {
-					set.add(attr);
-				}
-			}
-		}
-		return set;
+		return JScreenBuffer.hasAttr(getWindowCell(x, y), attr);
 	}
 
 	// ##### Screen mode methods #####
@@ -699,10 +674,15 @@ public class JScreen implements Closeable {
 	
 	/**
 	 * Get current screen dimensions (in pixels).
+	 * A headless screen has no pixels, so returns 0x0.
 	 * @return Screen dimensions in pixels.
 	 */
 	public Dimension getTextScreenPixels() {
-		return new Dimension(screenPixels.getSize());
+		JScreenView v = view;
+		if (v == null) {
+			return new Dimension();
+		}
+		return v.getScreenPixels();
 	}
 	
 	/**
@@ -710,11 +690,18 @@ public class JScreen implements Closeable {
 	 * @param size New screen dimensions in characters.
 	 */
 	public void setTextScreenSize(Dimension size) {
-		screenCells = new Rectangle(size);
-//		System.out.println("Screen size: " + screenCells.getSize());
-		window = new Rectangle(screenCells);
-		cells = JScreenRegion.createCellGrid(screenCells.getSize());
-		setFontScale();
+		synchronized (frameLock) {
+			screenCells = new Rectangle(size);
+//			System.out.println("Screen size: " + screenCells.getSize());
+			window = new Rectangle(screenCells);
+			clearScrollMargins();
+			cells = new JScreenBuffer(screenCells.width, screenCells.height);
+			damage = new JScreenDamage(screenCells.width, screenCells.height);
+			generation++;
+		}
+		if (view != null) {
+			view.sizeChanged();
+		}
 		clearScreen();
 	}
 	
@@ -729,12 +716,22 @@ public class JScreen implements Closeable {
 		if (ArrayUtils.isEmpty(fonts)) {
 			throw new IllegalArgumentException("Must provide at least one font!");
 		}
-		this.fonts = fonts;
+		Dimension size = fonts[0].getCellSize(1);
+		for (JScreenFont font : fonts) {
+			if (!size.equals(font.getCellSize(1))) {
+				throw new IllegalArgumentException("All fonts must have the same cell size!");
+			}
+		}
+		synchronized (frameLock) {
+			this.fonts = fonts;
+			generation++;
+		}
 		for (int i=0; i<fonts.length; i++) {
-			System.out.println("Font " + i + " family: " + fonts[i].getFamily());
+			System.err.println("Font " + i + " family: " + fonts[i].getFamily());
+		}
+		if (view != null) {
+			view.fontsChanged();
 		}
-		addFontMenus();
-		setFontScale();
 	}
 	
 	/**
@@ -762,8 +759,7 @@ public class JScreen implements Closeable {
 	 * @return Index of font in use.
 	 */
 	public int getCellFont(Point coord) {
-		JScreenCell cell = getWindowCell(coord);
-		return cell.font;
+		return JScreenBuffer.getFont(getWindowCell(coord));
 	}
 
 	/**
@@ -773,63 +769,28 @@ public class JScreen implements Closeable {
 	 * @return Index of font in use.
 	 */
 	public int getCellFont(int x, int y) {
-		JScreenCell cell = getWindowCell(x, y);
-		return cell.font;
+		return JScreenBuffer.getFont(getWindowCell(x, y));
 	}
 
 	/**
 	 * Set the largest font scaling factor to fit on screen.
+	 * Does nothing if the screen is headless.
 	 */
 	public void setFontScale() {
-		if ((screenCells == null) || ArrayUtils.isEmpty(fonts)) {
-			return;
-		}
-		setMaxFontScale();
-		setFontScale(maxFontScale - 1);
-	}
-
-	/**
-	 * Determines the largest font scale which will fit on screen, and sets maxFontScale to that value + 1;
-	 */
-	private void setMaxFontScale() {
-		if ((screenCells == null) || ArrayUtils.isEmpty(fonts)) {
-			return;
+		if (view != null) {
+			view.setFontScale();
 		}
-		// Calculate font scale based on screen dimensions
-		// or should this use Toolkit.getDefaultToolkit().getScreenSize()?
-		Rectangle bounds = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
-		Dimension size = null;
-		// Get the cell size for scale 1, and ensure it is the same for all fonts.
-		for (JScreenFont font : fonts) {
-			Dimension fsize = font.getCellSize(1);
-			if (size == null) {
-				size = fsize;
-			} else {
-				if (!size.equals(fsize)) {
-					throw new IllegalArgumentException("All fonts must have the same cell size!");
-				}
-			}
-		}
-		int xScale = bounds.width / (screenCells.width * size.width);
-		int yScale = bounds.height / (screenCells.height * size.height);
-		maxFontScale = Math.max(1, Math.min(xScale, yScale)) + 1;
-		addFontScaleMenus();
 	}
 	
 	/**
 	 * Set the font scaling factor to use.
+	 * Does nothing if the screen is headless.
 	 * @param scale Font scale to use.
 	 */
 	public void setFontScale(int scale) {
-		if ((screenCells == null) || ArrayUtils.isEmpty(fonts)) {
-			return;
+		if (view != null) {
+			view.setFontScale(scale);
 		}
-		fontScale = scale;
-		cellSize = fonts[0].getCellSize(fontScale);
-		screenPixels = new Rectangle(screenCells.width * cellSize.width, screenCells.height * cellSize.height);
-//		System.out.println("Screen pixels: " + screenPixels);
-		addFontScaleMenus();
-		setPreferredSize();
 	}
 	
 	// ##### Cursor methods #####
@@ -859,11 +820,28 @@ public class JScreen implements Closeable {
 		return new Point(cursor.x - window.x, cursor.y - window.y);
 	}
 	
+	/**
+	 * Get the current cursor position, relative to the full screen.
+	 * @return Current cursor position.
+	 */
+	public Point getScreenCursor() {
+		return new Point(cursor);
+	}
+	
+	/**
+	 * Check whether the cursor is visible.
+	 * @return True if the cursor is shown.
+	 */
+	public boolean isCursorVisible() {
+		return cursorVisible;
+	}
+	
 	/**
 	 * Make the cursor visible.
 	 */
 	public void showCursor() {
 		cursorVisible = true;
+		repaintCells(cursor.x, cursor.y, 1, 1);
 	}
 	
 	/**
@@ -871,6 +849,7 @@ public class JScreen implements Closeable {
 	 */
 	public void hideCursor() {
 		cursorVisible = false;
+		repaintCells(cursor.x, cursor.y, 1, 1);
 	}
 	
 	/**
@@ -879,6 +858,7 @@ public class JScreen implements Closeable {
 	 */
 	public void blinkCursor(boolean blink) {
 		cursorBlink = blink;
+		repaintCells(cursor.x, cursor.y, 1, 1);
 	}
 	
 	/**
@@ -903,30 +883,67 @@ public class JScreen implements Closeable {
 
 	/**
 	 * Perform a line feed.
+	 * If the cursor is on the bottom line of the scrolling region, the region is scrolled up.
 	 */
 	public void lineFeed() {
-		int newY = cursor.y + 1;
-		if (newY >= (window.y + window.height)) {
-			scrollWindowUp();
-			newY--;
+		synchronized (frameLock) {
+			Rectangle region = lineFeedRegion();
+			int newY = cursor.y + 1;
+			if (newY >= (region.y + region.height)) {
+				scrollCellsUp(region);
+				newY--;
+			}
+			setAbsCursor(cursor.x, newY);
+		}
+	}
+	
+	/**
+	 * Perform a reverse line feed.
+	 * If the cursor is on the top line of the scrolling region, the region is scrolled down.
+	 */
+	public void reverseLineFeed() {
+		synchronized (frameLock) {
+			Rectangle region = lineFeedRegion();
+			int newY = cursor.y - 1;
+			if (newY < region.y) {
+				scrollCellsDown(region);
+				newY++;
+			}
+			setAbsCursor(cursor.x, newY);
+		}
+	}
+	
+	/**
+	 * Returns the region scrolled by a line feed at the current cursor position.
+	 * Scroll margins only apply when the cursor is inside them.
+	 * @return Bounds of region in screen.
+	 */
+	private Rectangle lineFeedRegion() {
+		if (hasScrollMargins()) {
+			Rectangle region = scrollRegion();
+			if ((cursor.y >= region.y) && (cursor.y < (region.y + region.height))) {
+				return region;
+			}
 		}
-		setAbsCursor(cursor.x, newY);
+		return window;
 	}
 	
 	/**
 	 * Perform a backspace.
 	 */
 	public void backspace() {
-		if (cursor.x == window.x) {
-			// Already at the left edge of current text window.  Do nothing.
-			return;
+		synchronized (frameLock) {
+			if (cursor.x == window.x) {
+				// Already at the left edge of current text window.  Do nothing.
+				return;
+			}
+			// Somewhere in a line.  Back up.
+			int newX = cursor.x - 1;
+			// Remove the backspaced-over char.
+			cells.set(newX, cursor.y, JScreenBuffer.withAttrs(JScreenBuffer.withChar(cells.get(newX, cursor.y), ' '), 0));
+			repaintCells(newX, cursor.y, 1, 1);
+			setAbsCursor(newX, cursor.y);
 		}
-		// Somewhere in a line.  Back up.
-		int newX = cursor.x - 1;
-		// Remove the backspaced-over char.
-		cells[cursor.y][newX].ch = ' ';
-		cells[cursor.y][newX].attrs.clear();
-		setAbsCursor(newX, cursor.y);
 	}
 
 	/**
@@ -947,13 +964,18 @@ public class JScreen implements Closeable {
 	 * @param y Y position in screen.
 	 */
 	private void setAbsCursor(int x, int y) {
-		int oldX = cursor.x;
-		int oldY = cursor.y;
-		cursor.x = x;
-		cursor.y = y;
-		if (cursorVisible) {
-			screen.repaint(cellPixels(oldX, oldY));
-			screen.repaint(cellPixels(cursor));
+		synchronized (frameLock) {
+			int oldX = cursor.x;
+			int oldY = cursor.y;
+			cursor.x = x;
+			cursor.y = y;
+			if (fastForward) {
+				needSample();
+			} else if (cursorVisible) {
+				damage.mark(oldX, oldY, 1, 1);
+				damage.mark(x, y, 1, 1);
+				requestFrame();
+			}
 		}
 	}
 	
@@ -1048,6 +1070,49 @@ public class JScreen implements Closeable {
 		return new Rectangle(window);
 	}
 	
+	/**
+	 * Set the scrolling region (margins) within the current text window.
+	 * Line feeds with the cursor inside the scrolling region only scroll the lines of the region,
+	 * and scrollWindowUp()/scrollWindowDown() scroll only the region.
+	 * Margins beyond the bottom of the window are limited to the window.
+	 * @param top Top line of the scrolling region, relative to the current text window.
+	 * @param bottom Bottom line of the scrolling region (inclusive), relative to the current text window.
+	 */
+	public void setScrollMargins(int top, int bottom) {
+		if ((top < 0) || (bottom < top)) {
+			throw new IllegalArgumentException("Invalid scroll margins: " + top + ", " + bottom);
+		}
+		marginTop = top;
+		marginBottom = bottom;
+	}
+	
+	/**
+	 * Remove the scrolling region, so the whole text window scrolls.
+	 */
+	public void clearScrollMargins() {
+		marginTop = -1;
+		marginBottom = -1;
+	}
+	
+	/**
+	 * @return Is a scrolling region set within the current text window?
+	 */
+	public boolean hasScrollMargins() {
+		return (marginTop >= 0) && (marginTop < window.height);
+	}
+	
+	/**
+	 * Returns the scrolling region of the current text window.
+	 * @return Bounds of scrolling region in screen, or the current text window if no margins are set.
+	 */
+	private Rectangle scrollRegion() {
+		if (!hasScrollMargins()) {
+			return window;
+		}
+		int bottom = Math.min(marginBottom + 1, window.height);
+		return new Rectangle(window.x, window.y + marginTop, window.width, bottom - marginTop);
+	}
+	
 	/**
 	 * Save and return the current text window state.
 	 * @return Current text window state.
@@ -1061,7 +1126,7 @@ public class JScreen implements Closeable {
 		state.font = font;
 		state.fgColor = fgColor;
 		state.bgColor = bgColor;
-		state.attrs = EnumSet.copyOf(attrs);
+		state.attrs = Attr.toSet(attrs);
 		return state;
 	}
 	
@@ -1077,7 +1142,7 @@ public class JScreen implements Closeable {
 		font = state.font;
 		fgColor = state.fgColor;
 		bgColor = state.bgColor;
-		attrs = EnumSet.copyOf(state.attrs);
+		attrs = Attr.toMask(state.attrs);
 	}
 	
 	/**
@@ -1119,66 +1184,68 @@ public class JScreen implements Closeable {
 	 * @param frameAttrs Window frame text attributes.
 	 */
 	public void frameWindow(String title, char[] frame, Integer frameFG, Integer frameBG, Attr... frameAttrs) {
-		Point coord = new Point(0, 0);
+		synchronized (frameLock) {
+			Point coord = new Point(0, 0);
 		
-		if (frame != null) {
-			if (frameFG == null) {
-				frameFG = fgColor;
-			}
-			if (frameBG == null) {
-				frameBG = bgColor;
-			}
-			if (frameAttrs == null) {
-				frameAttrs = attrs.toArray(new Attr[0]);
-			}
+			if (frame != null) {
+				if (frameFG == null) {
+					frameFG = fgColor;
+				}
+				if (frameBG == null) {
+					frameBG = bgColor;
+				}
+				if (frameAttrs == null) {
+					frameAttrs = Attr.toSet(attrs).toArray(new Attr[0]);
+				}
 			
-			// upper left corner
-			putChar(coord, frame[0], frameFG, frameBG, frameAttrs);
-			// top line
-			coord.x++;
-			putChars(coord, frame[1], window.width - 2, frameFG, frameBG, frameAttrs);
-			// upper right corner
-			coord.x = window.width - 1;
-			putChar(coord, frame[2], frameFG, frameBG, frameAttrs);
-		}
-		// title
-		if (title != null) {
-			if ((frame != null) && (frame.length > 9)) {
-				title = StringUtils.substring(title, 0, window.width - 4);
-				coord.x = (window.width - title.length()) / 2;
-				putChar(coord.x - 1, coord.y, frame[8], frameFG, frameBG, frameAttrs);
-				putStr(coord, title);
-				putChar(coord.x + title.length(), coord.y, frame[9], frameFG, frameBG, frameAttrs);
-			} else {
-				title = StringUtils.substring(title, 0, window.width - 2);
-				coord.x = (window.width - title.length()) / 2;
-				putStr(coord, title);
+				// upper left corner
+				putChar(coord, frame[0], frameFG, frameBG, frameAttrs);
+				// top line
+				coord.x++;
+				putChars(coord, frame[1], window.width - 2, frameFG, frameBG, frameAttrs);
+				// upper right corner
+				coord.x = window.width - 1;
+				putChar(coord, frame[2], frameFG, frameBG, frameAttrs);
+			}
+			// title
+			if (title != null) {
+				if ((frame != null) && (frame.length > 9)) {
+					title = StringUtils.substring(title, 0, window.width - 4);
+					coord.x = (window.width - title.length()) / 2;
+					putChar(coord.x - 1, coord.y, frame[8], frameFG, frameBG, frameAttrs);
+					putStr(coord, title);
+					putChar(coord.x + title.length(), coord.y, frame[9], frameFG, frameBG, frameAttrs);
+				} else {
+					title = StringUtils.substring(title, 0, window.width - 2);
+					coord.x = (window.width - title.length()) / 2;
+					putStr(coord, title);
+				}
 			}
-		}
 		
-		if (frame != null) {
-			// left and right side lines
-			for (int y=1; y<window.height; y++) {
-				coord.y = y;
+			if (frame != null) {
+				// left and right side lines
+				for (int y=1; y<window.height; y++) {
+					coord.y = y;
+					coord.x = 0;
+					putChar(coord, frame[3], frameFG, frameBG, frameAttrs);
+					coord.x = window.width - 1;
+					putChar(coord, frame[4], frameFG, frameBG, frameAttrs);
+				}
+			
+				// lower left corner
+				coord.y = window.height - 1;
 				coord.x = 0;
-				putChar(coord, frame[3], frameFG, frameBG, frameAttrs);
+				putChar(coord, frame[5], frameFG, frameBG, frameAttrs);
+				// bottom line
+				coord.x++;
+				putChars(coord, frame[6], window.width - 2, frameFG, frameBG, frameAttrs);
+				// lower right corner
 				coord.x = window.width - 1;
-				putChar(coord, frame[4], frameFG, frameBG, frameAttrs);
+				putChar(coord, frame[7], frameFG, frameBG, frameAttrs);
 			}
-			
-			// lower left corner
-			coord.y = window.height - 1;
-			coord.x = 0;
-			putChar(coord, frame[5], frameFG, frameBG, frameAttrs);
-			// bottom line
-			coord.x++;
-			putChars(coord, frame[6], window.width - 2, frameFG, frameBG, frameAttrs);
-			// lower right corner
-			coord.x = window.width - 1;
-			putChar(coord, frame[7], frameFG, frameBG, frameAttrs);
-		}
 
-		adjustWindow(1, 1, -2, -2);
+			adjustWindow(1, 1, -2, -2);
+		}
 	}
 	
 	/**
@@ -1235,25 +1302,17 @@ public class JScreen implements Closeable {
 	 * @param bg Background color to use.
 	 * @param attrs Character attributes to use.
 	 */
-	private void putCellChar(Point coord, char ch, int count, int fg, int bg, EnumSet<Attr> attrs) {
-		if (charMap != null) {
-			ch = charMap.mapChar(ch);
-		}
-		for (int i=0; i<count; i++) {
-			int x = coord.x + i;
-			if (x > (window.x + window.width - 1)) {
-				break;
+	private void putCellChar(Point coord, char ch, int count, int fg, int bg, int attrs) {
+		synchronized (frameLock) {
+			if (charMap != null) {
+				ch = charMap.mapChar(ch);
 			}
-			JScreenCell cell = cells[coord.y][x];
-			cell.fg = fg;
-			cell.bg = bg;
-			cell.ch = ch;
-			cell.font = font;
-			cell.setAttrs(attrs);
-			screen.repaint(cellPixels(x, coord.y));
-		}
-		if (attrs.contains(Attr.BLINKING)) {
-			blinkingChars = true;
+			count = Math.min(count, (window.x + window.width) - coord.x);
+			if (count < 1) {
+				return;
+			}
+			cells.fill(coord.x, coord.y, count, JScreenBuffer.pack(ch, font, fg, bg, attrs));
+			repaintCells(coord.x, coord.y, count, 1);
 		}
 	}
 	
@@ -1269,8 +1328,7 @@ public class JScreen implements Closeable {
 	 * @param attrs Character attributes to use.
 	 */
 	public void putChars(Point coord, char ch, int count, int fg, int bg, Attr... attrs) {
-		EnumSet<Attr> set = createAttrSet(attrs);
-		putCellChar(windowPointToScreen(coord), ch, count, fg, bg, set);
+		putCellChar(windowPointToScreen(coord), ch, count, fg, bg, Attr.toMask(attrs));
 	}
 	
 	/**
@@ -1286,8 +1344,7 @@ public class JScreen implements Closeable {
 	 * @param attrs Character attributes to use.
 	 */
 	public void putChars(int x, int y, char ch, int count, int fg, int bg, Attr... attrs) {
-		EnumSet<Attr> set = createAttrSet(attrs);
-		putCellChar(windowCoordToScreen(x, y), ch, count, fg, bg, set);
+		putCellChar(windowCoordToScreen(x, y), ch, count, fg, bg, Attr.toMask(attrs));
 	}
 	
 	/**
@@ -1300,8 +1357,7 @@ public class JScreen implements Closeable {
 	 * @param attrs Character attributes to use.
 	 */
 	public void putChar(Point coord, char ch, int fg, int bg, Attr... attrs) {
-		EnumSet<Attr> set = createAttrSet(attrs);
-		putCellChar(windowPointToScreen(coord), ch, 1, fg, bg, set);
+		putCellChar(windowPointToScreen(coord), ch, 1, fg, bg, Attr.toMask(attrs));
 	}
 	
 	/**
@@ -1315,8 +1371,7 @@ public class JScreen implements Closeable {
 	 * @param attrs Character attributes to use.
 	 */
 	public void putChar(int x, int y, char ch, int fg, int bg, Attr... attrs) {
-		EnumSet<Attr> set = createAttrSet(attrs);
-		putCellChar(windowCoordToScreen(x, y), ch, 1, fg, bg, set);
+		putCellChar(windowCoordToScreen(x, y), ch, 1, fg, bg, Attr.toMask(attrs));
 	}
 	
 	/**
@@ -1351,9 +1406,10 @@ public class JScreen implements Closeable {
 	 * @param attrs Character attributes to use.
 	 */
 	public void putChar(char ch, int fg, int bg, Attr... attrs) {
-		EnumSet<Attr> set = createAttrSet(attrs);
-		putCellChar(cursor, ch, 1, fg, bg, set);
-		advanceCursor();
+		synchronized (frameLock) {
+			putCellChar(cursor, ch, 1, fg, bg, Attr.toMask(attrs));
+			advanceCursor();
+		}
 	}
 	
 	/**
@@ -1363,8 +1419,10 @@ public class JScreen implements Closeable {
 	 * @param ch Character to place.
 	 */
 	public void putChar(char ch) {
-		putCellChar(cursor, ch, 1, fgColor, bgColor, attrs);
-		advanceCursor();
+		synchronized (frameLock) {
+			putCellChar(cursor, ch, 1, fgColor, bgColor, attrs);
+			advanceCursor();
+		}
 	}
 	
 	/**
@@ -1383,7 +1441,7 @@ public class JScreen implements Closeable {
 	 * @return Character from cell.
 	 */
 	public char getWindowCellChar(int x, int y) {
-		char ch = getWindowCell(x, y).ch;
+		char ch = JScreenBuffer.getChar(getWindowCell(x, y));
 		if (charMap != null) {
 			ch = charMap.unmapChar(ch);
 		}
@@ -1406,7 +1464,7 @@ public class JScreen implements Closeable {
 	 * @return Character from cell.
 	 */
 	public char getCellChar(int x, int y) {
-		char ch = getCell(x, y).ch;
+		char ch = JScreenBuffer.getChar(getCell(x, y));
 		if (charMap != null) {
 			ch = charMap.unmapChar(ch);
 		}
@@ -1458,13 +1516,27 @@ public class JScreen implements Closeable {
 		if (StringUtils.isEmpty(str)) {
 			return;
 		}
-		Point coord = windowCoordToScreen(x, y);
-		EnumSet<Attr> set = createAttrSet(attrs);
-		for (int i=0; i<str.length(); i++) {
-			putCellChar(coord, str.charAt(i), 1, fg, bg, set);
-			coord.x++;
-			if (coord.x > (window.x + window.width - 1)) {
-				break;
+		putCellStr(windowCoordToScreen(x, y), str, fg, bg, Attr.toMask(attrs));
+	}
+	
+	/**
+	 * Puts the given string at the given screen-relative coordinates.
+	 * Printing stops at the right edge of the current text window.
+	 * Does not move the cursor.
+	 * @param coord Coordinates relative to whole screen.
+	 * @param str String to place.
+	 * @param fg Foreground color to use.
+	 * @param bg Background color to use.
+	 * @param attrs Character attributes to use.
+	 */
+	private void putCellStr(Point coord, String str, int fg, int bg, int attrs) {
+		synchronized (frameLock) {
+			for (int i=0; i<str.length(); i++) {
+				putCellChar(coord, str.charAt(i), 1, fg, bg, attrs);
+				coord.x++;
+				if (coord.x > (window.x + window.width - 1)) {
+					break;
+				}
 			}
 		}
 	}
@@ -1489,7 +1561,9 @@ public class JScreen implements Closeable {
 	 * @param str String to place.
 	 */
 	public void putStrCentered(String str) {
-		putStrCentered(str, fgColor, bgColor, attrs.toArray(new Attr[0]));
+		str = StringUtils.substring(str, 0, window.width);
+		int x = (window.width - str.length()) / 2;
+		putStr(x, cursor.y - window.y, str);
 	}
 	
 	/**
@@ -1502,7 +1576,10 @@ public class JScreen implements Closeable {
 	 * @param str String to place.
 	 */
 	public void putStr(int x, int y, String str) {
-		putStr(x, y, str, fgColor, bgColor, attrs.toArray(new Attr[0]));
+		if (StringUtils.isEmpty(str)) {
+			return;
+		}
+		putCellStr(windowCoordToScreen(x, y), str, fgColor, bgColor, attrs);
 	}
 	
 	/**
@@ -1514,13 +1591,15 @@ public class JScreen implements Closeable {
 	 * @param attrs Character attributes to use.
 	 */
 	public void putStr(String str, int fg, int bg, Attr... attrs) {
-		if (StringUtils.isEmpty(str)) {
-			return;
-		}
-		EnumSet<Attr> set = createAttrSet(attrs);
-		for (int i=0; i<str.length(); i++) {
-			putCellChar(cursor, str.charAt(i), 1, fg, bg, set);
-			advanceCursor();
+		synchronized (frameLock) {
+			if (StringUtils.isEmpty(str)) {
+				return;
+			}
+			int mask = Attr.toMask(attrs);
+			for (int i=0; i<str.length(); i++) {
+				putCellChar(cursor, str.charAt(i), 1, fg, bg, mask);
+				advanceCursor();
+			}
 		}
 	}
 	
@@ -1531,11 +1610,56 @@ public class JScreen implements Closeable {
 	 * @param str String to place.
 	 */
 	public void putStr(String str) {
-		if (StringUtils.isEmpty(str)) {
-			return;
+		synchronized (frameLock) {
+			if (StringUtils.isEmpty(str)) {
+				return;
+			}
+			for (int i=0; i<str.length(); i++) {
+				putChar(str.charAt(i));
+			}
 		}
-		for (int i=0; i<str.length(); i++) {
-			putChar(str.charAt(i));
+	}
+	
+	/**
+	 * Puts the given chars at the current cursor position using current
+	 * foreground color, background color, and attributes.
+	 * Each line's worth of chars is written in a single pass.
+	 * Advances the cursor, wrapping at the right edge of the current text window.
+	 * @param chars Characters to place.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to place.
+	 */
+	public void putStr(char[] chars, int offset, int length) {
+		if ((offset < 0) || (length < 0) || ((offset + length) > chars.length)) {
+			throw new IllegalArgumentException("Invalid offset or length.");
+		}
+		long cell = JScreenBuffer.pack(' ', font, fgColor, bgColor, attrs);
+		char[] mapped = (charMap == null) ? null : new char[Math.min(length, window.width)];
+		int end = offset + length;
+		while (offset < end) {
+			// a line at a time, so a frame shows whole lines, but isn't held up for all of a long text
+			synchronized (frameLock) {
+				int right = window.x + window.width;
+				int count = Math.min(end - offset, right - cursor.x);
+				if (count < 1) {
+					break;
+				}
+				if (mapped == null) {
+					cells.put(cursor.x, cursor.y, chars, offset, count, cell);
+				} else {
+					System.arraycopy(chars, offset, mapped, 0, count);
+					charMap.mapChars(mapped, 0, count);
+					cells.put(cursor.x, cursor.y, mapped, 0, count, cell);
+				}
+				repaintCells(cursor.x, cursor.y, count, 1);
+				offset += count;
+				if ((cursor.x + count) >= right) {
+					carriageReturn();
+					lineFeed();
+				} else {
+					setAbsCursor(cursor.x + count, cursor.y);
+				}
+			}
 		}
 	}
 	
@@ -1575,11 +1699,40 @@ public class JScreen implements Closeable {
 	 * @param str String to print.
 	 */
 	public void print(String str) {
-		if (StringUtils.isEmpty(str)) {
+		print((CharSequence)str);
+	}
+	
+	/**
+	 * Prints the given text at the current cursor position using current
+	 * foreground color, background color, and attributes.
+	 * The text to be output is processed by the current text protocol handler.
+	 * @param text Text to print.
+	 */
+	public void print(CharSequence text) {
+		if (StringUtils.isEmpty(text)) {
 			return;
 		}
-		for (int i=0; i<str.length(); i++) {
-			print(str.charAt(i));
+		if (protocol != null) {
+			protocol.print(text);
+			return;
+		}
+		char[] chars = text.toString().toCharArray();
+		putStr(chars, 0, chars.length);
+	}
+	
+	/**
+	 * Prints the given chars at the current cursor position using current
+	 * foreground color, background color, and attributes.
+	 * The text to be output is processed by the current text protocol handler.
+	 * @param chars Characters to print.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to print.
+	 */
+	public void print(char[] chars, int offset, int length) {
+		if (protocol == null) {
+			putStr(chars, offset, length);
+		} else {
+			protocol.print(chars, offset, length);
 		}
 	}
 	
@@ -1648,16 +1801,34 @@ public class JScreen implements Closeable {
 	 * The text to be output is processed by the current text protocol handler.
 	 * @param bps BPS for printing.
 	 * @param str String to print.
+	 * @throws IllegalStateException If called on the screen's scheduler thread, such as in a renderer,
+	 * as that thread prints the text.
 	 */
 	public void printBPS(int bps, String str) {
-		// pause between displaying chars to simulate modem speed
-		// microseconds = 1,000,000us/s / cps
-		// cps = bps / 8
-		int wait = (int)(1000000 / (bps / 8.0));
-		for (int i=0; i<str.length(); i++) {
-			print(str.charAt(i));
-			Pause.micro(wait);
+		if (getScheduler().isSchedulerThread()) {
+			throw new IllegalStateException("Can't wait for paced output on the scheduler thread.");
+		}
+		JScreenPacer p = getPacer();
+		p.setBPS(bps);
+		p.print(str);
+		try {
+			p.await();
+		} catch (InterruptedException e) {
+			// stop printing, but let the caller know it was interrupted
+			p.clear();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Returns the pacer used by printBPS(), which can also be used to print without waiting.
+	 * @return Screen's pacer.
+	 */
+	public synchronized JScreenPacer getPacer() {
+		if (pacer == null) {
+			pacer = new JScreenPacer(this, Integer.MAX_VALUE);
 		}
+		return pacer;
 	}
 
 	/**
@@ -1741,32 +1912,33 @@ public class JScreen implements Closeable {
 	 * @param attrs Text attributes to use.
 	 */
 	private void fillCells(Rectangle region, Character ch, Integer fg, Integer bg, Attr... attrs) {
-		if ((region.width < 1) || (region.height < 1)) {
-			// nothing to do
-			return;
-		}
-		for (int y=region.y; y<(region.y + region.height); y++) {
-			for (int x=region.x; x<(region.x + region.width); x++) {
-				JScreenCell cell = cells[y][x];
-				if (ch != null) {
-					cell.ch = ch;
-					cell.font = font;
-				}
-				if (fg != null) {
-					cell.fg = fg;
-				}
-				if (bg != null) {
-					cell.bg = bg;
-				}
-				if (attrs != null) {
-					cell.setAttrs(attrs);
-				}
+		synchronized (frameLock) {
+			if ((region.width < 1) || (region.height < 1)) {
+				// nothing to do
+				return;
 			}
+			// build the bits to set, and a mask of the bits to keep from each existing cell
+			long keep = -1L;
+			long set = 0;
+			if (ch != null) {
+				keep &= ~(JScreenBuffer.CH_MASK | JScreenBuffer.FONT_MASK);
+				set |= JScreenBuffer.pack(ch, font, 0, 0, 0);
+			}
+			if (fg != null) {
+				keep &= ~JScreenBuffer.FG_MASK;
+				set |= JScreenBuffer.pack((char)0, 0, fg, 0, 0);
+			}
+			if (bg != null) {
+				keep &= ~JScreenBuffer.BG_MASK;
+				set |= JScreenBuffer.pack((char)0, 0, 0, bg, 0);
+			}
+			if (attrs != null) {
+				keep &= ~JScreenBuffer.ATTR_MASK;
+				set |= JScreenBuffer.pack((char)0, 0, 0, 0, Attr.toMask(attrs));
+			}
+			cells.fill(region, keep, set);
+			repaintCells(region);
 		}
-		if (ArrayUtils.contains(attrs, Attr.BLINKING)) {
-			blinkingChars = true;
-		}
-		screen.repaint(regionPixels(region));
 	}
 	
 	// ##### Screen region clearing methods #####
@@ -1776,9 +1948,11 @@ public class JScreen implements Closeable {
 	 * Also sets the current text window to the full screen and clears the current text attributes.
 	 */
 	public void clearScreen() {
-		setWindow(screenCells);
-		clearTextAttrs();
-		clearWindow();
+		synchronized (frameLock) {
+			setWindow(screenCells);
+			clearTextAttrs();
+			clearWindow();
+		}
 	}
 	
 	/**
@@ -1786,8 +1960,10 @@ public class JScreen implements Closeable {
 	 * Sets cursor at upper left corner.
 	 */
 	public void clearWindow() {
-		clearCells(window);
-		setCursor(0, 0);
+		synchronized (frameLock) {
+			clearCells(window);
+			setCursor(0, 0);
+		}
 	}
 	
 	/**
@@ -1823,16 +1999,20 @@ public class JScreen implements Closeable {
 	 * Clear from cursor to beginning of current text window, using current foreground and background colors.
 	 */
 	public void clearToTop() {
-		clearToBOL();
-		clearCells(new Rectangle(window.x, window.y, window.width, cursor.y - window.y));
+		synchronized (frameLock) {
+			clearToBOL();
+			clearCells(new Rectangle(window.x, window.y, window.width, cursor.y - window.y));
+		}
 	}
 	
 	/**
 	 * Clear from cursor to end of current text window, using current foreground and background colors.
 	 */
 	public void clearToBottom() {
-		clearToEOL();
-		clearCells(new Rectangle(window.x, cursor.y + 1, window.width, ((window.y + window.height) - 1) - cursor.y));
+		synchronized (frameLock) {
+			clearToEOL();
+			clearCells(new Rectangle(window.x, cursor.y + 1, window.width, ((window.y + window.height) - 1) - cursor.y));
+		}
 	}
 	
 	/**
@@ -1852,7 +2032,25 @@ public class JScreen implements Closeable {
 	public JScreenRegion readScreen() {
 		return readCells(screenCells);
 	}
-	
+
+	/**
+	 * Copy the packed data of all the character cells in the screen (see JScreenBuffer), in screen order,
+	 * with row y starting at y * screen width.  This is much cheaper than readScreen() for taking
+	 * snapshots to compare, such as for ANSIEncoder.
+	 * @param dest Array to copy into, if it is the size of the screen.  May be null.
+	 * @return dest, or a new array if dest was not the size of the screen.
+	 */
+	public long[] readScreenCells(long[] dest) {
+		synchronized (frameLock) {
+			int size = screenCells.width * screenCells.height;
+			if ((dest == null) || (dest.length != size)) {
+				dest = new long[size];
+			}
+			cells.copyTo(dest);
+			return dest;
+		}
+	}
+
 	/**
 	 * Return the data from all the character cells in the current text window.
 	 * @return Contents of current text window.
@@ -1885,13 +2083,7 @@ public class JScreen implements Closeable {
 			for (int sx=region.x; sx<(region.x + region.width); sx++) {
 				int dx = sx - region.x;
 				int dy = sy - region.y;
-				JScreenCell src = cells[sy][sx];
-				JScreenCell dest = data.cells[dy][dx];
-				dest.ch = src.ch;
-				dest.font = src.font;
-				dest.fg = src.fg;
-				dest.bg = src.bg;
-				dest.setAttrs(src.attrs);
+				cells.getCell(sx, sy, data.cells[dy][dx]);
 			}
 		}
 		return data;
@@ -1930,25 +2122,19 @@ public class JScreen implements Closeable {
 	 * @param data Contents for region in screen.
 	 */
 	private void writeCells(Rectangle region, JScreenRegion data) {
-		int bottom = region.y + Math.min(region.height, data.size.height);
-		int right = region.x + Math.min(region.width, data.size.width);
-		for (int dy=region.y; dy<bottom; dy++) {
-			for (int dx=region.x; dx<right; dx++) {
-				int sx = dx - region.x;
-				int sy = dy - region.y;
-				JScreenCell src = data.cells[sy][sx];
-				JScreenCell dest = cells[dy][dx];
-				dest.ch = src.ch;
-				dest.font = src.font;
-				dest.fg = src.fg;
-				dest.bg = src.bg;
-				dest.setAttrs(src.attrs);
-				if (dest.attrs.contains(Attr.BLINKING)) {
-					blinkingChars = true;
+		synchronized (frameLock) {
+			int bottom = region.y + Math.min(region.height, data.size.height);
+			int right = region.x + Math.min(region.width, data.size.width);
+			for (int dy=region.y; dy<bottom; dy++) {
+				for (int dx=region.x; dx<right; dx++) {
+					int sx = dx - region.x;
+					int sy = dy - region.y;
+					JScreenCell src = data.cells[sy][sx];
+					cells.setCell(dx, dy, src);
 				}
 			}
+			repaintCells(region.x, region.y, right - region.x, bottom - region.y);
 		}
-		screen.repaint(regionPixels(region));
 	}
 	
 	// ##### Screen region scrolling methods #####
@@ -1962,9 +2148,10 @@ public class JScreen implements Closeable {
 	
 	/**
 	 * Scroll the current text window up one line.
+	 * If scroll margins are set, only the scrolling region is scrolled.
 	 */
 	public void scrollWindowUp() {
-		scrollCellsUp(window);
+		scrollCellsUp(scrollRegion());
 	}
 	
 	/**
@@ -1988,44 +2175,19 @@ public class JScreen implements Closeable {
 	 * @param region Bounds of region in screen to scroll.
 	 */
 	private void scrollCellsUp(Rectangle region) {
-		if (region.equals(screenCells)) {
-			int bottom = screenCells.height - 1;
-			for (int y=0; y<bottom; y++) {
-				cells[y] = cells[y + 1];
-			}
-			cells[bottom] = JScreenRegion.createCellRow(screenCells.width);
-			if (scrollFillMethod == ScrollFillMethod.CURRENT) {
-				// Set new cells to current colors instead of default.
-				clearCells(new Rectangle(0, bottom, screenCells.width, 1));
-			}
-		} else {
-			if ((region.width < 1) || (region.height < 1)) {
-				// nothing to do
+		if ((region.width < 1) || (region.height < 1)) {
+			// nothing to do
+			return;
+		}
+		synchronized (frameLock) {
+			cells.scrollUp(region, scrollFill());
+			if (fastForward) {
+				needSample();
 				return;
 			}
-			int bottom = (region.y + region.height) - 1;
-			int right = (region.x + region.width) - 1;
-			for (int y=region.y; y<=bottom; y++) {
-				JScreenCell[] newRow = new JScreenCell[0];
-				if (region.x > 0) {
-					newRow = ArrayUtils.addAll(newRow, ArrayUtils.subarray(cells[y], 0, region.x));
-				}
-				if (y == bottom) {
-					newRow = ArrayUtils.addAll(newRow, JScreenRegion.createCellRow(region.width));
-				} else {
-					newRow = ArrayUtils.addAll(newRow, ArrayUtils.subarray(cells[y + 1], region.x, right + 1));
-				}
-				if (right < (screenCells.width - 1)) {
-					newRow = ArrayUtils.addAll(newRow, ArrayUtils.subarray(cells[y], right + 1, screenCells.width));
-				}
-				cells[y] = newRow;
-			}
-			if (scrollFillMethod == ScrollFillMethod.CURRENT) {
-				// Set new cells to current colors instead of default.
-				clearCells(new Rectangle(region.x, bottom, region.width, 1));
-			}
+			damage.scroll(region, -1);
 		}
-		screen.repaint(regionPixels(region));
+		requestFrame();
 	}
 	
 	/**
@@ -2037,9 +2199,10 @@ public class JScreen implements Closeable {
 	
 	/**
 	 * Scroll the current text window down one line.
+	 * If scroll margins are set, only the scrolling region is scrolled.
 	 */
 	public void scrollWindowDown() {
-		scrollCellsDown(window);
+		scrollCellsDown(scrollRegion());
 	}
 	
 	/**
@@ -2063,44 +2226,31 @@ public class JScreen implements Closeable {
 	 * @param region Bounds of region in screen to scroll.
 	 */
 	private void scrollCellsDown(Rectangle region) {
-		if (region.equals(screenCells)) {
-			int bottom = screenCells.height - 1;
-			for (int y=bottom; y>0; y--) {
-				cells[y] = cells[y - 1];
-			}
-			cells[0] = JScreenRegion.createCellRow(screenCells.width);
-			if (scrollFillMethod == ScrollFillMethod.CURRENT) {
-				// Set new cells to current colors instead of default.
-				clearCells(new Rectangle(0, 0, screenCells.width, 1));
-			}
-		} else {
-			if ((region.width < 1) || (region.height < 1)) {
-				// nothing to do
+		if ((region.width < 1) || (region.height < 1)) {
+			// nothing to do
+			return;
+		}
+		synchronized (frameLock) {
+			cells.scrollDown(region, scrollFill());
+			if (fastForward) {
+				needSample();
 				return;
 			}
-			int bottom = (region.y + region.height) - 1;
-			int right = (region.x + region.width) - 1;
-			for (int y=bottom; y>=region.y; y--) {
-				JScreenCell[] newRow = new JScreenCell[0];
-				if (region.x > 0) {
-					newRow = ArrayUtils.addAll(newRow, ArrayUtils.subarray(cells[y], 0, region.x));
-				}
-				if (y == region.y) {
-					newRow = ArrayUtils.addAll(newRow, JScreenRegion.createCellRow(region.width));
-				} else {
-					newRow = ArrayUtils.addAll(newRow, ArrayUtils.subarray(cells[y + 1], region.x, right + 1));
-				}
-				if (right < (screenCells.width - 1)) {
-					newRow = ArrayUtils.addAll(newRow, ArrayUtils.subarray(cells[y], right + 1, screenCells.width));
-				}
-				cells[y] = newRow;
-			}
-			if (scrollFillMethod == ScrollFillMethod.CURRENT) {
-				// Set new cells to current colors instead of default.
-				clearCells(new Rectangle(region.x, region.y, region.width, 1));
-			}
+			damage.scroll(region, 1);
+		}
+		requestFrame();
+	}
+	
+	/**
+	 * Returns the packed cell used to fill the new line when scrolling.
+	 * @return Packed cell for the new line.
+	 */
+	private long scrollFill() {
+		if (scrollFillMethod == ScrollFillMethod.CURRENT) {
+			// Set new cells to current colors instead of default.
+			return JScreenBuffer.pack(' ', font, fgColor, bgColor, 0);
 		}
-		screen.repaint(regionPixels(region));
+		return 0;
 	}
 	
 	// ##### Screen region selection methods #####
@@ -2138,24 +2288,29 @@ public class JScreen implements Closeable {
 		Rectangle oldSelection = selection;
 		selection = new Rectangle(ul.x, ul.y, lr.x - ul.x, lr.y - ul.y);
 		if (oldSelection != null) {
-			screen.repaint(regionPixels(oldSelection));
+			damage.mark(oldSelection.x, oldSelection.y, oldSelection.width, oldSelection.height);
 		}
-		screen.repaint(regionPixels(selection));
+		damage.mark(selection.x, selection.y, selection.width, selection.height);
+		requestFrame();
 	}
 	
 	/**
 	 * Copy the selected text to clipboard and remove the selection.
 	 */
 	public void copySelectionToClipboard() {
-		if (selection != null) {
+		Rectangle selected = selection;
+		if (selected != null) {
 			List<String> text = new ArrayList<>();
 			StringBuilder sb = new StringBuilder();
-			for (int y=selection.y; y<(selection.y + selection.height); y++) {
-				sb.setLength(0);
-				for (int x=selection.x; x<(selection.x + selection.width); x++) {
-					sb.append(cells[y][x].ch);
+			// this may be called from the event dispatch thread, so don't let the cells move while reading them
+			synchronized (frameLock) {
+				for (int y=selected.y; y<(selected.y + selected.height); y++) {
+					sb.setLength(0);
+					for (int x=selected.x; x<(selected.x + selected.width); x++) {
+						sb.append(JScreenBuffer.getChar(cells.get(x, y)));
+					}
+					text.add(sb.toString());
 				}
-				text.add(sb.toString());
 			}
 			Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
 			clipboard.setContents(new StringSelection(StringUtils.join(text, '\n')), null);
@@ -2170,7 +2325,8 @@ public class JScreen implements Closeable {
 		Rectangle oldSelection = selection;
 		selection = null;
 		if (oldSelection != null) {
-			screen.repaint(regionPixels(oldSelection));
+			damage.mark(oldSelection.x, oldSelection.y, oldSelection.width, oldSelection.height);
+			requestFrame();
 		}
 	}
 
@@ -2187,205 +2343,406 @@ public class JScreen implements Closeable {
 	// ##### Rendering methods #####
 	
 	/**
-	 * Used by the wrapped JScreenComponent to render the screen to its canvas.
-	 * @param g Graphics context to use for display.
-	 */
-	private void paintScreen(Graphics g) {
-		// Use the clip bounds to determine what cells to render
-		Rectangle bounds = g.getClipBounds();
-		// make a copy of the location, because we'll be modifying it
-		Point coords = new Point(bounds.getLocation());
-		Point ulCell = findCell(coords);
-		ulCell.x = Math.max(0, ulCell.x);
-		ulCell.y = Math.max(0, ulCell.y);
-		coords.translate(bounds.width - 1, bounds.height - 1);
-		Point lrCell = findCell(coords);
-		lrCell.x = Math.min(lrCell.x, screenCells.width - 1);
-		lrCell.y = Math.min(lrCell.y, screenCells.height - 1);
-
-		// paint the cells
-		for (int y=ulCell.y; y<=lrCell.y; y++) {
-			for (int x=ulCell.x; x<=lrCell.x; x++) {
-				Rectangle cellBounds = cellPixels(x, y);
-				int font = cells[y][x].font;
-				// if there is a font available...
-				if ((font >= 0) && (font < fonts.length)) {
-					// render the cell
-					if ((selection != null) && selection.contains(x, y)) {
-						cells[y][x].setAttr(Attr._IS_SELECTED, true);
-						fonts[font].drawChar(g, cellBounds, palette, cells[y][x], fontScale);
-						cells[y][x].setAttr(Attr._IS_SELECTED, false);
-					} else {
-						fonts[font].drawChar(g, cellBounds, palette, cells[y][x], fontScale);
-					}
-				} else {
-					// otherwise, paint it BG color
-					Color bg = palette.getBG(cells[y][x]);
-					g.setColor(bg);
-					g.fillRect(cellBounds.x, cellBounds.y, cellBounds.width, cellBounds.height);
-				}
-				if ((cursorRenderer != null) && cursorVisible && (cursor.x == x) && (cursor.y == y) 
-						&& (!cursorBlink || !cells[y][x].attrs.contains(Attr._IS_BLINKED))) {
-					// draw the cursor, if it is enabled, in this cell, and not blinking or not currently blinked
-					cursorRenderer.drawCursor(g, cellBounds, palette.getFG(cells[y][x]), fontScale);
-				}
+	 * Get the maximum rate at which the screen is repainted.
+	 * @return Maximum frames per second.
+	 */
+	public int getMaxFrameRate() {
+		return (int)(TimeUnit.SECONDS.toNanos(1) / frameInterval);
+	}
+	
+	/**
+	 * Set the maximum rate at which the screen is repainted.
+	 * Changes made between frames are coalesced into a single repaint.
+	 * @param fps Maximum frames per second.
+	 */
+	public void setMaxFrameRate(int fps) {
+		if (fps < 1) {
+			throw new IllegalArgumentException("Frame rate must be at least 1.");
+		}
+		frameInterval = TimeUnit.SECONDS.toNanos(1) / fps;
+	}
+	
+	/**
+	 * Add a renderer, to be given every frame published from now on, starting with one of the whole screen.
+	 * This works for headless screens too, so the screen can be displayed somewhere other than a view,
+	 * such as in an off-screen image (JScreenRasterRenderer) or on a text terminal (JScreenTerminal).
+	 * @param renderer Renderer to add.
+	 */
+	public void addRenderer(JScreenRenderer renderer) {
+		if (renderer == null) {
+			throw new IllegalArgumentException("Renderer must not be null.");
+		}
+		if (renderers.contains(renderer)) {
+			return;
+		}
+		renderers.add(renderer);
+		refresh();
+	}
+	
+	/**
+	 * Remove a renderer, and release it.
+	 * The attached view can't be removed, as the screen keeps using it for its size, fonts and input.
+	 * @param renderer Renderer to remove.
+	 */
+	public void removeRenderer(JScreenRenderer renderer) {
+		if ((renderer != null) && (renderer == view)) {
+			throw new IllegalArgumentException("The attached view can't be removed.");
+		}
+		if (renderers.remove(renderer)) {
+			renderer.release();
+		}
+	}
+	
+	/**
+	 * Get the renderers frames are given to, including the view if there is one.
+	 * @return Unmodifiable list of renderers.
+	 */
+	public List<JScreenRenderer> getRenderers() {
+		return Collections.unmodifiableList(renderers);
+	}
+	
+	/**
+	 * Check whether the screen is fast-forwarding.
+	 * @return True if fast-forwarding.
+	 */
+	public boolean isFastForward() {
+		return fastForward;
+	}
+	
+	/**
+	 * Turn fast-forwarding on/off, for bursts of output too fast to watch (such as a large file).
+	 * While fast-forwarding, changes to the screen aren't tracked at all, and instead the screen is
+	 * sampled once per frame interval, so nothing is displayed between samples and printing isn't
+	 * slowed down by repaint bookkeeping.  When turned off, the whole screen is repainted.
+	 * @param fastForward True to fast-forward.
+	 */
+	public synchronized void setFastForward(boolean fastForward) {
+		if (fastForward == this.fastForward) {
+			return;
+		}
+		this.fastForward = fastForward;
+		if (fastForward) {
+			sampleNeeded = true;
+			if (sampler == null) {
+				scheduleSample(0);
+			}
+		} else {
+			if ((sampler != null) && sampler.cancel(false)) {
+				sampler = null;
 			}
+			refresh();
 		}
-		
-		// optionally, paint scan lines
-		if (scanLines && (fontScale > 1)) {
-			g.setColor(Color.BLACK);
-			Point ulCorner = cellOrigin(ulCell);
-			Point lrCorner = cellOrigin(lrCell);
-			lrCorner.translate(cellSize.width - 1, cellSize.height - 1);
-			for (int y=ulCorner.y; y<=lrCorner.y; y++) {
-				if ((y % fontScale) >= (fontScale / 2.0)) {
-					g.drawLine(ulCorner.x, y, lrCorner.x, y);
-				}
+	}
+	
+	/**
+	 * Schedule the next sample while fast-forwarding.
+	 * Must be called while synchronized on this.
+	 * @param delay Time until sample (in nanos).
+	 */
+	private void scheduleSample(long delay) {
+		try {
+			sampler = getScheduler().schedule(this::sampleFrame, delay, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed, nothing more to display
+			sampler = null;
+		}
+	}
+	
+	/**
+	 * Publish a frame of the whole screen if it changed since the last sample, and schedule the next sample.
+	 */
+	private void sampleFrame() {
+		if (fastForward && sampleNeeded) {
+			sampleNeeded = false;
+			damage.markAll();
+			flushFrame();
+		}
+		synchronized (this) {
+			if (fastForward && !closed) {
+				scheduleSample(frameInterval);
+			} else {
+				sampler = null;
 			}
 		}
-		// refresh the display to ensure smooth updates (not updating in chunks)
-		Toolkit.getDefaultToolkit().sync();
 	}
 	
 	/**
-	 * Update the preferred size of the wrapped JScreenComponent, and repack its frame.
+	 * Start a batch of updates.  Until the matching endUpdate(), changes to the screen aren't displayed,
+	 * and then they are all displayed in the same frame, so nothing is seen half-drawn.
+	 * Batches may be nested; the changes are displayed when the outermost batch ends.
 	 */
-	private void setPreferredSize() {
-		Dimension d = screenPixels.getSize();
-		screen.setMinimumSize(d);
-		screen.setPreferredSize(d);
-		screen.setMaximumSize(d);
-		JFrame frame = (JFrame)SwingUtilities.getRoot(screen);
-		if (frame != null) {
-			frame.pack();
+	public void beginUpdate() {
+		// waits for any frame being published, as the cells are about to change
+		synchronized (frameLock) {
+			updateDepth.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * End a batch of updates started by beginUpdate().
+	 * @throws IllegalStateException If there is no batch to end.
+	 */
+	public void endUpdate() {
+		int depth = updateDepth.decrementAndGet();
+		if (depth < 0) {
+			updateDepth.incrementAndGet();
+			throw new IllegalStateException("endUpdate() called without beginUpdate().");
+		}
+		if (depth == 0) {
+			requestFrame();
+		}
+	}
+	
+	/**
+	 * Apply the given updates to this screen as a batch, so they are all displayed in the same frame.
+	 * This is equivalent to calling the updates between beginUpdate() and endUpdate().
+	 * @param updates Changes to make to the screen.
+	 */
+	public void batch(Consumer<JScreen> updates) {
+		beginUpdate();
+		try {
+			updates.accept(this);
+		} finally {
+			endUpdate();
 		}
 	}
 	
 	// ##### Cell and pixel conversion methods #####
 	
 	/**
-	 * Get the character cell at the given coordinates, relative to the current text window.
+	 * Get the packed character cell at the given coordinates, relative to the current text window.
 	 * @param coord Character cell position in current text window.
-	 * @return Cell contents.
+	 * @return Packed cell contents.
 	 */
-	private JScreenCell getWindowCell(Point coord) {
+	private long getWindowCell(Point coord) {
 		return getWindowCell(coord.x, coord.y);
 	}
 
 	/**
-	 * Get the character cell at the given coordinates, relative to the current text window.
+	 * Get the packed character cell at the given coordinates, relative to the current text window.
 	 * @param x X position in current text window.
 	 * @param y Y position in current text window.
-	 * @return Cell contents.
+	 * @return Packed cell contents.
 	 */
-	private JScreenCell getWindowCell(int x, int y) {
+	private long getWindowCell(int x, int y) {
 		Point coord = windowCoordToScreen(x, y);
-		return cells[coord.y][coord.x];
+		return cells.get(coord.x, coord.y);
 	}
 	
 	/**
-	 * Get the character cell at the given coordinates, relative to the whole screen.
+	 * Get the packed character cell at the given coordinates, relative to the whole screen.
 	 * @param coord Character cell position in screen.
-	 * @return Cell contents.
+	 * @return Packed cell contents.
 	 */
-	private JScreenCell getCell(Point coord) {
+	private long getCell(Point coord) {
 		checkCellInScreen(coord);
-		return cells[coord.y][coord.x];
+		return cells.get(coord.x, coord.y);
 	}
 
 	/**
-	 * Get the character cell at the given coordinates, relative to the whole screen.
+	 * Get the packed character cell at the given coordinates, relative to the whole screen.
 	 * @param x X position in screen.
 	 * @param y Y position in screen.
-	 * @return Cell contents.
+	 * @return Packed cell contents.
 	 */
-	private JScreenCell getCell(int x, int y) {
+	private long getCell(int x, int y) {
 		return getCell(new Point(x, y));
 	}
 
 	/**
-	 * Returns the pixel coordinates of the upper left corner of the given character cell.
-	 * @param coord Character cell position in screen.
-	 * @return Pixel coordinates of upper left corner of cell.
+	 * Marks the given screen-relative cells as changed, and requests a repaint of them.
+	 * @param region Bounds of character cell region in screen.
 	 */
-	private Point cellOrigin(Point coord) {
-		return cellOrigin(coord.x, coord.y);
+	private void repaintCells(Rectangle region) {
+		repaintCells(region.x, region.y, region.width, region.height);
 	}
 	
 	/**
-	 * Returns the pixel coordinates of the upper left corner of the given character cell.
-	 * @param x X position in screen.
-	 * @param y Y position in screen.
-	 * @return Pixel coordinates of upper left corner of cell.
+	 * Marks the given screen-relative cells as changed, and requests a repaint of them.
+	 * @param left X position of left side of character cell region in screen.
+	 * @param top Y position of top of character cell region in screen.
+	 * @param width Width of character cell region in screen.
+	 * @param height Height of character cell region in screen.
 	 */
-	private Point cellOrigin(int x, int y) {
-		return new Point(x * cellSize.width, y * cellSize.height);
+	private void repaintCells(int left, int top, int width, int height) {
+		if (fastForward) {
+			needSample();
+			return;
+		}
+		damage.mark(left, top, width, height);
+		requestFrame();
 	}
 	
 	/**
-	 * Returns the pixel region of the given character cell.
-	 * @param coord Character cell position in screen.
-	 * @return Pixel region of character cell.
+	 * Note that the screen has changed since the last sample, while fast-forwarding.
 	 */
-	private Rectangle cellPixels(Point coord) {
-		return cellPixels(coord.x, coord.y);
+	private void needSample() {
+		if (!sampleNeeded) {
+			sampleNeeded = true;
+		}
 	}
 	
 	/**
-	 * Returns the pixel region of the given character cell.
-	 * @param x X position in screen.
-	 * @param y Y position in screen.
-	 * @return Pixel region of character cell.
+	 * Schedule a repaint of everything marked in the damage since the last frame.
+	 * Repaints are coalesced, so no more than one is requested per frame interval.
 	 */
-	private Rectangle cellPixels(int x, int y) {
-		return new Rectangle(cellOrigin(x, y), cellSize);
+	private void requestFrame() {
+		if (renderers.isEmpty() || closed) {
+			// headless, so nothing to repaint; the damage will be repainted if a renderer is added
+			return;
+		}
+		if (updateDepth.get() > 0) {
+			// the damage will be published when the batch ends
+			return;
+		}
+		if (!frameScheduled.compareAndSet(false, true)) {
+			// a frame is already coming, which will include this
+			return;
+		}
+		long delay = Math.max(0, (lastFrame + frameInterval) - System.nanoTime());
+		try {
+			getScheduler().schedule(this::flushFrame, delay, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed, nothing more to display
+		}
 	}
 	
 	/**
-	 * Returns the pixel region of the given character cell region.
-	 * @param region Bounds of character cell region in screen.
-	 * @return Pixel region of character cell region.
+	 * Publish a frame, and give it to the renderers along with everything marked in the damage since the last frame.
+	 * Only runs on the scheduler's thread, so a frame given to the renderers can't be reused until they have all returned.
+	 */
+	private void flushFrame() {
+		lastFrame = System.nanoTime();
+		// anything marked after this point needs another frame
+		frameScheduled.set(false);
+		if (renderers.isEmpty() || closed) {
+			return;
+		}
+		Rectangle region;
+		JScreenFrame frame;
+		synchronized (frameLock) {
+			if (updateDepth.get() > 0) {
+				// a batch started since this was scheduled, and endUpdate() will request another frame
+				return;
+			}
+			region = damage.takeRepaint();
+			if (region == null) {
+				return;
+			}
+			frame = publishFrame();
+		}
+		for (JScreenRenderer renderer : renderers) {
+			renderer.render(frame, region);
+		}
+	}
+	
+	/**
+	 * Copy the current state of the screen into the back frame, and swap it with the ready frame.
+	 * Must be called while holding frameLock.
+	 * @return Frame published.
 	 */
-	private Rectangle regionPixels(Rectangle region) {
-		return regionPixels(region.x, region.y, region.width, region.height);
+	private JScreenFrame publishFrame() {
+		JScreenFrame frame = backFrame;
+		if ((frame == null) || (frame.width != screenCells.width) || (frame.height != screenCells.height)) {
+			frame = new JScreenFrame(screenCells.width, screenCells.height);
+		}
+		cells.copyTo(frame.cells);
+		frame.epoch = ++frameEpoch;
+		frame.blits.clear();
+		frame.blitsFrom = damage.takeBlits(frame.blits) ? (frame.epoch - 1) : -1;
+		frame.generation = generation;
+		frame.cursorX = cursor.x;
+		frame.cursorY = cursor.y;
+		frame.cursorShown = cursorVisible;
+		frame.cursorBlink = cursorBlink;
+		frame.selection = selection;
+		frame.blinked = blinked;
+		backFrame = readyFrame.getAndSet(frame);
+		return frame;
 	}
 	
+	// ##### View support methods #####
+	
 	/**
-	 * Returns the pixel region of the given character cell region.
-	 * @param left X position of left side of character cell region in screen.
-	 * @param top Y position of top of character cell region in screen.
-	 * @param width Width of character cell region in screen.
-	 * @param height Height of character cell region in screen.
-	 * @return Pixel region of character cell region.
+	 * Exchange the given frame for the most recently published one, if it is newer.
+	 * This doesn't lock, so the view can call it while painting.
+	 * @param current Frame the view has finished with, or null if it has none.
+	 * @return Newest frame, which belongs to the view until it is passed back here.
 	 */
-	private Rectangle regionPixels(int left, int top, int width, int height) {
-		Point start = cellOrigin(left, top);
-		Point end = cellOrigin(left + width - 1, top + height - 1);
-		end.translate(cellSize.width, cellSize.height);
-		return new Rectangle(start.x, start.y, (end.x - start.x) + 1, (end.y - start.y) + 1);
+	JScreenFrame takeFrame(JScreenFrame current) {
+		JScreenFrame ready = readyFrame.get();
+		if ((ready == null) || ((current != null) && (ready.epoch <= current.epoch))) {
+			return current;
+		}
+		// only ever replaced by newer frames, so this is at least as new as ready
+		return readyFrame.getAndSet(current);
 	}
 	
 	/**
-	 * Returns the character cell at the given pixel coordinates.
-	 * @param pixel Pixel coordinates in screen.
-	 * @return Character cell position in screen.
+	 * Request a frame with the whole screen marked as changed.
 	 */
-	private Point findCell(Point pixel) {
-		return findCell(pixel.x, pixel.y);
+	void refresh() {
+		damage.markAll();
+		requestFrame();
 	}
 	
 	/**
-	 * Returns the character cell at the given pixel coordinates.
-	 * @param x X position of pixel in screen.
-	 * @param y Y position of pixel in screen.
-	 * @return Character cell position in screen.
+	 * Returns the character map of the current screen mode.
+	 * @return Character map, or null if the screen holds Unicode.
 	 */
-	private Point findCell(int x, int y) {
-		Point coord = new Point();
-		coord.x = x / cellSize.width;
-		coord.y = y / cellSize.height;
-		return coord;
+	JScreenCharMap getCharMap() {
+		return charMap;
+	}
+	
+	/**
+	 * Map a character from the screen to its Unicode equivalent.
+	 * @param ch Character from a cell.
+	 * @return Unicode character.
+	 */
+	char unmapChar(char ch) {
+		return (charMap == null) ? ch : charMap.unmapChar(ch);
+	}
+	
+	/**
+	 * @return Screen dimensions (in chars), or null if not yet set.
+	 */
+	Rectangle getScreenCells() {
+		return screenCells;
+	}
+	
+	/**
+	 * @return Fonts available for text.
+	 */
+	JScreenFont[] getFonts() {
+		return fonts;
+	}
+	
+	/**
+	 * @return Current palette.
+	 */
+	JScreenPalette getPalette() {
+		return palette;
+	}
+	
+	/**
+	 * @return Cursor renderer, or null if none.
+	 */
+	JScreenCursor getCursorRenderer() {
+		return cursorRenderer;
+	}
+	
+	/**
+	 * @return Current phase of blinking.
+	 */
+	boolean isBlinked() {
+		return blinked;
+	}
+	
+	/**
+	 * @return Should scan lines be drawn?
+	 */
+	boolean hasScanLines() {
+		return scanLines;
 	}
 	
 	// ##### Bounds checking methods #####
@@ -2430,65 +2787,46 @@ public class JScreen implements Closeable {
 			throw new IllegalArgumentException("Cell region " + region + " is outside of current window (" + window + ").");
 		}
 	}
-	
-	/**
-	 * Throws exception if the given pixel is off-screen.
-	 * @param pixel Pixel coordinates relative to screen.
-	 */
-	private void checkPixelInScreen(Point pixel) {
-		if (!screenPixels.contains(pixel)) {
-			throw new IllegalArgumentException("Pixel " + pixel + " is not on-screen (" + screenPixels + ").");
-		}
-	}
+
 
 	// ##### UI component methods #####
 
 	/**
-	 * Returns the JScreen context menu, for custom UI tweaks.
-	 * @return Popup menu.
+	 * Returns the Swing view of this screen.
+	 * @return Attached view, or null if headless.
 	 */
-	public JPopupMenu getContextMenu() {
-		return menu;
+	public JScreenView getView() {
+		return view;
 	}
-
+	
 	/**
-	 * Adds font scale options to the context menu.
-	 */
-	private void addFontScaleMenus() {
-		if (scaleMenu != null) {
-			scaleMenu.removeAll();
-			ButtonGroup group = new ButtonGroup();
-			for (int i=1; i<=maxFontScale; i++) {
-				JRadioButtonMenuItem item = new JRadioButtonMenuItem("" + i + 'x');
-				item.setSelected(fontScale == i);
-				item.setActionCommand(String.valueOf(i));
-				group.add(item);
-				scaleMenu.add(item);
-				item.addActionListener((ActionEvent e) -> {
-					setFontScale(Integer.parseInt(e.getActionCommand()));
-				});
-			}
+	 * Called by a new JScreenView to attach itself to this screen, as one of its renderers.
+	 * @param view View to attach.
+	 */
+	synchronized void attachView(JScreenView view) {
+		if (this.view != null) {
+			throw new IllegalStateException("A view is already attached to this screen.");
 		}
+		this.view = view;
+		renderers.add(view);
 	}
 
 	/**
-	 * Adds font copyright messages to the context menu.
+	 * Returns the JScreen context menu, for custom UI tweaks.
+	 * @return Popup menu, or null if headless.
 	 */
-	private void addFontMenus() {
-		if (fontMenu != null) {
-			fontMenu.removeAll();
-			for (JScreenFont font : fonts) {
-				fontMenu.add(new JMenuItem(font.getAbout()));
-			}
-		}
+	public JPopupMenu getContextMenu() {
+		JScreenView v = view;
+		return (v == null) ? null : v.getContextMenu();
 	}
 	
 	/**
 	 * Returns a reference to the wrapped JScreenComponent, so you can add it to your custom UI.
-	 * @return Component for the screen.
+	 * @return Component for the screen, or null if headless.
 	 */
 	public JScreenComponent getComponent() {
-		return screen;
+		JScreenView v = view;
+		return (v == null) ? null : v.getComponent();
 	}
 	
 	/**
@@ -0,0 +1,525 @@
+package net.digger.ui.screen;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import net.digger.ui.screen.color.Attr;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Packed backing store for the character cells of a screen.
+ * Each cell is stored as a single long, laid out as:
+ * <pre>
+ *  63    56 55    44 43    32 31    16 15     0
+ * +--------+--------+--------+--------+--------+
+ * |  font  |   bg   |   fg   | attrs  |   ch   |
+ * +--------+--------+--------+--------+--------+
+ * </pre>
+ * JScreenCell is used to pass cell contents in and out of the buffer through the public API.
+ * The number of blinking cells in each row is kept up to date as cells are written,
+ * so blinking can be rendered without searching the screen for blinking cells.
+ * @author walton
+ */
+public class JScreenBuffer {
+	private static final int CH_SHIFT = 0;
+	private static final int ATTR_SHIFT = 16;
+	private static final int FG_SHIFT = 32;
+	private static final int BG_SHIFT = 44;
+	private static final int FONT_SHIFT = 56;
+	private static final long BLINK_BIT = (long)Attr.BLINKING.mask() << ATTR_SHIFT;
+
+	/**
+	 * Bits holding the display character.
+	 */
+	public static final long CH_MASK = 0xFFFFL << CH_SHIFT;
+	/**
+	 * Bits holding the text attributes.
+	 */
+	public static final long ATTR_MASK = 0xFFFFL << ATTR_SHIFT;
+	/**
+	 * Bits holding the foreground color.
+	 */
+	public static final long FG_MASK = 0xFFFL << FG_SHIFT;
+	/**
+	 * Bits holding the background color.
+	 */
+	public static final long BG_MASK = 0xFFFL << BG_SHIFT;
+	/**
+	 * Bits holding the font index.
+	 */
+	public static final long FONT_MASK = 0xFFL << FONT_SHIFT;
+
+	/**
+	 * Width of the buffer (chars).
+	 */
+	public final int width;
+	/**
+	 * Height of the buffer (lines).
+	 */
+	public final int height;
+
+	// Rows are stored in a ring, referenced by [(top + y) % height][x],
+	// so scrolling the whole buffer only moves top.
+	private final long[][] rows;
+	// physical index of the row at y == 0
+	private int top = 0;
+	// number of blinking cells in each row, by physical index
+	private final int[] blinks;
+
+	/**
+	 * Create a new, empty buffer of the given size.
+	 * @param width Width of the buffer in chars.
+	 * @param height Height of the buffer in lines.
+	 */
+	public JScreenBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		rows = new long[height][width];
+		blinks = new int[height];
+	}
+
+	// ##### Cell packing methods #####
+
+	/**
+	 * Pack the given cell contents into a single value.
+	 * @param ch Display character.
+	 * @param font Index into current font list.
+	 * @param fg Foreground color.
+	 * @param bg Background color.
+	 * @param attrs Packed text attribute mask.
+	 * @return Packed cell.
+	 */
+	public static long pack(char ch, int font, int fg, int bg, int attrs) {
+		return (((long)ch << CH_SHIFT) & CH_MASK)
+				| (((long)attrs << ATTR_SHIFT) & ATTR_MASK)
+				| (((long)fg << FG_SHIFT) & FG_MASK)
+				| (((long)bg << BG_SHIFT) & BG_MASK)
+				| (((long)font << FONT_SHIFT) & FONT_MASK);
+	}
+
+	/**
+	 * Get the display character from a packed cell.
+	 * @param cell Packed cell.
+	 * @return Display character.
+	 */
+	public static char getChar(long cell) {
+		return (char)((cell & CH_MASK) >>> CH_SHIFT);
+	}
+
+	/**
+	 * Get the packed text attribute mask from a packed cell.
+	 * @param cell Packed cell.
+	 * @return Packed text attribute mask.
+	 */
+	public static int getAttrs(long cell) {
+		return (int)((cell & ATTR_MASK) >>> ATTR_SHIFT);
+	}
+
+	/**
+	 * Get the foreground color from a packed cell.
+	 * @param cell Packed cell.
+	 * @return Foreground color.
+	 */
+	public static int getFG(long cell) {
+		return (int)((cell & FG_MASK) >>> FG_SHIFT);
+	}
+
+	/**
+	 * Get the background color from a packed cell.
+	 * @param cell Packed cell.
+	 * @return Background color.
+	 */
+	public static int getBG(long cell) {
+		return (int)((cell & BG_MASK) >>> BG_SHIFT);
+	}
+
+	/**
+	 * Get the font index from a packed cell.
+	 * @param cell Packed cell.
+	 * @return Index into current font list.
+	 */
+	public static int getFont(long cell) {
+		return (int)((cell & FONT_MASK) >>> FONT_SHIFT);
+	}
+
+	/**
+	 * Check whether a packed cell has the BLINKING attribute.
+	 * @param cell Packed cell.
+	 * @return Is the cell blinking?
+	 */
+	public static boolean isBlinking(long cell) {
+		return (cell & BLINK_BIT) != 0;
+	}
+
+	/**
+	 * Check whether a packed cell has the given text attribute.
+	 * @param cell Packed cell.
+	 * @param attr Display attribute to check.
+	 * @return Current state of attribute.
+	 */
+	public static boolean hasAttr(long cell, Attr attr) {
+		return (cell & ((long)attr.mask() << ATTR_SHIFT)) != 0;
+	}
+
+	/**
+	 * Turn the given text attribute of a packed cell on or off.
+	 * @param cell Packed cell.
+	 * @param attr Display attribute to set.
+	 * @param on Turn it on or off.
+	 * @return Updated packed cell.
+	 */
+	public static long withAttr(long cell, Attr attr, boolean on) {
+		long bit = (long)attr.mask() << ATTR_SHIFT;
+		return on ? (cell | bit) : (cell & ~bit);
+	}
+
+	/**
+	 * Replace the text attributes of a packed cell.
+	 * @param cell Packed cell.
+	 * @param attrs Packed text attribute mask.
+	 * @return Updated packed cell.
+	 */
+	public static long withAttrs(long cell, int attrs) {
+		return (cell & ~ATTR_MASK) | (((long)attrs << ATTR_SHIFT) & ATTR_MASK);
+	}
+
+	/**
+	 * Replace the display character of a packed cell.
+	 * @param cell Packed cell.
+	 * @param ch Display character.
+	 * @return Updated packed cell.
+	 */
+	public static long withChar(long cell, char ch) {
+		return (cell & ~CH_MASK) | (((long)ch << CH_SHIFT) & CH_MASK);
+	}
+
+	/**
+	 * Copy the contents of a packed cell into the given JScreenCell.
+	 * @param cell Packed cell.
+	 * @param dest Character cell to fill.
+	 * @return The given character cell.
+	 */
+	public static JScreenCell unpack(long cell, JScreenCell dest) {
+		dest.ch = getChar(cell);
+		dest.font = getFont(cell);
+		dest.fg = getFG(cell);
+		dest.bg = getBG(cell);
+		Attr.toSet(getAttrs(cell), dest.attrs);
+		return dest;
+	}
+
+	/**
+	 * Pack the contents of the given JScreenCell.
+	 * @param cell Character cell to pack.
+	 * @return Packed cell.
+	 */
+	public static long pack(JScreenCell cell) {
+		return pack(cell.ch, cell.font, cell.fg, cell.bg, Attr.toMask(cell.attrs));
+	}
+
+	// ##### Cell access methods #####
+
+	/**
+	 * Get the packed cell at the given coordinates.
+	 * @param x X position in buffer.
+	 * @param y Y position in buffer.
+	 * @return Packed cell.
+	 */
+	public long get(int x, int y) {
+		return row(y)[x];
+	}
+
+	/**
+	 * Set the packed cell at the given coordinates.
+	 * @param x X position in buffer.
+	 * @param y Y position in buffer.
+	 * @param cell Packed cell.
+	 */
+	public void set(int x, int y, long cell) {
+		int index = rowIndex(y);
+		long[] row = rows[index];
+		blinks[index] += blinkDelta(row[x], cell);
+		row[x] = cell;
+	}
+
+	/**
+	 * Get the packed cells of the given row.
+	 * The returned array is the live row, so must only be read.
+	 * @param y Y position in buffer.
+	 * @return Row of packed cells.
+	 */
+	public long[] getRow(int y) {
+		return row(y);
+	}
+
+	/**
+	 * Copy every packed cell into the given array, in screen order.
+	 * @param dest Array of at least width * height cells; row y is copied to y * width.
+	 */
+	public void copyTo(long[] dest) {
+		for (int y=0; y<height; y++) {
+			System.arraycopy(row(y), 0, dest, y * width, width);
+		}
+	}
+
+	/**
+	 * Turn the given text attribute at the given coordinates on or off.
+	 * @param x X position in buffer.
+	 * @param y Y position in buffer.
+	 * @param attr Display attribute to set.
+	 * @param on Turn it on or off.
+	 */
+	public void setAttr(int x, int y, Attr attr, boolean on) {
+		set(x, y, withAttr(get(x, y), attr, on));
+	}
+
+	/**
+	 * Toggle the given text attribute at the given coordinates.
+	 * @param x X position in buffer.
+	 * @param y Y position in buffer.
+	 * @param attr Display attribute to toggle.
+	 */
+	public void toggleAttr(int x, int y, Attr attr) {
+		set(x, y, get(x, y) ^ ((long)attr.mask() << ATTR_SHIFT));
+	}
+
+	/**
+	 * Copy the contents of the cell at the given coordinates into the given JScreenCell.
+	 * @param x X position in buffer.
+	 * @param y Y position in buffer.
+	 * @param dest Character cell to fill.
+	 * @return The given character cell.
+	 */
+	public JScreenCell getCell(int x, int y, JScreenCell dest) {
+		return unpack(row(y)[x], dest);
+	}
+
+	/**
+	 * Set the cell at the given coordinates from the given JScreenCell.
+	 * @param x X position in buffer.
+	 * @param y Y position in buffer.
+	 * @param cell Character cell to copy.
+	 */
+	public void setCell(int x, int y, JScreenCell cell) {
+		set(x, y, pack(cell));
+	}
+
+	/**
+	 * Set a run of cells in one row to the given packed cell.
+	 * @param x X position of first cell in buffer.
+	 * @param y Y position in buffer.
+	 * @param count Number of cells to set.
+	 * @param cell Packed cell.
+	 */
+	public void fill(int x, int y, int count, long cell) {
+		int index = rowIndex(y);
+		long[] row = rows[index];
+		blinks[index] += (isBlinking(cell) ? count : 0) - countBlinks(row, x, x + count);
+		Arrays.fill(row, x, x + count, cell);
+	}
+
+	/**
+	 * Set a run of cells in one row to the given characters, all with the same font, colors and attributes.
+	 * @param x X position of first cell in buffer.
+	 * @param y Y position in buffer.
+	 * @param chars Display characters.
+	 * @param offset Index of first character in chars.
+	 * @param count Number of cells to set.
+	 * @param cell Packed cell to take font, colors and attributes from.
+	 */
+	public void put(int x, int y, char[] chars, int offset, int count, long cell) {
+		int index = rowIndex(y);
+		long[] row = rows[index];
+		blinks[index] += (isBlinking(cell) ? count : 0) - countBlinks(row, x, x + count);
+		cell &= ~CH_MASK;
+		for (int i=0; i<count; i++) {
+			row[x + i] = cell | (((long)chars[offset + i] << CH_SHIFT) & CH_MASK);
+		}
+	}
+
+	/**
+	 * Update every cell in the given region, keeping the bits selected by keep and setting the bits in set.
+	 * @param region Bounds of region in buffer.
+	 * @param keep Mask of bits to preserve in each cell.
+	 * @param set Bits to set in each cell.
+	 */
+	public void fill(Rectangle region, long keep, long set) {
+		int right = region.x + region.width;
+		for (int y=region.y; y<(region.y + region.height); y++) {
+			if (keep == 0) {
+				fill(region.x, y, region.width, set);
+			} else {
+				int index = rowIndex(y);
+				long[] row = rows[index];
+				for (int x=region.x; x<right; x++) {
+					long cell = (row[x] & keep) | set;
+					blinks[index] += blinkDelta(row[x], cell);
+					row[x] = cell;
+				}
+			}
+		}
+	}
+
+	// ##### Blink tracking methods #####
+
+	/**
+	 * Get the number of cells in the given row with the BLINKING attribute.
+	 * @param y Y position in buffer.
+	 * @return Number of blinking cells.
+	 */
+	public int getBlinkCount(int y) {
+		return blinks[rowIndex(y)];
+	}
+
+	/**
+	 * Returns the change in blinking cell count from replacing one cell with another.
+	 * @param oldCell Packed cell being replaced.
+	 * @param newCell Packed cell replacing it.
+	 * @return -1, 0, or 1.
+	 */
+	private static int blinkDelta(long oldCell, long newCell) {
+		return (isBlinking(newCell) ? 1 : 0) - (isBlinking(oldCell) ? 1 : 0);
+	}
+
+	/**
+	 * Count the blinking cells in part of a row.
+	 * @param row Row of packed cells.
+	 * @param from X position of first cell (inclusive).
+	 * @param to X position of last cell (exclusive).
+	 * @return Number of blinking cells.
+	 */
+	private static int countBlinks(long[] row, int from, int to) {
+		int count = 0;
+		for (int x=from; x<to; x++) {
+			if (isBlinking(row[x])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Get the row at the given logical position.
+	 * @param y Y position in buffer.
+	 * @return Row of packed cells.
+	 */
+	private long[] row(int y) {
+		return rows[rowIndex(y)];
+	}
+
+	/**
+	 * Returns the physical index of the row at the given logical position.
+	 * @param y Y position in buffer.
+	 * @return Index into rows.
+	 */
+	private int rowIndex(int y) {
+		int index = top + y;
+		return (index >= height) ? (index - height) : index;
+	}
+
+	// ##### Scrolling methods #####
+
+	/**
+	 * Scroll the given region up one line, leaving the bottom line of the region set to the given packed cell.
+	 * Scrolling the whole buffer rotates the row ring, full-width regions rotate their row references,
+	 * and partial-width regions are copied in place.
+	 * @param region Bounds of region in buffer.
+	 * @param blank Packed cell for the new line.
+	 */
+	public void scrollUp(Rectangle region, long blank) {
+		if ((region.width < 1) || (region.height < 1)) {
+			// nothing to do
+			return;
+		}
+		int bottom = (region.y + region.height) - 1;
+		if ((region.x == 0) && (region.width == width)) {
+			if (region.height == height) {
+				// whole buffer, so the old top row becomes the new bottom row
+				top = rowIndex(1);
+			} else {
+				// full-width region, so rotate its row references, moving the top one to the bottom
+				int first = rowIndex(region.y);
+				long[] topRow = rows[first];
+				int topBlinks = blinks[first];
+				for (int y=region.y; y<bottom; y++) {
+					int next = rowIndex(y + 1);
+					rows[first] = rows[next];
+					blinks[first] = blinks[next];
+					first = next;
+				}
+				rows[first] = topRow;
+				blinks[first] = topBlinks;
+			}
+		} else {
+			int right = region.x + region.width;
+			for (int y=region.y; y<bottom; y++) {
+				long[] from = row(y + 1);
+				long[] to = row(y);
+				blinks[rowIndex(y)] += countBlinks(from, region.x, right) - countBlinks(to, region.x, right);
+				System.arraycopy(from, region.x, to, region.x, region.width);
+			}
+		}
+		fill(region.x, bottom, region.width, blank);
+	}
+
+	/**
+	 * Scroll the given region down one line, leaving the top line of the region set to the given packed cell.
+	 * Scrolling the whole buffer rotates the row ring, full-width regions rotate their row references,
+	 * and partial-width regions are copied in place.
+	 * @param region Bounds of region in buffer.
+	 * @param blank Packed cell for the new line.
+	 */
+	public void scrollDown(Rectangle region, long blank) {
+		if ((region.width < 1) || (region.height < 1)) {
+			// nothing to do
+			return;
+		}
+		int bottom = (region.y + region.height) - 1;
+		if ((region.x == 0) && (region.width == width)) {
+			if (region.height == height) {
+				// whole buffer, so the old bottom row becomes the new top row
+				top = rowIndex(height - 1);
+			} else {
+				// full-width region, so rotate its row references, moving the bottom one to the top
+				int last = rowIndex(bottom);
+				long[] bottomRow = rows[last];
+				int bottomBlinks = blinks[last];
+				for (int y=bottom; y>region.y; y--) {
+					int prev = rowIndex(y - 1);
+					rows[last] = rows[prev];
+					blinks[last] = blinks[prev];
+					last = prev;
+				}
+				rows[last] = bottomRow;
+				blinks[last] = bottomBlinks;
+			}
+		} else {
+			int right = region.x + region.width;
+			for (int y=bottom; y>region.y; y--) {
+				long[] from = row(y - 1);
+				long[] to = row(y);
+				blinks[rowIndex(y)] += countBlinks(from, region.x, right) - countBlinks(to, region.x, right);
+				System.arraycopy(from, region.x, to, region.x, region.width);
+			}
+		}
+		fill(region.x, region.y, region.width, blank);
+	}
+}
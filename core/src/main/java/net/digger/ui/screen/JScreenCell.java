@@ -25,6 +25,8 @@ import net.digger.ui.screen.color.Attr;
 
 /**
  * Data structure for a screen character cell.
+ * The screen stores its cells packed in a JScreenBuffer, so this is a copy of a cell's contents,
+ * used to pass cells through the API.
  * @author walton
  */
 public class JScreenCell {
@@ -0,0 +1,163 @@
+package net.digger.ui.screen;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Tracks what has changed on the screen since the last frame was published.
+ * It accumulates the bounds of everything that needs repainting, including overlays such as
+ * the cursor, so that repaints can be requested once per frame.  Scrolls are queued as blits,
+ * so already-rendered pixels can be moved rather than rendered again.
+ * Scrolls must be recorded while holding the screen's frame lock, together with the matching
+ * change to the cells, so a published frame's blits always match its cells.
+ * Once the whole screen is marked, nothing more can be added before the next frame, so marks
+ * and scrolls return straight away without locking, which makes bursts of output cheaper.
+ * @author walton
+ */
+class JScreenDamage {
+	private final int width;
+	private final int height;
+	// queued scrolls, in the order they happened
+	private final ArrayDeque<JScreenFrame.Blit> blits = new ArrayDeque<>();
+	// blits were discarded since they were last taken
+	private boolean blitsLost = false;
+	// the whole screen is marked and blits were discarded, so there is nothing more to record
+	private volatile boolean saturated = false;
+	// bounds needing repaint since the last frame, from left/top (inclusive) to right/bottom (exclusive)
+	private int repaintLeft;
+	private int repaintTop;
+	private int repaintRight;
+	private int repaintBottom;
+
+	/**
+	 * Create a damage tracker for a screen of the given size, with everything needing repaint.
+	 * @param width Width of the screen in chars.
+	 * @param height Height of the screen in lines.
+	 */
+	JScreenDamage(int width, int height) {
+		this.width = width;
+		this.height = height;
+		clearRepaint();
+		markAll();
+	}
+
+	/**
+	 * Mark the whole screen as needing repaint, and discard any queued blits.
+	 */
+	synchronized void markAll() {
+		blits.clear();
+		blitsLost = true;
+		markRegion(0, 0, width, height);
+		saturated = true;
+	}
+
+	/**
+	 * Mark the given region as needing repaint.
+	 * @param x X position of left side of region in screen.
+	 * @param y Y position of top of region in screen.
+	 * @param w Width of region.
+	 * @param h Height of region.
+	 */
+	void mark(int x, int y, int w, int h) {
+		if (saturated) {
+			return;
+		}
+		markRegion(x, y, w, h);
+	}
+
+	/**
+	 * Add the given region to the bounds needing repaint.
+	 * @param x X position of left side of region in screen.
+	 * @param y Y position of top of region in screen.
+	 * @param w Width of region.
+	 * @param h Height of region.
+	 */
+	private synchronized void markRegion(int x, int y, int w, int h) {
+		if ((w < 1) || (h < 1)) {
+			return;
+		}
+		repaintLeft = Math.min(repaintLeft, x);
+		repaintTop = Math.min(repaintTop, y);
+		repaintRight = Math.max(repaintRight, x + w);
+		repaintBottom = Math.max(repaintBottom, y + h);
+	}
+
+	/**
+	 * Return the bounds needing repaint since this was last called, and reset them.
+	 * @return Bounds of character cell region needing repaint, or null if nothing does.
+	 */
+	synchronized Rectangle takeRepaint() {
+		if ((repaintLeft >= repaintRight) || (repaintTop >= repaintBottom)) {
+			return null;
+		}
+		Rectangle region = new Rectangle(repaintLeft, repaintTop, repaintRight - repaintLeft, repaintBottom - repaintTop);
+		clearRepaint();
+		saturated = false;
+		return region;
+	}
+
+	/**
+	 * Reset the bounds needing repaint to empty.
+	 */
+	private void clearRepaint() {
+		repaintLeft = width;
+		repaintTop = height;
+		repaintRight = 0;
+		repaintBottom = 0;
+	}
+
+	/**
+	 * Queue a blit for a region which was scrolled one line, and mark the region as needing repaint.
+	 * @param region Bounds of scrolled region in screen.
+	 * @param dy -1 if scrolled up, 1 if scrolled down.
+	 */
+	synchronized void scroll(Rectangle region, int dy) {
+		if (saturated || (region.width < 1) || (region.height < 1)) {
+			return;
+		}
+		markRegion(region.x, region.y, region.width, region.height);
+		if (region.height == 1) {
+			// nothing moves, just the one line is new
+			return;
+		}
+		if (blits.size() >= height) {
+			// too far behind for blits to be worthwhile, just render everything
+			markAll();
+			return;
+		}
+		blits.add(new JScreenFrame.Blit(region, dy));
+	}
+
+	/**
+	 * Move the queued blits into the given list.
+	 * @param dest List to receive the blits, in the order they happened.
+	 * @return True if the blits are complete, false if some were discarded.
+	 */
+	synchronized boolean takeBlits(List<JScreenFrame.Blit> dest) {
+		dest.addAll(blits);
+		blits.clear();
+		boolean complete = !blitsLost;
+		blitsLost = false;
+		return complete;
+	}
+}
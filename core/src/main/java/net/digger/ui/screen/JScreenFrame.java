@@ -0,0 +1,213 @@
+package net.digger.ui.screen;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Snapshot of everything needed to render the screen at one point in time.
+ * JScreen keeps three of these: one being filled by the writer, one ready to be taken,
+ * and one being rendered.  They are exchanged atomically (see JScreen.publishFrame() and
+ * JScreen.takeFrame()), so a frame is never changed while it is being rendered, and
+ * rendering needs no locks.
+ * <p>
+ * Each published frame is also given to the screen's renderers (see JScreenRenderer), which may only
+ * read it until their render() returns.
+ * @author walton
+ */
+public final class JScreenFrame {
+	/**
+	 * Width of the screen in chars.
+	 */
+	final int width;
+	/**
+	 * Height of the screen in lines.
+	 */
+	final int height;
+	/**
+	 * Packed cells, in screen order; row y starts at y * width.
+	 */
+	final long[] cells;
+	/**
+	 * Scrolls since the previous frame, in the order they happened.
+	 */
+	final List<Blit> blits = new ArrayList<>();
+
+	/**
+	 * Increases with every frame published.
+	 */
+	long epoch;
+	/**
+	 * Epoch of the frame the blits start from, or -1 if they are incomplete.
+	 */
+	long blitsFrom;
+	/**
+	 * Changes when the cells need to be rendered again from scratch (new size, fonts or palette).
+	 */
+	int generation;
+
+	/**
+	 * Cursor position, relative to the whole screen.
+	 */
+	int cursorX;
+	int cursorY;
+	boolean cursorShown;
+	boolean cursorBlink;
+	/**
+	 * Bounds of the selection in screen, or null if nothing is selected.
+	 */
+	Rectangle selection;
+	/**
+	 * Phase of blinking.
+	 */
+	boolean blinked;
+
+	/**
+	 * A region which was scrolled one line.
+	 */
+	static final class Blit {
+		/**
+		 * Bounds of scrolled region in screen.
+		 */
+		final Rectangle region;
+		/**
+		 * -1 if scrolled up, 1 if scrolled down.
+		 */
+		final int dy;
+
+		Blit(Rectangle region, int dy) {
+			this.region = new Rectangle(region);
+			this.dy = dy;
+		}
+	}
+
+	/**
+	 * Create an empty frame.
+	 * @param width Width of the screen in chars.
+	 * @param height Height of the screen in lines.
+	 */
+	JScreenFrame(int width, int height) {
+		this.width = width;
+		this.height = height;
+		cells = new long[width * height];
+	}
+
+	/**
+	 * @return Width of the screen in chars.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return Height of the screen in lines.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the packed cells (see JScreenBuffer), in screen order, with row y starting at y * width.
+	 * This is the frame's own array, to save copying it, so it must not be changed.
+	 * @return Packed cells.
+	 */
+	public long[] getCells() {
+		return cells;
+	}
+
+	/**
+	 * Get the packed cell at the given coordinates.
+	 * @param x X position in screen.
+	 * @param y Y position in screen.
+	 * @return Packed cell.
+	 */
+	public long getCell(int x, int y) {
+		return cells[(y * width) + x];
+	}
+
+	/**
+	 * @return Number of the frame, which increases with every frame published.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return Cursor position, relative to the whole screen.
+	 */
+	public Point getCursor() {
+		return new Point(cursorX, cursorY);
+	}
+
+	/**
+	 * @return True if the cursor is shown.
+	 */
+	public boolean isCursorShown() {
+		return cursorShown;
+	}
+
+	/**
+	 * @return True if the cursor blinks.
+	 */
+	public boolean isCursorBlinking() {
+		return cursorBlink;
+	}
+
+	/**
+	 * @return Bounds of the selection in screen, or null if nothing is selected.
+	 */
+	public Rectangle getSelection() {
+		return (selection == null) ? null : new Rectangle(selection);
+	}
+
+	/**
+	 * @return Phase of blinking: true while blinking cells and the cursor are hidden.
+	 */
+	public boolean isBlinked() {
+		return blinked;
+	}
+
+	/**
+	 * Copy this frame, such as for a renderer which uses it after render() returns.
+	 * @param dest Frame to copy into, if it is the same size.  May be null.
+	 * @return dest, or a new frame if dest was not the same size.
+	 */
+	public JScreenFrame copy(JScreenFrame dest) {
+		if ((dest == null) || (dest.width != width) || (dest.height != height)) {
+			dest = new JScreenFrame(width, height);
+		}
+		System.arraycopy(cells, 0, dest.cells, 0, cells.length);
+		dest.blits.clear();
+		dest.blits.addAll(blits);
+		dest.epoch = epoch;
+		dest.blitsFrom = blitsFrom;
+		dest.generation = generation;
+		dest.cursorX = cursorX;
+		dest.cursorY = cursorY;
+		dest.cursorShown = cursorShown;
+		dest.cursorBlink = cursorBlink;
+		dest.selection = selection;
+		dest.blinked = blinked;
+		return dest;
+	}
+}
@@ -0,0 +1,287 @@
+package net.digger.ui.screen;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import net.digger.ui.screen.font.JScreenFont;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Base of the renderers which keep a screen's cells rendered in an off-screen image.
+ * It keeps track of what the image holds, and brings it up to date with each frame: scrolled regions
+ * are moved rather than rendered again, and then only the cells which differ from what the image holds
+ * are rendered.  Subclasses only create the image, move its pixels, and render runs of cells into it.
+ * <p>
+ * The image holds only the cells.  The selection and cursor of the frame last rendered are kept for
+ * subclasses to draw over them.
+ * @author walton
+ */
+public abstract class JScreenImageRenderer implements JScreenRenderer {
+	protected final JScreen screen;
+	private int fontScale = 1;
+
+	// rendered cells
+	protected BufferedImage image = null;
+	// what the image holds: the cells in screen order, and the frame and settings they were rendered with
+	protected long[] rendered = null;
+	protected int renderedWidth;
+	protected int renderedHeight;
+	private long renderedEpoch = -1;
+	private int renderedGeneration;
+	protected Dimension cellSize = null;
+	protected int renderedScale;
+	protected boolean renderedBlinked;
+	// fonts and scale whose glyphs are in use (see JScreenFont.acquireGlyphs())
+	private JScreenFont[] glyphFonts = null;
+	private int glyphScale;
+	// what is drawn over the cells, from the frame last rendered
+	protected int cursorX;
+	protected int cursorY;
+	protected boolean cursorShown;
+	protected boolean cursorBlink;
+	protected Rectangle selection;
+
+	/**
+	 * @param screen Screen to render.
+	 */
+	protected JScreenImageRenderer(JScreen screen) {
+		this.screen = screen;
+	}
+
+	// ##### Font scale methods #####
+
+	/**
+	 * @return Current font scale.
+	 */
+	public synchronized int getFontScale() {
+		return fontScale;
+	}
+
+	/**
+	 * Set the font scaling factor to render with.  The whole screen is rendered again at the new scale.
+	 * @param scale Font scale to use.
+	 */
+	public void setFontScale(int scale) {
+		if (scale < 1) {
+			throw new IllegalArgumentException("Font scale must be at least 1.");
+		}
+		synchronized (this) {
+			fontScale = scale;
+		}
+		if (screen.getScreenCells() != null) {
+			screen.refresh();
+		}
+	}
+
+	// ##### Renderer methods #####
+
+	@Override
+	public synchronized void render(JScreenFrame frame, Rectangle damage) {
+		update(frame);
+	}
+
+	/**
+	 * Release the image.  It will be created again if another frame is rendered.
+	 */
+	@Override
+	public synchronized void release() {
+		if (image != null) {
+			image.flush();
+			image = null;
+		}
+		rendered = null;
+		useGlyphs(null, 0);
+	}
+
+	// ##### Rendering methods #####
+
+	/**
+	 * Bring the image up to date with the frame, creating it if necessary.
+	 * @param frame Frame to render.
+	 */
+	synchronized void update(JScreenFrame frame) {
+		JScreenFont[] fonts = screen.getFonts();
+		if ((fonts != glyphFonts) || (fontScale != glyphScale)) {
+			useGlyphs(fonts, fontScale);
+		}
+		// JScreen.setTextFonts() ensures all fonts have the same cell size
+		Dimension size = fonts[0].getCellSize(fontScale);
+		Dimension pixels = new Dimension(frame.width * size.width, frame.height * size.height);
+		boolean full = (rendered == null) || (renderedWidth != frame.width) || (renderedHeight != frame.height)
+				|| (renderedGeneration != frame.generation) || !size.equals(cellSize);
+		if ((image == null) || (image.getWidth() != pixels.width) || (image.getHeight() != pixels.height)) {
+			if (image != null) {
+				image.flush();
+			}
+			image = createImage(pixels.width, pixels.height);
+			full = true;
+		}
+		if (full) {
+			rendered = new long[frame.cells.length];
+			renderedWidth = frame.width;
+			renderedHeight = frame.height;
+			renderedGeneration = frame.generation;
+			cellSize = size;
+			renderedScale = fontScale;
+		}
+		beginRender(full);
+		try {
+			if (!full && (frame.epoch != renderedEpoch) && (frame.blitsFrom == renderedEpoch)) {
+				// the image holds the previous frame, so its pixels can be moved along with the cells
+				for (JScreenFrame.Blit blit : frame.blits) {
+					blit(blit);
+				}
+			}
+			boolean blinked = frame.blinked;
+			boolean blinkChanged = (blinked != renderedBlinked);
+			long[] cells = frame.cells;
+			int width = frame.width;
+			for (int y=0; y<frame.height; y++) {
+				int offset = y * width;
+				int x = 0;
+				while (x < width) {
+					if (!full && !needsRender(cells[offset + x], rendered[offset + x], blinkChanged)) {
+						x++;
+						continue;
+					}
+					// render the run of changed cells
+					int start = x;
+					do {
+						x++;
+					} while ((x < width) && (full || needsRender(cells[offset + x], rendered[offset + x], blinkChanged)));
+					renderCells(cells, start, y, x - start, blinked);
+				}
+				System.arraycopy(cells, offset, rendered, offset, width);
+			}
+		} finally {
+			endRender();
+		}
+		renderedEpoch = frame.epoch;
+		renderedBlinked = frame.blinked;
+		cursorX = frame.cursorX;
+		cursorY = frame.cursorY;
+		cursorShown = frame.cursorShown;
+		cursorBlink = frame.cursorBlink;
+		selection = frame.selection;
+	}
+
+	/**
+	 * Start using the glyphs of the given fonts at the given scale, and stop using the ones used before,
+	 * so they are discarded once no other renderer uses them.
+	 * @param fonts Fonts to use, or null for none.
+	 * @param scale Font scale to use.
+	 */
+	private void useGlyphs(JScreenFont[] fonts, int scale) {
+		// acquire first, so glyphs used both before and after aren't discarded in between
+		if (fonts != null) {
+			for (JScreenFont font : fonts) {
+				font.acquireGlyphs(scale);
+			}
+		}
+		if (glyphFonts != null) {
+			for (JScreenFont font : glyphFonts) {
+				font.releaseGlyphs(glyphScale);
+			}
+		}
+		glyphFonts = fonts;
+		glyphScale = scale;
+	}
+
+	/**
+	 * Does a cell need rendering again?
+	 * @param cell Packed cell in the frame.
+	 * @param old Packed cell in the image.
+	 * @param blinkChanged Has the blink phase changed since the image was rendered?
+	 * @return True if the cell needs rendering.
+	 */
+	private static boolean needsRender(long cell, long old, boolean blinkChanged) {
+		return (cell != old) || (blinkChanged && JScreenBuffer.isBlinking(cell));
+	}
+
+	/**
+	 * Move the pixels of a region which was scrolled one line, and the cells recorded for them.
+	 * The newly exposed line keeps its old pixels, and will be rendered again if its cells differ.
+	 * @param blit Scrolled region.
+	 */
+	private void blit(JScreenFrame.Blit blit) {
+		Rectangle region = blit.region;
+		int width = renderedWidth;
+		int bottom = (region.y + region.height) - 1;
+		// exactly the cells which move
+		Rectangle pixels = new Rectangle(region.x * cellSize.width, region.y * cellSize.height,
+				region.width * cellSize.width, (region.height - 1) * cellSize.height);
+		if (blit.dy < 0) {
+			// move everything below the top line up
+			pixels.y += cellSize.height;
+			movePixels(pixels, -cellSize.height);
+			for (int y=region.y; y<bottom; y++) {
+				System.arraycopy(rendered, ((y + 1) * width) + region.x, rendered, (y * width) + region.x, region.width);
+			}
+		} else {
+			// move everything above the bottom line down
+			movePixels(pixels, cellSize.height);
+			for (int y=bottom; y>region.y; y--) {
+				System.arraycopy(rendered, ((y - 1) * width) + region.x, rendered, (y * width) + region.x, region.width);
+			}
+		}
+	}
+
+	// ##### Subclass methods #####
+
+	/**
+	 * Create the image to render into.
+	 * @param width Pixel width of image.
+	 * @param height Pixel height of image.
+	 * @return New image.
+	 */
+	protected abstract BufferedImage createImage(int width, int height);
+
+	/**
+	 * Called before a frame is rendered into the image, such as to get ready to draw into it.
+	 * @param full True if the whole image is being rendered again.
+	 */
+	protected void beginRender(boolean full) {
+	}
+
+	/**
+	 * Called after a frame has been rendered into the image, even if rendering failed.
+	 */
+	protected void endRender() {
+	}
+
+	/**
+	 * Move a rectangle of pixels up or down in the image.
+	 * @param pixels Pixels to move.
+	 * @param dy Pixels to move them down by (negative to move them up).
+	 */
+	protected abstract void movePixels(Rectangle pixels, int dy);
+
+	/**
+	 * Render a run of cells in one row into the image.
+	 * @param cells Packed cells in screen order.
+	 * @param x X position of first cell in screen.
+	 * @param y Y position in screen.
+	 * @param width Number of cells to render.
+	 * @param blinked Current phase of blinking.
+	 */
+	protected abstract void renderCells(long[] cells, int x, int y, int width, boolean blinked);
+}
@@ -0,0 +1,491 @@
+package net.digger.ui.screen;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Prints to a screen from its own thread, so writers never wait for text protocol parsing.
+ * Writers append chars (or bytes, as chars 0-255) to a bounded ring buffer, and the pipeline's
+ * thread prints them through the screen's text protocol in batches, while the screen's frames are
+ * rendered separately on the scheduler and EDT.  So parsing overlaps with painting, and a writer
+ * only waits when the ring buffer is full.
+ * <p>
+ * With fast-forward on, the screen is fast-forwarded (see JScreen.setFastForward()) whenever more
+ * than a batch is waiting, so a burst of output is printed as fast as it can be parsed, and the
+ * screen shows samples of it rather than rendering every state along the way.
+ * <p>
+ * flush() waits until everything written before it has been printed.  While the pipeline is in use,
+ * all output to the screen should go through it, or the output will be mixed.
+ * @author walton
+ */
+public class JScreenOutputPipeline implements Closeable {
+	/**
+	 * Default size of the ring buffer.
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+	// most chars printed in one batch, so the screen isn't held back from displaying for long
+	private static final int MAX_BATCH = 4096;
+
+	private final JScreen screen;
+	private final Object lock = new Object();
+	private final char[] ring;
+	private final int mask;
+	// total chars added to the ring, taken from it, and printed
+	private long appended = 0;
+	private long taken = 0;
+	private long printed = 0;
+	private boolean closed = false;
+	private final Thread thread;
+	// used by the pipeline's thread to print
+	private final char[] batch;
+	private Writer writer = null;
+	private volatile boolean fastForward = false;
+	// the screen was fast-forwarded by the pipeline's thread, and is until it catches up
+	private boolean forwarding = false;
+
+	/**
+	 * Create a pipeline with the default capacity, and start its thread.
+	 * @param screen Screen to print to.
+	 */
+	public JScreenOutputPipeline(JScreen screen) {
+		this(screen, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a pipeline, and start its thread.
+	 * @param screen Screen to print to.
+	 * @param capacity Size of the ring buffer; rounded up to a power of 2.
+	 */
+	public JScreenOutputPipeline(JScreen screen, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.screen = screen;
+		ring = new char[size];
+		mask = size - 1;
+		batch = new char[Math.min(size, MAX_BATCH)];
+		thread = new Thread(this::run, "JScreen output");
+		thread.setDaemon(true);
+		thread.start();
+		screen.addPipeline(this);
+	}
+
+	// ##### Writing methods #####
+
+	/**
+	 * Add a char to be printed, waiting if the ring buffer is full.
+	 * @param ch Character to print.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public void write(char ch) throws InterruptedException {
+		synchronized (lock) {
+			while (!closed && ((appended - taken) == ring.length)) {
+				lock.wait();
+			}
+			if (closed) {
+				throw new IllegalStateException("Output pipeline is closed.");
+			}
+			ring[(int)(appended & mask)] = ch;
+			appended++;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Add text to be printed, waiting for room in the ring buffer as needed.
+	 * @param text Text to print.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public void write(CharSequence text) throws InterruptedException {
+		if (text != null) {
+			put(text, 0, text.length(), true);
+		}
+	}
+
+	/**
+	 * Add chars to be printed, waiting for room in the ring buffer as needed.
+	 * @param chars Characters to print.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to print.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public void write(char[] chars, int offset, int length) throws InterruptedException {
+		checkRange(chars.length, offset, length);
+		put(chars, offset, length, true);
+	}
+
+	/**
+	 * Add bytes to be printed, as chars 0-255, waiting for room in the ring buffer as needed.
+	 * @param bytes Bytes to print.
+	 * @param offset Index of first byte in bytes.
+	 * @param length Number of bytes to print.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public void write(byte[] bytes, int offset, int length) throws InterruptedException {
+		checkRange(bytes.length, offset, length);
+		put(bytes, offset, length, true);
+	}
+
+	/**
+	 * Add as many chars as there is room for in the ring buffer, without waiting.
+	 * @param chars Characters to print.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to print.
+	 * @return Number of characters added.
+	 */
+	public int offer(char[] chars, int offset, int length) {
+		checkRange(chars.length, offset, length);
+		try {
+			return put(chars, offset, length, false);
+		} catch (InterruptedException e) {
+			// can't happen without waiting
+			return 0;
+		}
+	}
+
+	/**
+	 * Add as many bytes as there is room for in the ring buffer, as chars 0-255, without waiting.
+	 * @param bytes Bytes to print.
+	 * @param offset Index of first byte in bytes.
+	 * @param length Number of bytes to print.
+	 * @return Number of bytes added.
+	 */
+	public int offer(byte[] bytes, int offset, int length) {
+		checkRange(bytes.length, offset, length);
+		try {
+			return put(bytes, offset, length, false);
+		} catch (InterruptedException e) {
+			// can't happen without waiting
+			return 0;
+		}
+	}
+
+	/**
+	 * Wait until everything written before this was called has been printed.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (lock) {
+			long target = appended;
+			while (printed < target) {
+				lock.wait();
+			}
+		}
+	}
+
+	/**
+	 * Wait up to the given time for everything written before this was called to be printed.
+	 * @param timeout Maximum time to wait.
+	 * @param unit Unit of timeout.
+	 * @return True if everything was printed, false if the time ran out first.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			long target = appended;
+			while (printed < target) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return Number of chars written but not yet printed.
+	 */
+	public int getPending() {
+		synchronized (lock) {
+			return (int)(appended - printed);
+		}
+	}
+
+	/**
+	 * Check whether the screen is fast-forwarded when the pipeline falls behind.
+	 * @return True if fast-forward is on.
+	 */
+	public boolean isFastForward() {
+		return fastForward;
+	}
+	
+	/**
+	 * Turn fast-forward on/off.  When on, the screen is fast-forwarded while more than a batch
+	 * of chars is waiting to be printed, until the pipeline catches up.
+	 * @param fastForward True to fast-forward when behind.
+	 */
+	public void setFastForward(boolean fastForward) {
+		this.fastForward = fastForward;
+		synchronized (lock) {
+			// wake the pipeline's thread, in case it is waiting with the screen fast-forwarded
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns a Writer which writes to this pipeline.
+	 * Flushing it waits for everything written to be printed, and closing it closes the pipeline.
+	 * @return Writer for this pipeline.
+	 */
+	public synchronized Writer getWriter() {
+		if (writer == null) {
+			writer = new Writer() {
+				@Override
+				public void write(char[] cbuf, int off, int len) throws IOException {
+					try {
+						JScreenOutputPipeline.this.write(cbuf, off, len);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+
+				@Override
+				public void write(String str, int off, int len) throws IOException {
+					checkRange(str.length(), off, len);
+					try {
+						put(str, off, len, true);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+
+				@Override
+				public void flush() throws IOException {
+					try {
+						JScreenOutputPipeline.this.flush();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+
+				@Override
+				public void close() {
+					JScreenOutputPipeline.this.close();
+				}
+			};
+		}
+		return writer;
+	}
+
+	/**
+	 * Stop accepting writes, print anything still waiting, and stop the pipeline's thread.
+	 * Waits for the thread to finish, unless interrupted.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			lock.notifyAll();
+		}
+		if (Thread.currentThread() == thread) {
+			return;
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Called when the screen is closed.  Stops accepting writes, and discards anything not yet printed,
+	 * so the pipeline's thread stops after any batch it is printing.  Doesn't wait for the thread.
+	 */
+	void abort() {
+		synchronized (lock) {
+			closed = true;
+			// waiting chars count as printed, so flush() returns
+			printed += appended - taken;
+			taken = appended;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Check that offset and length describe a range within an array or string.
+	 * @param size Size of array or string.
+	 * @param offset Index of first element.
+	 * @param length Number of elements.
+	 */
+	private static void checkRange(int size, int offset, int length) {
+		if ((offset < 0) || (length < 0) || ((offset + length) > size)) {
+			throw new IllegalArgumentException("Invalid offset or length.");
+		}
+	}
+
+	/**
+	 * Copy chars into the ring buffer.
+	 * @param source char[], byte[] or CharSequence to copy from.
+	 * @param offset Index of first element in source.
+	 * @param length Number of elements to copy.
+	 * @param block If true, wait for room until everything is copied.
+	 * @return Number of elements copied.
+	 * @throws InterruptedException If wait is interrupted.
+	 * @throws IllegalStateException If the pipeline is closed.
+	 */
+	private int put(Object source, int offset, int length, boolean block) throws InterruptedException {
+		int done = 0;
+		synchronized (lock) {
+			while (done < length) {
+				if (closed) {
+					throw new IllegalStateException("Output pipeline is closed.");
+				}
+				int free = ring.length - (int)(appended - taken);
+				if (free == 0) {
+					if (!block) {
+						break;
+					}
+					lock.wait();
+					continue;
+				}
+				int count = Math.min(free, length - done);
+				int start = (int)(appended & mask);
+				// the free space may wrap around the end of the ring
+				int first = Math.min(count, ring.length - start);
+				copyIn(source, offset + done, start, first);
+				copyIn(source, offset + done + first, 0, count - first);
+				appended += count;
+				done += count;
+				lock.notifyAll();
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Copy elements from a source into the ring buffer.
+	 * @param source char[], byte[] or CharSequence to copy from.
+	 * @param from Index of first element in source.
+	 * @param to Index in ring buffer to copy to.
+	 * @param count Number of elements to copy.
+	 */
+	private void copyIn(Object source, int from, int to, int count) {
+		if (source instanceof char[]) {
+			System.arraycopy((char[])source, from, ring, to, count);
+		} else if (source instanceof byte[]) {
+			byte[] bytes = (byte[])source;
+			for (int i=0; i<count; i++) {
+				ring[to + i] = (char)(bytes[from + i] & 0xff);		// convert signed byte to unsigned char
+			}
+		} else if (source instanceof String) {
+			((String)source).getChars(from, from + count, ring, to);
+		} else {
+			CharSequence text = (CharSequence)source;
+			for (int i=0; i<count; i++) {
+				ring[to + i] = text.charAt(from + i);
+			}
+		}
+	}
+
+	// ##### Printing methods #####
+
+	/**
+	 * Body of the pipeline's thread.  Prints until closed, and then lets the screen forget the pipeline.
+	 */
+	private void run() {
+		try {
+			print();
+		} finally {
+			screen.removePipeline(this);
+		}
+	}
+
+	/**
+	 * Print chars from the ring buffer until closed and empty.  Runs on the pipeline's thread.
+	 */
+	private void print() {
+		while (true) {
+			int count;
+			long backlog;
+			synchronized (lock) {
+				while ((appended == taken) && !closed && !forwarding) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// only close() stops the pipeline
+					}
+				}
+				if (appended == taken) {
+					if (!forwarding) {
+						return;
+					}
+					count = 0;
+				} else {
+					count = (int)Math.min(appended - taken, batch.length);
+				}
+				int start = (int)(taken & mask);
+				int first = Math.min(count, ring.length - start);
+				System.arraycopy(ring, start, batch, 0, first);
+				System.arraycopy(ring, 0, batch, first, count - first);
+				taken += count;
+				backlog = appended - taken;
+				// room for writers, while this batch is printed
+				lock.notifyAll();
+			}
+			if (forwarding && ((count == 0) || !fastForward)) {
+				screen.setFastForward(false);
+				forwarding = false;
+			} else if (fastForward && !forwarding && (backlog >= batch.length)) {
+				screen.setFastForward(true);
+				forwarding = true;
+			}
+			if (count == 0) {
+				continue;
+			}
+			screen.beginUpdate();
+			try {
+				if (!screen.isClosed()) {
+					screen.print(batch, 0, count);
+				}
+			} catch (RuntimeException e) {
+				// one bad batch shouldn't stop all output, or leave flush() waiting forever
+			} finally {
+				screen.endUpdate();
+				if (forwarding && (backlog == 0)) {
+					// caught up, so display normally again before flush() returns
+					screen.setFastForward(false);
+					forwarding = false;
+				}
+				synchronized (lock) {
+					printed += count;
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package net.digger.ui.screen;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Prints text to a screen at a given speed in bits per second, to simulate a modem.
+ * Text is queued without blocking, and released at the given rate (8 bits per char), metered
+ * by a token bucket.  Releases happen on the screen's scheduler no more often than the screen's
+ * frame rate, with each one printing the chars earned since the last, up to a frame interval's worth,
+ * so the long-run rate is accurate from 110 bps up, and no thread is tied up while the text is output.
+ * The rate can be changed while text is being output.
+ * <p>
+ * Text is printed from the scheduler's thread, so nothing else should print to the screen
+ * while the pacer has text waiting, or the output will be mixed.
+ * @author walton
+ */
+public class JScreenPacer {
+	// initial size of the queue of waiting chars
+	private static final int INITIAL_CAPACITY = 256;
+	// most chars the bucket can hold while releases are late, in frame intervals' worth
+	// (only one frame's worth is printed per release, and the rest evens out the timing of the next)
+	private static final int MAX_BURST_FRAMES = 2;
+
+	private final JScreen screen;
+	// waiting chars, from head to tail
+	private char[] queue = new char[INITIAL_CAPACITY];
+	private int head = 0;
+	private int tail = 0;
+	// chars being printed by release()
+	private char[] batch = new char[INITIAL_CAPACITY];
+	private boolean printing = false;
+	// output rate, in chars per second
+	private int bps;
+	private double cps;
+	// chars which may be released, and when they were last added
+	private double tokens = 0;
+	private long lastFill;
+	// when the next release is due; releases are timed from when they were due rather than when they ran,
+	// so a late one doesn't delay the ones after it
+	private long releaseDue;
+	// next release, or null if none is scheduled
+	private ScheduledFuture<?> nextRelease = null;
+
+	/**
+	 * Create a pacer for the given screen.
+	 * @param screen Screen to print to.
+	 * @param bps Output rate in bits per second.
+	 */
+	public JScreenPacer(JScreen screen, int bps) {
+		this.screen = screen;
+		setBPS(bps);
+	}
+
+	/**
+	 * @return Output rate in bits per second.
+	 */
+	public synchronized int getBPS() {
+		return bps;
+	}
+
+	/**
+	 * Set the output rate.  Takes effect immediately, even for text already waiting.
+	 * @param bps Output rate in bits per second.
+	 */
+	public synchronized void setBPS(int bps) {
+		if (bps < 1) {
+			throw new IllegalArgumentException("BPS must be at least 1.");
+		}
+		if (bps == this.bps) {
+			return;
+		}
+		if (isBusy()) {
+			// chars earned so far were earned at the old rate
+			fill();
+		}
+		this.bps = bps;
+		cps = bps / 8.0;
+		if ((nextRelease != null) && nextRelease.cancel(false)) {
+			// the release was timed for the old rate
+			nextRelease = null;
+			releaseDue = System.nanoTime();
+			scheduleRelease();
+		}
+	}
+
+	// ##### Output methods #####
+
+	/**
+	 * Queue a char to be printed.
+	 * @param ch Character to print.
+	 */
+	public synchronized void print(char ch) {
+		makeRoom(1);
+		queue[tail++] = ch;
+		start();
+	}
+
+	/**
+	 * Queue text to be printed.
+	 * @param text Text to print.
+	 */
+	public synchronized void print(CharSequence text) {
+		if ((text == null) || (text.length() == 0)) {
+			return;
+		}
+		int length = text.length();
+		makeRoom(length);
+		if (text instanceof String) {
+			((String)text).getChars(0, length, queue, tail);
+		} else {
+			for (int i=0; i<length; i++) {
+				queue[tail + i] = text.charAt(i);
+			}
+		}
+		tail += length;
+		start();
+	}
+
+	/**
+	 * Queue chars to be printed.
+	 * @param chars Characters to print.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to print.
+	 */
+	public synchronized void print(char[] chars, int offset, int length) {
+		if ((offset < 0) || (length < 0) || ((offset + length) > chars.length)) {
+			throw new IllegalArgumentException("Invalid offset or length.");
+		}
+		if (length == 0) {
+			return;
+		}
+		makeRoom(length);
+		System.arraycopy(chars, offset, queue, tail, length);
+		tail += length;
+		start();
+	}
+
+	/**
+	 * @return Number of chars waiting to be printed.
+	 */
+	public synchronized int getPending() {
+		return tail - head;
+	}
+
+	/**
+	 * Discard any chars waiting to be printed, and cancel the next release.
+	 * A batch already being printed is finished.
+	 */
+	public synchronized void clear() {
+		head = 0;
+		tail = 0;
+		if ((nextRelease != null) && nextRelease.cancel(false)) {
+			nextRelease = null;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Wait until all queued text has been printed.
+	 * @throws IllegalStateException If called on the screen's scheduler thread, which prints the text.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public synchronized void await() throws InterruptedException {
+		checkNotScheduler();
+		while (isBusy()) {
+			wait();
+		}
+	}
+
+	/**
+	 * Wait up to the given time for all queued text to be printed.
+	 * @param timeout Maximum time to wait.
+	 * @param unit Unit of timeout.
+	 * @return True if everything was printed, false if the time ran out first.
+	 * @throws IllegalStateException If called on the screen's scheduler thread, which prints the text.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		checkNotScheduler();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (isBusy()) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Waiting on the scheduler's thread, such as in a renderer, would wait forever,
+	 * as only that thread can print the text.
+	 */
+	private void checkNotScheduler() {
+		if (screen.getScheduler().isSchedulerThread()) {
+			throw new IllegalStateException("Can't wait for paced output on the scheduler thread.");
+		}
+	}
+
+	/**
+	 * @return True if there are chars waiting or being printed.
+	 */
+	private boolean isBusy() {
+		return (head < tail) || printing;
+	}
+
+	// ##### Metering methods #####
+
+	/**
+	 * Make room at the tail of the queue for the given number of chars.
+	 * @param length Number of chars to make room for.
+	 */
+	private void makeRoom(int length) {
+		if ((tail + length) <= queue.length) {
+			return;
+		}
+		int count = tail - head;
+		char[] dest = queue;
+		if ((count + length) > queue.length) {
+			dest = new char[Math.max(queue.length * 2, count + length)];
+		}
+		System.arraycopy(queue, head, dest, 0, count);
+		queue = dest;
+		head = 0;
+		tail = count;
+	}
+
+	/**
+	 * Start releasing chars, if not already.
+	 */
+	private void start() {
+		if ((nextRelease != null) || printing) {
+			return;
+		}
+		// the first char goes straight out, and the bucket fills from now
+		tokens = 1;
+		lastFill = System.nanoTime();
+		releaseDue = lastFill;
+		schedule(0);
+	}
+
+	/**
+	 * Add the tokens earned since they were last added.
+	 */
+	private void fill() {
+		long now = System.nanoTime();
+		tokens = Math.min(tokens + (((now - lastFill) * cps) / TimeUnit.SECONDS.toNanos(1)), frameChars() * MAX_BURST_FRAMES);
+		lastFill = now;
+	}
+
+	/**
+	 * @return Most chars printed by one release: those earned in a frame interval, or at least 1.
+	 */
+	private double frameChars() {
+		return Math.max(1, cps / screen.getMaxFrameRate());
+	}
+
+	/**
+	 * Schedule the next release for when a char will have been earned, but not sooner than the next frame.
+	 */
+	private void scheduleRelease() {
+		long frame = TimeUnit.SECONDS.toNanos(1) / screen.getMaxFrameRate();
+		long needed = (long)(((1 - tokens) * TimeUnit.SECONDS.toNanos(1)) / cps);
+		long now = System.nanoTime();
+		releaseDue += Math.max(frame, needed);
+		if (releaseDue < (now - frame)) {
+			// far behind, such as after the scheduler was held up, so don't try to catch up
+			releaseDue = now;
+		}
+		schedule(Math.max(0, releaseDue - now));
+	}
+
+	/**
+	 * Schedule the next release.
+	 * @param delay Time until release (in nanos).
+	 */
+	private void schedule(long delay) {
+		try {
+			nextRelease = screen.getScheduler().schedule(this::release, delay, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// scheduler closed, so the text can never be printed
+			nextRelease = null;
+			clear();
+		}
+	}
+
+	/**
+	 * Print the chars earned since the last release, up to a frame interval's worth, so a late release
+	 * doesn't hold up the scheduler (and every screen's blinking and frames) printing a big batch.
+	 * Runs on the scheduler.
+	 */
+	private void release() {
+		int count;
+		synchronized (this) {
+			nextRelease = null;
+			if (screen.isClosed()) {
+				// nowhere to print, so the text is discarded
+				head = 0;
+				tail = 0;
+			}
+			fill();
+			count = (int)Math.min(Math.min(tokens, frameChars()), tail - head);
+			if (count > batch.length) {
+				batch = new char[Math.max(batch.length * 2, count)];
+			}
+			System.arraycopy(queue, head, batch, 0, count);
+			head += count;
+			tokens -= count;
+			if (head == tail) {
+				head = 0;
+				tail = 0;
+			}
+			printing = true;
+		}
+		try {
+			if (count > 0) {
+				screen.beginUpdate();
+				try {
+					screen.print(batch, 0, count);
+				} finally {
+					screen.endUpdate();
+				}
+			}
+		} finally {
+			synchronized (this) {
+				printing = false;
+				if (head < tail) {
+					scheduleRelease();
+				} else {
+					notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package net.digger.ui.screen;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import net.digger.ui.screen.color.Attr;
+import net.digger.ui.screen.color.JScreenPalette;
+import net.digger.ui.screen.cursor.JScreenCursor;
+import net.digger.ui.screen.font.JScreenFont;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Renders a screen's cells straight into the pixels of a TYPE_INT_RGB BufferedImage, with no Graphics.
+ * Glyphs are drawn from 1-bit bitmaps taken from the screen's fonts (see JScreenFont.drawChar(int[], ...)),
+ * and the palette's colors for each combination of colors and attributes are cached as packed RGB ints,
+ * so a cell costs a lookup and an array write per pixel.
+ * For the bitmap fonts JScreen comes with, this is many times faster than JScreenRasterRenderer,
+ * which suits snapshots and thumbnails of headless screens on a server.  Glyphs are never anti-aliased.
+ * <p>
+ * Frames are brought up to date the same way as by JScreenRasterRenderer (see JScreenImageRenderer), and
+ * the selection, cursor and scan lines are drawn over a copy of the image (see getImage()).
+ * The cursor is drawn by the screen's cursor renderer, which is the only use of Graphics.
+ * @author walton
+ */
+public class JScreenPixelRenderer extends JScreenImageRenderer {
+	private static final int BLINKING = Attr.BLINKING.mask();
+	// slots in the color cache (a power of 2)
+	private static final int COLOR_CACHE_SIZE = 1024;
+	// bits of a packed cell which the palette chooses colors by: attributes, FG and BG
+	private static final int COLOR_SHIFT = 16;
+	private static final long COLOR_BITS = (1L << 40) - 1;
+
+	// the image's pixels
+	private int[] pixels = null;
+	// RGB colors chosen by the palette (FG in the high int, BG in the low), cached by the color bits of the cells
+	private JScreenPalette cachedPalette = null;
+	private final long[] colorKeys = new long[COLOR_CACHE_SIZE];
+	private final long[] colorValues = new long[COLOR_CACHE_SIZE];
+	private final JScreenCell colorCell = new JScreenCell();
+
+	/**
+	 * Create a renderer for the given screen, at font scale 1.
+	 * It must be added to the screen to be given frames.
+	 * @param screen Screen to render.
+	 */
+	public JScreenPixelRenderer(JScreen screen) {
+		super(screen);
+	}
+
+	// ##### Renderer methods #####
+
+	/**
+	 * Release the image.  It will be created again if another frame is rendered.
+	 */
+	@Override
+	public synchronized void release() {
+		super.release();
+		pixels = null;
+	}
+
+	/**
+	 * Get a copy of the rendered screen, with the selection, cursor and scan lines drawn over it.
+	 * @return New TYPE_INT_RGB image, or null if nothing has been rendered yet.
+	 */
+	public synchronized BufferedImage getImage() {
+		if (image == null) {
+			return null;
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] dest = ((DataBufferInt)copy.getRaster().getDataBuffer()).getData();
+		System.arraycopy(pixels, 0, dest, 0, pixels.length);
+
+		// paint the selected cells
+		Rectangle selected = selection;
+		if (selected != null) {
+			int right = Math.min(renderedWidth, selected.x + selected.width);
+			int bottom = Math.min(renderedHeight, selected.y + selected.height);
+			for (int y=Math.max(0, selected.y); y<bottom; y++) {
+				int left = Math.max(0, selected.x);
+				paintCells(dest, rendered, left, y, right - left, true, renderedBlinked);
+			}
+		}
+
+		// paint the cursor, if it is enabled, and not blinking or not currently blinked
+		JScreenCursor cursorRenderer = screen.getCursorRenderer();
+		if ((cursorRenderer != null) && cursorShown && (!cursorBlink || !renderedBlinked)
+				&& (cursorX < renderedWidth) && (cursorY < renderedHeight)) {
+			long cell = rendered[(cursorY * renderedWidth) + cursorX];
+			Rectangle cellBounds = new Rectangle(cursorX * cellSize.width, cursorY * cellSize.height, cellSize.width, cellSize.height);
+			Graphics2D g = copy.createGraphics();
+			try {
+				cursorRenderer.drawCursor(g, cellBounds, screen.getPalette().getFG(JScreenBuffer.unpack(cell, new JScreenCell())), renderedScale);
+			} finally {
+				g.dispose();
+			}
+		}
+
+		// optionally, paint scan lines
+		int scale = renderedScale;
+		if (screen.hasScanLines() && (scale > 1)) {
+			for (int y=0; y<height; y++) {
+				if ((y % scale) >= (scale / 2.0)) {
+					Arrays.fill(dest, y * width, (y + 1) * width, 0);
+				}
+			}
+		}
+		return copy;
+	}
+
+	// ##### Rendering methods #####
+
+	@Override
+	protected BufferedImage createImage(int width, int height) {
+		BufferedImage created = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt)created.getRaster().getDataBuffer()).getData();
+		return created;
+	}
+
+	@Override
+	protected void beginRender(boolean full) {
+		JScreenPalette palette = screen.getPalette();
+		if (full || (palette != cachedPalette)) {
+			// no key has every bit set, so this empties the cache
+			Arrays.fill(colorKeys, -1);
+			cachedPalette = palette;
+		}
+	}
+
+	@Override
+	protected void movePixels(Rectangle from, int dy) {
+		int scan = image.getWidth();
+		if (dy < 0) {
+			for (int y=from.y; y<(from.y + from.height); y++) {
+				System.arraycopy(pixels, (y * scan) + from.x, pixels, ((y + dy) * scan) + from.x, from.width);
+			}
+		} else {
+			for (int y=(from.y + from.height) - 1; y>=from.y; y--) {
+				System.arraycopy(pixels, (y * scan) + from.x, pixels, ((y + dy) * scan) + from.x, from.width);
+			}
+		}
+	}
+
+	@Override
+	protected void renderCells(long[] cells, int x, int y, int width, boolean blinked) {
+		paintCells(pixels, cells, x, y, width, false, blinked);
+	}
+
+	/**
+	 * Render a run of cells in one row, straight from the packed cells.
+	 * @param dest Pixels to render to, the size of the image.
+	 * @param cells Packed cells in screen order.
+	 * @param x X position of first cell in screen.
+	 * @param y Y position in screen.
+	 * @param width Number of cells to render.
+	 * @param selected Render the cells as selected.
+	 * @param blinked Current phase of blinking.
+	 */
+	private void paintCells(int[] dest, long[] cells, int x, int y, int width, boolean selected, boolean blinked) {
+		JScreenFont[] fonts = screen.getFonts();
+		int scan = renderedWidth * cellSize.width;
+		int offset = y * renderedWidth;
+		int p = (y * cellSize.height * scan) + (x * cellSize.width);
+		for (int i=x; i<(x + width); i++, p+=cellSize.width) {
+			long cell = cells[offset + i];
+			long rgb = getColors(cell);
+			int fg = (int)(rgb >>> 32);
+			int bg = (int)rgb;
+			if (selected) {
+				int tmp = fg;
+				fg = bg;
+				bg = tmp;
+			}
+			if (blinked && ((JScreenBuffer.getAttrs(cell) & BLINKING) != 0)) {
+				// blinked off, so only the background shows
+				fg = bg;
+			}
+			int font = JScreenBuffer.getFont(cell);
+			// if there is a font available...
+			if ((font >= 0) && (font < fonts.length)) {
+				// render the cell
+				fonts[font].drawChar(dest, p, scan, JScreenBuffer.getChar(cell), fg, bg, renderedScale);
+			} else {
+				// otherwise, paint it BG color
+				int q = p;
+				for (int row=0; row<cellSize.height; row++, q+=scan) {
+					Arrays.fill(dest, q, q + cellSize.width, bg);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the colors the palette chooses for a cell, from the cache if it has been seen before.
+	 * @param cell Packed cell.
+	 * @return FG RGB in the high int, and BG RGB in the low int.
+	 */
+	private long getColors(long cell) {
+		long key = (cell >>> COLOR_SHIFT) & COLOR_BITS;
+		int slot = (int)(key ^ (key >>> 12) ^ (key >>> 24)) & (COLOR_CACHE_SIZE - 1);
+		if (colorKeys[slot] == key) {
+			return colorValues[slot];
+		}
+		JScreenBuffer.unpack(cell, colorCell);
+		long rgb = ((long)(cachedPalette.getFG(colorCell).getRGB() & 0xffffff) << 32)
+				| (cachedPalette.getBG(colorCell).getRGB() & 0xffffff);
+		colorKeys[slot] = key;
+		colorValues[slot] = rgb;
+		return rgb;
+	}
+}
@@ -0,0 +1,240 @@
+package net.digger.ui.screen;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import net.digger.ui.screen.color.Attr;
+import net.digger.ui.screen.color.JScreenPalette;
+import net.digger.ui.screen.cursor.JScreenCursor;
+import net.digger.ui.screen.font.JScreenFont;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Renders a screen's cells into an off-screen BufferedImage, with the screen's fonts.
+ * Scrolled regions are moved with copyArea, and then only the cells which differ from what
+ * the image holds are rendered (see JScreenImageRenderer).  JScreenView renders into one of these, and it can be added
+ * to a headless screen (see JScreen.addRenderer()) to take snapshots or thumbnails with no display.
+ * <p>
+ * The image holds only the cells.  The selection, cursor and scan lines are drawn over them when the
+ * image is painted or copied (see getImage()), as they don't belong to the cells.
+ * @author walton
+ */
+public class JScreenRasterRenderer extends JScreenImageRenderer {
+	// component to make images compatible with, or null
+	private final Component component;
+	// graphics context of the image, while a frame is being rendered
+	private Graphics2D graphics = null;
+
+	/**
+	 * Create a renderer for the given screen, at font scale 1.
+	 * It must be added to the screen to be given frames.
+	 * @param screen Screen to render.
+	 */
+	public JScreenRasterRenderer(JScreen screen) {
+		this(screen, null);
+	}
+
+	/**
+	 * Create a renderer for the given screen, whose image is compatible with the given component.
+	 * @param screen Screen to render.
+	 * @param component Component the image will be painted to, or null for none.
+	 */
+	JScreenRasterRenderer(JScreen screen, Component component) {
+		super(screen);
+		this.component = component;
+	}
+
+	// ##### Renderer methods #####
+
+	/**
+	 * Get a copy of the rendered screen, with the selection, cursor and scan lines drawn over it.
+	 * @return New image, or null if nothing has been rendered yet.
+	 */
+	public synchronized BufferedImage getImage() {
+		if (image == null) {
+			return null;
+		}
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = copy.createGraphics();
+		try {
+			paint(g, new Rectangle(image.getWidth(), image.getHeight()));
+		} finally {
+			g.dispose();
+		}
+		return copy;
+	}
+
+	// ##### Rendering methods #####
+
+	@Override
+	protected BufferedImage createImage(int width, int height) {
+		GraphicsConfiguration gc = (component == null) ? null : component.getGraphicsConfiguration();
+		if (gc != null) {
+			return gc.createCompatibleImage(width, height);
+		}
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	@Override
+	protected void beginRender(boolean full) {
+		graphics = image.createGraphics();
+	}
+
+	@Override
+	protected void endRender() {
+		graphics.dispose();
+		graphics = null;
+	}
+
+	@Override
+	protected void movePixels(Rectangle pixels, int dy) {
+		graphics.copyArea(pixels.x, pixels.y, pixels.width, pixels.height, 0, dy);
+	}
+
+	@Override
+	protected void renderCells(long[] cells, int x, int y, int width, boolean blinked) {
+		paintCells(graphics, cells, x, y, width, false, blinked);
+	}
+
+	/**
+	 * Paint the image, and draw the selection, cursor and scan lines over it.
+	 * Does nothing if nothing has been rendered.
+	 * @param g Graphics context to paint to.
+	 * @param bounds Pixel region to paint the overlays in, such as the clip bounds.
+	 */
+	synchronized void paint(Graphics g, Rectangle bounds) {
+		if (image == null) {
+			return;
+		}
+		g.drawImage(image, 0, 0, null);
+		boolean blinked = renderedBlinked;
+		// make a copy of the location, because we'll be modifying it
+		Point coords = new Point(bounds.getLocation());
+		Point ulCell = findCell(coords);
+		ulCell.x = Math.max(0, ulCell.x);
+		ulCell.y = Math.max(0, ulCell.y);
+		coords.translate(bounds.width - 1, bounds.height - 1);
+		Point lrCell = findCell(coords);
+		lrCell.x = Math.min(lrCell.x, renderedWidth - 1);
+		lrCell.y = Math.min(lrCell.y, renderedHeight - 1);
+
+		// paint the selected cells
+		Rectangle selected = selection;
+		if (selected != null) {
+			int left = Math.max(ulCell.x, selected.x);
+			int top = Math.max(ulCell.y, selected.y);
+			int right = Math.min(lrCell.x, (selected.x + selected.width) - 1);
+			int bottom = Math.min(lrCell.y, (selected.y + selected.height) - 1);
+			for (int y=top; y<=bottom; y++) {
+				paintCells(g, rendered, left, y, (right - left) + 1, true, blinked);
+			}
+		}
+
+		// paint the cursor, if it is enabled, in the bounds, and not blinking or not currently blinked
+		Rectangle cellBounds = new Rectangle(cellOrigin(cursorX, cursorY), cellSize);
+		JScreenCursor cursorRenderer = screen.getCursorRenderer();
+		if ((cursorRenderer != null) && cursorShown && bounds.intersects(cellBounds)
+				&& (cursorX < renderedWidth) && (cursorY < renderedHeight)) {
+			long cell = rendered[(cursorY * renderedWidth) + cursorX];
+			if (!cursorBlink || !blinked) {
+				cursorRenderer.drawCursor(g, cellBounds, screen.getPalette().getFG(JScreenBuffer.unpack(cell, new JScreenCell())), renderedScale);
+			}
+		}
+
+		// optionally, paint scan lines
+		int scale = renderedScale;
+		if (screen.hasScanLines() && (scale > 1)) {
+			g.setColor(Color.BLACK);
+			Point ulCorner = cellOrigin(ulCell.x, ulCell.y);
+			Point lrCorner = cellOrigin(lrCell.x, lrCell.y);
+			lrCorner.translate(cellSize.width - 1, cellSize.height - 1);
+			for (int y=ulCorner.y; y<=lrCorner.y; y++) {
+				if ((y % scale) >= (scale / 2.0)) {
+					g.drawLine(ulCorner.x, y, lrCorner.x, y);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Render a run of cells in one row.
+	 * @param g Graphics context to render to.
+	 * @param cells Packed cells in screen order.
+	 * @param x X position of first cell in screen.
+	 * @param y Y position in screen.
+	 * @param width Number of cells to render.
+	 * @param selected Render the cells as selected.
+	 * @param blinked Current phase of blinking.
+	 */
+	private void paintCells(Graphics g, long[] cells, int x, int y, int width, boolean selected, boolean blinked) {
+		JScreenFont[] fonts = screen.getFonts();
+		JScreenPalette palette = screen.getPalette();
+		// unpack each cell into a reusable view
+		JScreenCell cell = new JScreenCell();
+		Rectangle cellBounds = new Rectangle(cellSize);
+		cellBounds.y = y * cellSize.height;
+		int offset = y * renderedWidth;
+		for (int i=x; i<(x + width); i++) {
+			cellBounds.x = i * cellSize.width;
+			JScreenBuffer.unpack(cells[offset + i], cell);
+			int font = cell.font;
+			// if there is a font available...
+			if ((font >= 0) && (font < fonts.length)) {
+				// render the cell
+				cell.setAttr(Attr._IS_SELECTED, selected);
+				cell.setAttr(Attr._IS_BLINKED, blinked);
+				fonts[font].drawChar(g, cellBounds, palette, cell, renderedScale);
+			} else {
+				// otherwise, paint it BG color
+				Color bg = palette.getBG(cell);
+				g.setColor(bg);
+				g.fillRect(cellBounds.x, cellBounds.y, cellBounds.width, cellBounds.height);
+			}
+		}
+	}
+
+	// ##### Cell and pixel conversion methods #####
+
+	/**
+	 * Returns the pixel coordinates of the upper left corner of the given character cell.
+	 * @param x X position in screen.
+	 * @param y Y position in screen.
+	 * @return Pixel coordinates of upper left corner of cell.
+	 */
+	private Point cellOrigin(int x, int y) {
+		return new Point(x * cellSize.width, y * cellSize.height);
+	}
+
+	/**
+	 * Returns the character cell at the given pixel coordinates.
+	 * @param pixel Pixel coordinates in screen.
+	 * @return Character cell position in screen.
+	 */
+	private Point findCell(Point pixel) {
+		return new Point(pixel.x / cellSize.width, pixel.y / cellSize.height);
+	}
+}
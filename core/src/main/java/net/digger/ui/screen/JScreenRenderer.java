@@ -0,0 +1,51 @@
+package net.digger.ui.screen;
+
+import java.awt.Rectangle;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Displays the frames published by a JScreen somewhere.
+ * Renderers are added to a screen with JScreen.addRenderer(), and any number may be added, so the same
+ * screen can be shown in a Swing view (JScreenView), rendered off-screen into an image (JScreenRasterRenderer),
+ * and sent to a text terminal (JScreenTerminal) at once.  Headless screens with no renderers publish no frames.
+ * <p>
+ * Frames are published no more often than the screen's frame rate, and render() is called with each one
+ * on the screen's scheduler thread, which is shared by other screens.  So render() must be quick:
+ * anything slow, such as IO, should be handed to another thread.
+ * @author walton
+ */
+public interface JScreenRenderer {
+	/**
+	 * Called with each frame published by the screen.
+	 * The frame belongs to the screen, and may be reused once this returns, so a renderer which needs
+	 * it later must copy it (see JScreenFrame.copy()).
+	 * @param frame Snapshot of the screen.
+	 * @param damage Bounds of the cells which changed since the previous frame.
+	 */
+	void render(JScreenFrame frame, Rectangle damage);
+
+	/**
+	 * Called when the renderer is removed from the screen, or the screen is closed,
+	 * to release any resources it holds.
+	 */
+	default void release() {
+	}
+}
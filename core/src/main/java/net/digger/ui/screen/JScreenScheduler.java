@@ -0,0 +1,172 @@
+package net.digger.ui.screen;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Timer service for blinking and frame pacing, shared by any number of JScreens.
+ * All the blinkers with the same blink rate are ticked together by one periodic task,
+ * and everything runs on a single daemon thread, so adding screens doesn't add threads or timers.
+ * Screens use the process-wide instance from getDefault() unless given another with
+ * JScreen.setScheduler(), for example to have one per display.
+ * @author walton
+ */
+public class JScreenScheduler implements Closeable {
+	private static JScreenScheduler defaultScheduler = null;
+
+	private final ScheduledThreadPoolExecutor executor;
+	// the executor's thread, once started
+	private volatile Thread thread = null;
+	// blinkers, grouped by blink period (in millis)
+	private final Map<Long, BlinkGroup> blinkGroups = new HashMap<>();
+
+	private static class BlinkGroup {
+		private final Set<Runnable> blinkers = ConcurrentHashMap.newKeySet();
+		private ScheduledFuture<?> ticker;
+	}
+
+	/**
+	 * Create a new scheduler, with its own thread.
+	 */
+	public JScreenScheduler() {
+		executor = new ScheduledThreadPoolExecutor(1, (Runnable r) -> {
+			Thread thread = new Thread(r, "JScreen scheduler");
+			// blinking shouldn't keep the JVM running
+			thread.setDaemon(true);
+			this.thread = thread;
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Returns the process-wide scheduler, creating it if necessary.
+	 * @return Shared scheduler.
+	 */
+	public static synchronized JScreenScheduler getDefault() {
+		if ((defaultScheduler == null) || defaultScheduler.isClosed()) {
+			defaultScheduler = new JScreenScheduler();
+		}
+		return defaultScheduler;
+	}
+
+	/**
+	 * Run a task once after the given delay.
+	 * @param task Task to run.
+	 * @param delay Time to wait before running task.
+	 * @param unit Unit of delay.
+	 * @return Future which can be used to cancel the task.
+	 * @throws java.util.concurrent.RejectedExecutionException If the scheduler is closed.
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return executor.schedule(task, delay, unit);
+	}
+
+	/**
+	 * Start calling the given blinker at the given rate, along with any others at the same rate.
+	 * Adding a blinker which was already added, at any rate, does nothing.
+	 * @param blinker Blinker to call each time the blink phase changes.
+	 * @param blinkRate Blink phase changes per second.
+	 * @throws java.util.concurrent.RejectedExecutionException If the scheduler is closed.
+	 */
+	public synchronized void addBlinker(Runnable blinker, double blinkRate) {
+		if (blinkRate <= 0) {
+			throw new IllegalArgumentException("Blink rate must be positive.");
+		}
+		for (BlinkGroup group : blinkGroups.values()) {
+			if (group.blinkers.contains(blinker)) {
+				return;
+			}
+		}
+		long period = Math.max(1, (long)(1000 / blinkRate));
+		BlinkGroup group = blinkGroups.get(period);
+		if (group == null) {
+			BlinkGroup newGroup = new BlinkGroup();
+			newGroup.ticker = executor.scheduleAtFixedRate(() -> tick(newGroup), 0, period, TimeUnit.MILLISECONDS);
+			blinkGroups.put(period, newGroup);
+			group = newGroup;
+		}
+		group.blinkers.add(blinker);
+	}
+
+	/**
+	 * Stop calling the given blinker.
+	 * @param blinker Blinker to remove.  Does nothing if it wasn't added.
+	 */
+	public synchronized void removeBlinker(Runnable blinker) {
+		Iterator<BlinkGroup> groups = blinkGroups.values().iterator();
+		while (groups.hasNext()) {
+			BlinkGroup group = groups.next();
+			if (group.blinkers.remove(blinker) && group.blinkers.isEmpty()) {
+				// nobody left blinking at this rate
+				group.ticker.cancel(false);
+				groups.remove();
+			}
+		}
+	}
+
+	/**
+	 * Call every blinker in a group.
+	 * @param group Group of blinkers to call.
+	 */
+	private void tick(BlinkGroup group) {
+		for (Runnable blinker : group.blinkers) {
+			try {
+				blinker.run();
+			} catch (RuntimeException e) {
+				// an exception would cancel the ticker, so one broken screen would stop them all blinking
+			}
+		}
+	}
+
+	/**
+	 * Check whether the caller is running on this scheduler's thread, such as in a renderer.
+	 * Nothing on that thread may wait for work which only the scheduler can do.
+	 * @return True if called from the scheduler's thread.
+	 */
+	public boolean isSchedulerThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * @return Has this scheduler been closed?
+	 */
+	public boolean isClosed() {
+		return executor.isShutdown();
+	}
+
+	/**
+	 * Stop the scheduler's thread.  Screens still using it will no longer blink or repaint.
+	 */
+	@Override
+	public synchronized void close() {
+		executor.shutdownNow();
+		blinkGroups.clear();
+	}
+}
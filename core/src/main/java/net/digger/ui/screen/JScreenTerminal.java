@@ -0,0 +1,269 @@
+package net.digger.ui.screen;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import net.digger.ui.screen.charmap.JScreenCharMap;
+import net.digger.ui.screen.protocol.ANSIColor;
+import net.digger.ui.screen.protocol.ANSIEncoder;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Displays a screen on a text terminal, such as the one the program is running in, with no Swing.
+ * This lets a headless JScreen app be run over SSH on a server with no display.
+ * <p>
+ * The terminal is one of the screen's renderers (see JScreenRenderer).  It keeps the last frame it sent,
+ * and for each new frame sends only the cells which changed, as ANSI sequences from ANSIEncoder.  Cells hold Unicode
+ * glyphs, which are sent as they are, so CP437 box drawing and shading show properly.  Only glyphs of private-use
+ * fonts, such as PETSCII, are mapped to Unicode, by the screen's character map (see JScreenCharMap.toUnicode()).  Output is written from the terminal's
+ * own thread, no more often than its frame rate; if the terminal is slow to take it, the frames in
+ * between are skipped, so the display keeps up at whatever speed the terminal runs.
+ * <p>
+ * The terminal is switched to its alternate screen while displaying, if it has one, and should be
+ * at least as big as the screen.  Keyboard input isn't read from the terminal.  JScreen's own
+ * diagnostics (such as unimplemented ANSI sequences) go to System.err, so they don't mix with the
+ * display on System.out; redirect System.err to keep them off the terminal.
+ * @author walton
+ */
+public class JScreenTerminal implements JScreenRenderer, Closeable {
+	/**
+	 * Default maximum frames per second.
+	 */
+	public static final int DEFAULT_FRAME_RATE = 30;
+	private static final char ESCAPE = 0x1B;
+
+	private final JScreen screen;
+	private final ANSIColor palette;
+	private final OutputStream out;
+	private final Charset charset;
+	private final Thread thread;
+	// minimum time between frames (in nanos)
+	private volatile long frameInterval = TimeUnit.SECONDS.toNanos(1) / DEFAULT_FRAME_RATE;
+	// newest frame from the screen, copied for the terminal's thread, and set when it hasn't been sent
+	private JScreenFrame latest = null;
+	private boolean changed = false;
+	// set when the whole screen must be sent again
+	private boolean redrawNeeded = false;
+	private boolean closed = false;
+	// encoder for the current character map
+	private ANSIEncoder encoder = null;
+	private JScreenCharMap encoderCharMap = null;
+	// frame the terminal shows, or null if unknown, and the frame being sent
+	private JScreenFrame shown = null;
+	private JScreenFrame sending = null;
+	// is the cursor shown on the terminal, or null if unknown?
+	private Boolean cursorShown = null;
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Display a screen on stdout, in UTF-8.
+	 * @param screen Screen to display.
+	 * @param palette Palette the screen's colors are mapped to ANSI colors with.
+	 */
+	public JScreenTerminal(JScreen screen, ANSIColor palette) {
+		this(screen, palette, System.out, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Display a screen on a terminal.
+	 * @param screen Screen to display.
+	 * @param palette Palette the screen's colors are mapped to ANSI colors with.
+	 * @param out Stream to the terminal.
+	 * @param charset Character set of the terminal.
+	 */
+	public JScreenTerminal(JScreen screen, ANSIColor palette, OutputStream out, Charset charset) {
+		this.screen = screen;
+		this.palette = palette;
+		this.out = out;
+		this.charset = charset;
+		thread = new Thread(this::run, "JScreen terminal");
+		thread.setDaemon(true);
+		thread.start();
+		screen.addRenderer(this);
+	}
+
+	/**
+	 * Get the maximum rate at which frames are sent.
+	 * @return Maximum frames per second.
+	 */
+	public int getMaxFrameRate() {
+		return (int)(TimeUnit.SECONDS.toNanos(1) / frameInterval);
+	}
+
+	/**
+	 * Set the maximum rate at which frames are sent.
+	 * @param fps Maximum frames per second.
+	 */
+	public void setMaxFrameRate(int fps) {
+		if (fps < 1) {
+			throw new IllegalArgumentException("Frame rate must be at least 1.");
+		}
+		frameInterval = TimeUnit.SECONDS.toNanos(1) / fps;
+	}
+
+	/**
+	 * Send the whole screen again in the next frame, such as after something else has written to the terminal.
+	 */
+	public void redraw() {
+		synchronized (this) {
+			redrawNeeded = true;
+		}
+		screen.refresh();
+	}
+
+	/**
+	 * Stop displaying the screen, and put the terminal back to normal.
+	 * Waits for any frame being sent to finish.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		screen.removeRenderer(this);
+		if (thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Called on the screen's scheduler with each frame, which is copied for the terminal's thread.
+	 * @param frame Snapshot of the screen.
+	 * @param damage Bounds of the cells which changed.
+	 */
+	@Override
+	public synchronized void render(JScreenFrame frame, Rectangle damage) {
+		if (closed) {
+			return;
+		}
+		latest = frame.copy(latest);
+		changed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Called when removed from the screen, or the screen is closed, to stop displaying it.
+	 */
+	@Override
+	public void release() {
+		close();
+	}
+
+	/**
+	 * Send frames until closed.  Runs on the terminal's thread.
+	 */
+	private void run() {
+		try {
+			write(ESCAPE + "[?1049h");
+			while (true) {
+				boolean redraw;
+				synchronized (this) {
+					while (!changed && !closed) {
+						wait();
+					}
+					if (closed) {
+						break;
+					}
+					changed = false;
+					// take the newest frame, leaving the one last sent to be copied into
+					JScreenFrame swap = sending;
+					sending = latest;
+					latest = swap;
+					redraw = redrawNeeded;
+					redrawNeeded = false;
+				}
+				long start = System.nanoTime();
+				sendFrame(redraw);
+				// anything which changes meanwhile waits for the next frame
+				TimeUnit.NANOSECONDS.sleep(frameInterval - (System.nanoTime() - start));
+			}
+			write(ESCAPE + "[m" + ESCAPE + "[?25h" + ESCAPE + "[?1049l");
+		} catch (IOException e) {
+			// the terminal has gone, so there's nowhere to display
+			synchronized (this) {
+				closed = true;
+			}
+			screen.removeRenderer(this);
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * Encode the changes from the frame last sent to the one being sent, and write them.
+	 * @param redraw True to send the whole screen.
+	 * @throws IOException If the terminal can't be written to.
+	 */
+	private void sendFrame(boolean redraw) throws IOException {
+		// the char map is only used for its private-use glyphs; it never unmaps cells
+		JScreenCharMap charMap = screen.getCharMap();
+		if ((encoder == null) || (charMap != encoderCharMap)) {
+			// every char may look different now
+			encoder = new ANSIEncoder(palette, charMap);
+			encoderCharMap = charMap;
+			redraw = true;
+		}
+		JScreenFrame frame = sending;
+		long[] from = null;
+		if (!redraw && (shown != null) && (shown.width == frame.width) && (shown.height == frame.height)) {
+			from = shown.cells;
+		} else {
+			cursorShown = null;
+		}
+		text.setLength(0);
+		encoder.encode(from, frame.cells, frame.width, frame.height, text);
+		if ((cursorShown == null) || (frame.cursorShown != cursorShown)) {
+			text.append(ESCAPE).append(frame.cursorShown ? "[?25h" : "[?25l");
+			cursorShown = frame.cursorShown;
+		}
+		if ((frame.cursorX < frame.width) && (frame.cursorY < frame.height)) {
+			encoder.moveCursor(frame.cursorX, frame.cursorY, text);
+		}
+		sending = shown;
+		shown = frame;
+		if (text.length() > 0) {
+			write(text);
+		}
+	}
+
+	/**
+	 * Write text to the terminal.
+	 * @param chars Text to write.
+	 * @throws IOException If the terminal can't be written to.
+	 */
+	private void write(CharSequence chars) throws IOException {
+		out.write(chars.toString().getBytes(charset));
+		out.flush();
+	}
+}
@@ -0,0 +1,469 @@
+package net.digger.ui.screen;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseMotionAdapter;
+
+import javax.swing.ButtonGroup;
+import javax.swing.JFrame;
+import javax.swing.JMenu;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.SwingUtilities;
+
+import net.digger.ui.screen.JScreen.JScreenComponent;
+import net.digger.ui.screen.font.JScreenFont;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Swing view of a JScreen.
+ * Renders the cells into a JScreenComponent, and provides mouse selection and the context menu.
+ * JScreens created with a public constructor have one of these attached.  Headless JScreens
+ * (see JScreen.createHeadlessScreen()) have none, but one can be attached later.
+ * Only one view may be attached to a screen, as one of its renderers.
+ * @author walton
+ */
+public class JScreenView implements JScreenRenderer {
+	private final JScreen screen;
+
+	// ui component
+	private final JScreenComponent component;
+
+	// context menu
+	private final JPopupMenu menu;
+	private final JMenu scaleMenu;
+	private final JMenu fontMenu;
+
+	// frame being displayed, exchanged with the screen for newer ones
+	private JScreenFrame frame = null;
+	// back buffer of rendered cells, copied to the component when it paints
+	private final JScreenRasterRenderer backBuffer;
+
+	// screen dimensions (in pixels)
+	private volatile Rectangle screenPixels = new Rectangle();
+	// cell dimensions (in pixels)
+	private volatile Dimension cellSize;
+	private volatile int fontScale;
+	private int maxFontScale = 1;
+
+	// cell where a mouse drag started
+	private Point selectionStarted = null;
+
+	// ##### Constructors #####
+
+	/**
+	 * Create a view of the given screen, and attach it to the screen.
+	 * @param screen Screen to display.
+	 */
+	public JScreenView(JScreen screen) {
+		this(screen, null);
+	}
+
+	/**
+	 * Create a view of the given screen, adding the given copyright message to the context menu,
+	 * and attach it to the screen.
+	 * @param screen Screen to display.
+	 * @param copyright Copyright notice to display.
+	 */
+	public JScreenView(JScreen screen, String copyright) {
+		this.screen = screen;
+		component = screen.new JScreenComponent(this::paintScreen);
+		backBuffer = new JScreenRasterRenderer(screen, component);
+		component.setEnabled(true);
+		component.setFocusable(true);
+		component.setFocusTraversalKeysEnabled(false);
+
+		component.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				switch (e.getClickCount()) {
+					case 3:
+						doTripleClick(e);
+						break;
+					case 2:
+						doDoubleClick(e);
+						break;
+					default:
+						doClick(e);
+						break;
+				}
+			}
+
+			private void doClick(MouseEvent e) {
+				selectionStarted = null;
+				screen.clearSelection();
+			}
+
+			private void doDoubleClick(MouseEvent e) {
+				if (frame == null) {
+					return;
+				}
+				Point clicked = findCell(e.getPoint());
+				int startX = clicked.x;
+				int endX = clicked.x;
+				int y = clicked.y;
+				boolean space = (getFrameChar(startX, y) == ' ');
+				do {
+					startX--;
+				} while ((startX >= 0) && checkChar(getFrameChar(startX, y), space));
+				startX++;
+				do {
+					endX++;
+				} while ((endX < frame.width) && checkChar(getFrameChar(endX, y), space));
+				endX--;
+				screen.selectCells(new Rectangle(startX, y, (endX - startX) + 1, 1));
+			}
+
+			private void doTripleClick(MouseEvent e) {
+				Point clicked = findCell(e.getPoint());
+				int startX = 0;
+				int endX = screen.getTextScreenSize().width - 1;
+				int y = clicked.y;
+				screen.selectCells(new Rectangle(startX, y, (endX - startX) + 1, 1));
+			}
+
+			private boolean checkChar(char ch, boolean space) {
+				return space ? (ch == ' ') : (ch != ' ');
+			}
+
+			@Override
+			public void mousePressed(MouseEvent e) {
+				selectionStarted = findCell(e.getPoint());
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent e) {
+				selectionStarted = null;
+			}
+		});
+
+		component.addMouseMotionListener(new MouseMotionAdapter() {
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				if (selectionStarted != null) {
+					Point cell = findCell(e.getPoint());
+					screen.selectCells(new Rectangle(
+							Math.min(selectionStarted.x, cell.x),
+							Math.min(selectionStarted.y, cell.y),
+							Math.abs(cell.x - selectionStarted.x) + 1,
+							Math.abs(cell.y - selectionStarted.y) + 1)
+					);
+				}
+			}
+		});
+
+		// right-click context menu
+		menu = new JPopupMenu();
+		component.setComponentPopupMenu(menu);
+		if (copyright != null) {
+			menu.add(new JMenuItem(copyright));
+		}
+		menu.add(new JMenuItem("JScreen v" + JScreen.VERSION + " " + JScreen.COPYRIGHT + " by David Walton"));
+
+		JMenuItem copy = new JMenuItem("Copy selection text to clipboard");
+		menu.add(copy);
+		copy.addActionListener((ActionEvent e) -> {
+			screen.copySelectionToClipboard();
+		});
+		JMenuItem paste = new JMenuItem("Paste text to keyboard buffer");
+		menu.add(paste);
+		paste.addActionListener((ActionEvent e) -> {
+			if (screen.keyboard != null) {
+				screen.keyboard.pasteClipboard();
+			}
+		});
+
+		fontMenu = new JMenu("Fonts");
+		menu.add(fontMenu);
+		scaleMenu = new JMenu("Font Scale");
+		menu.add(scaleMenu);
+
+		screen.attachView(this);
+		if (screen.keyboard != null) {
+			screen.keyboard.attach(component);
+		}
+		fontsChanged();
+	}
+
+	// ##### UI component methods #####
+
+	/**
+	 * Returns the context menu, for custom UI tweaks.
+	 * @return Popup menu.
+	 */
+	public JPopupMenu getContextMenu() {
+		return menu;
+	}
+
+	/**
+	 * Returns a reference to the JScreenComponent, so you can add it to your custom UI.
+	 * @return Component for the screen.
+	 */
+	public JScreenComponent getComponent() {
+		return component;
+	}
+
+	/**
+	 * Adds font scale options to the context menu.
+	 */
+	private void addFontScaleMenus() {
+		scaleMenu.removeAll();
+		ButtonGroup group = new ButtonGroup();
+		for (int i=1; i<=maxFontScale; i++) {
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem("" + i + 'x');
+			item.setSelected(fontScale == i);
+			item.setActionCommand(String.valueOf(i));
+			group.add(item);
+			scaleMenu.add(item);
+			item.addActionListener((ActionEvent e) -> {
+				setFontScale(Integer.parseInt(e.getActionCommand()));
+			});
+		}
+	}
+
+	/**
+	 * Adds font copyright messages to the context menu.
+	 */
+	private void addFontMenus() {
+		fontMenu.removeAll();
+		for (JScreenFont font : screen.getFonts()) {
+			fontMenu.add(new JMenuItem(font.getAbout()));
+		}
+	}
+
+	/**
+	 * Update the preferred size of the JScreenComponent, and repack its frame.
+	 */
+	private void setPreferredSize() {
+		Dimension d = screenPixels.getSize();
+		component.setMinimumSize(d);
+		component.setPreferredSize(d);
+		component.setMaximumSize(d);
+		JFrame frame = (JFrame)SwingUtilities.getRoot(component);
+		if (frame != null) {
+			frame.pack();
+		}
+	}
+
+	// ##### Screen notification methods #####
+
+	/**
+	 * Called by the screen when its fonts have changed.
+	 */
+	void fontsChanged() {
+		addFontMenus();
+		setFontScale();
+	}
+
+	/**
+	 * Called by the screen when its size has changed.
+	 */
+	void sizeChanged() {
+		setFontScale();
+	}
+
+	/**
+	 * Called by the screen when a frame is published, to request a repaint of the cells which changed.
+	 * The frame is taken from the screen when the component paints.
+	 * @param published Frame published.
+	 * @param damage Bounds of character cell region in screen.
+	 */
+	@Override
+	public void render(JScreenFrame published, Rectangle damage) {
+		component.repaint(regionPixels(damage));
+	}
+
+	/**
+	 * Called by the screen when it is closed, to release the back buffer.
+	 * It will be created again if the component is painted.
+	 */
+	@Override
+	public void release() {
+		// the back buffer belongs to the event dispatch thread
+		SwingUtilities.invokeLater(() -> {
+			backBuffer.release();
+			frame = null;
+		});
+	}
+
+	// ##### Font scale methods #####
+
+	/**
+	 * Get current screen dimensions (in pixels).
+	 * @return Screen dimensions in pixels.
+	 */
+	public Dimension getScreenPixels() {
+		return new Dimension(screenPixels.getSize());
+	}
+
+	/**
+	 * Set the largest font scaling factor to fit on screen.
+	 */
+	public void setFontScale() {
+		if (screen.getScreenCells() == null) {
+			return;
+		}
+		setMaxFontScale();
+		setFontScale(maxFontScale - 1);
+	}
+
+	/**
+	 * Determines the largest font scale which will fit on screen, and sets maxFontScale to that value + 1;
+	 */
+	private void setMaxFontScale() {
+		Rectangle screenCells = screen.getScreenCells();
+		if (GraphicsEnvironment.isHeadless()) {
+			// no display to fit, so just offer scale 1
+			maxFontScale = 2;
+			addFontScaleMenus();
+			return;
+		}
+		// Calculate font scale based on screen dimensions
+		// or should this use Toolkit.getDefaultToolkit().getScreenSize()?
+		Rectangle bounds = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+		// JScreen.setTextFonts() ensures all fonts have the same cell size
+		Dimension size = screen.getFonts()[0].getCellSize(1);
+		int xScale = bounds.width / (screenCells.width * size.width);
+		int yScale = bounds.height / (screenCells.height * size.height);
+		maxFontScale = Math.max(1, Math.min(xScale, yScale)) + 1;
+		addFontScaleMenus();
+	}
+
+	/**
+	 * Set the font scaling factor to use.
+	 * @param scale Font scale to use.
+	 */
+	public void setFontScale(int scale) {
+		Rectangle screenCells = screen.getScreenCells();
+		if (screenCells == null) {
+			return;
+		}
+		JScreenFont[] fonts = screen.getFonts();
+		// the back buffer releases the glyphs at the old scale once it renders at the new one
+		fontScale = scale;
+		cellSize = fonts[0].getCellSize(fontScale);
+		screenPixels = new Rectangle(screenCells.width * cellSize.width, screenCells.height * cellSize.height);
+		// everything needs rendering again at the new scale, which the back buffer will notice
+		backBuffer.setFontScale(scale);
+//		System.out.println("Screen pixels: " + screenPixels);
+		addFontScaleMenus();
+		setPreferredSize();
+	}
+
+	// ##### Rendering methods #####
+
+	/**
+	 * Used by the JScreenComponent to render the screen to its canvas.
+	 * The newest frame published by the screen is rendered into a back buffer, and the back buffer is copied to the canvas,
+	 * with the selection, cursor and scan lines drawn over it.
+	 * Runs on the event dispatch thread, and takes no locks on the screen: the frame belongs to this view until it is
+	 * exchanged for a newer one.
+	 * @param g Graphics context to use for display.
+	 */
+	private void paintScreen(Graphics g) {
+		frame = screen.takeFrame(frame);
+		if (frame == null) {
+			// nothing published yet
+			return;
+		}
+		backBuffer.update(frame);
+		// Use the clip bounds to determine what cells to draw over
+		backBuffer.paint(g, g.getClipBounds());
+	}
+
+	// ##### Cell and pixel conversion methods #####
+
+	/**
+	 * Gets the char at the given screen-relative coordinates of the frame being displayed.
+	 * @param x X position in screen.
+	 * @param y Y position in screen.
+	 * @return Character from cell, or space if off-screen.
+	 */
+	private char getFrameChar(int x, int y) {
+		if ((x < 0) || (y < 0) || (x >= frame.width) || (y >= frame.height)) {
+			return ' ';
+		}
+		return screen.unmapChar(JScreenBuffer.getChar(frame.getCell(x, y)));
+	}
+
+	/**
+	 * Returns the pixel coordinates of the upper left corner of the given character cell.
+	 * @param x X position in screen.
+	 * @param y Y position in screen.
+	 * @return Pixel coordinates of upper left corner of cell.
+	 */
+	private Point cellOrigin(int x, int y) {
+		return new Point(x * cellSize.width, y * cellSize.height);
+	}
+
+	/**
+	 * Returns the pixel region of the given character cell region.
+	 * @param region Bounds of character cell region in screen.
+	 * @return Pixel region of character cell region.
+	 */
+	private Rectangle regionPixels(Rectangle region) {
+		return regionPixels(region.x, region.y, region.width, region.height);
+	}
+
+	/**
+	 * Returns the pixel region of the given character cell region.
+	 * @param left X position of left side of character cell region in screen.
+	 * @param top Y position of top of character cell region in screen.
+	 * @param width Width of character cell region in screen.
+	 * @param height Height of character cell region in screen.
+	 * @return Pixel region of character cell region.
+	 */
+	private Rectangle regionPixels(int left, int top, int width, int height) {
+		Point start = cellOrigin(left, top);
+		Point end = cellOrigin(left + width - 1, top + height - 1);
+		end.translate(cellSize.width, cellSize.height);
+		return new Rectangle(start.x, start.y, (end.x - start.x) + 1, (end.y - start.y) + 1);
+	}
+
+	/**
+	 * Returns the character cell at the given pixel coordinates.
+	 * @param pixel Pixel coordinates in screen.
+	 * @return Character cell position in screen.
+	 */
+	private Point findCell(Point pixel) {
+		return findCell(pixel.x, pixel.y);
+	}
+
+	/**
+	 * Returns the character cell at the given pixel coordinates.
+	 * @param x X position of pixel in screen.
+	 * @param y Y position of pixel in screen.
+	 * @return Character cell position in screen.
+	 */
+	private Point findCell(int x, int y) {
+		Point coord = new Point();
+		coord.x = x / cellSize.width;
+		coord.y = y / cellSize.height;
+		return coord;
+	}
+}
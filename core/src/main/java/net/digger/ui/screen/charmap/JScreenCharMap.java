@@ -1,8 +1,5 @@
 package net.digger.ui.screen.charmap;
 
-import org.apache.commons.collections4.BidiMap;
-import org.apache.commons.collections4.bidimap.DualHashBidiMap;
-
 /**
  * Copyright © 2017  David Walton
  * 
@@ -25,19 +22,71 @@ import org.apache.commons.collections4.bidimap.DualHashBidiMap;
 /**
  * Character translation map.
  * Used to map from Unicode chars to screen font chars, and back.
+ * Mappings are held in forward and reverse lookup tables, split into pages of 256 chars.
+ * Pages are only created when something in them is mapped, and chars which aren't mapped
+ * translate to themselves.
  * @author walton
  */
 public class JScreenCharMap {
-	protected final BidiMap<Character, Character> charMap = new DualHashBidiMap<>();
+	private static final int PAGE_SHIFT = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	
+	// Unicode char to display char, by page, or null for pages which map to themselves
+	private final char[][] forward = new char[PAGE_SIZE][];
+	// display char to Unicode char, by page, or null for pages which map to themselves
+	private final char[][] reverse = new char[PAGE_SIZE][];
 
+	/**
+	 * Add a mapping between a Unicode character and the character to display for it.
+	 * Each character should only be mapped once, and to a different display character.
+	 * @param ch Unicode character.
+	 * @param display Character to display.
+	 */
+	protected void put(char ch, char display) {
+		page(forward, ch)[ch & PAGE_MASK] = display;
+		page(reverse, display)[display & PAGE_MASK] = ch;
+	}
+	
+	/**
+	 * Fetch or create the page of a table holding the given character.
+	 * New pages map each character to itself.
+	 * @param table Forward or reverse table.
+	 * @param ch Character to find.
+	 * @return Page holding the character.
+	 */
+	private static char[] page(char[][] table, char ch) {
+		int index = ch >>> PAGE_SHIFT;
+		char[] page = table[index];
+		if (page == null) {
+			page = new char[PAGE_SIZE];
+			int base = index << PAGE_SHIFT;
+			for (int i=0; i<PAGE_SIZE; i++) {
+				page[i] = (char)(base + i);
+			}
+			table[index] = page;
+		}
+		return page;
+	}
+	
+	/**
+	 * Look up a character in a table.
+	 * @param table Forward or reverse table.
+	 * @param ch Character to look up.
+	 * @return Translated character.
+	 */
+	private static char lookup(char[][] table, char ch) {
+		char[] page = table[ch >>> PAGE_SHIFT];
+		return (page == null) ? ch : page[ch & PAGE_MASK];
+	}
+	
 	/**
 	 * Returns character to display for the given Unicode character.
 	 * @param ch Character to be mapped.
 	 * @return Mapped character.
 	 */
-	public Character mapChar(char ch) {
-		Character chr = charMap.get(ch);
-		return (chr == null) ? ch : chr;
+	public char mapChar(char ch) {
+		return lookup(forward, ch);
 	}
 	
 	/**
@@ -45,8 +94,42 @@ public class JScreenCharMap {
 	 * @param ch Character to be unmapped.
 	 * @return Unmapped character.
 	 */
-	public Character unmapChar(char ch) {
-		Character chr = charMap.getKey(ch);
-		return (chr == null) ? ch : chr;
+	public char unmapChar(char ch) {
+		return lookup(reverse, ch);
+	}
+	
+	/**
+	 * Replaces the given Unicode characters with the characters to display for them.
+	 * @param chars Characters to be mapped.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to map.
+	 */
+	public void mapChars(char[] chars, int offset, int length) {
+		for (int i=offset; i<(offset + length); i++) {
+			chars[i] = lookup(forward, chars[i]);
+		}
+	}
+	
+	/**
+	 * Replaces the given display characters with their Unicode characters.
+	 * @param chars Characters to be unmapped.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to unmap.
+	 */
+	public void unmapChars(char[] chars, int offset, int length) {
+		for (int i=offset; i<(offset + length); i++) {
+			chars[i] = lookup(reverse, chars[i]);
+		}
+	}
+	
+	/**
+	 * Returns the Unicode character a text terminal should show for the given display character.
+	 * Display characters are usually the Unicode glyphs themselves (as with CP437), so by default
+	 * this returns the character unchanged.  Maps to fonts with private-use glyphs override it.
+	 * @param ch Display character, as held in a screen cell.
+	 * @return Character for a terminal to show.
+	 */
+	public char toUnicode(char ch) {
+		return ch;
 	}
 }
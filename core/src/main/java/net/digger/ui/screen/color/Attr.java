@@ -1,5 +1,7 @@
 package net.digger.ui.screen.color;
 
+import java.util.EnumSet;
+
 /**
  * Copyright © 2017  David Walton
  * 
@@ -48,4 +50,73 @@ public enum Attr {
 	_IS_SELECTED,
 	// Other attributes available for custom purposes
 	USER_1, USER_2, USER_3, USER_4, USER_5, USER_6, USER_7, USER_8, 
+	;
+	
+	/**
+	 * Returns the bit representing this attribute in a packed attribute mask.
+	 * @return Attribute bit.
+	 */
+	public int mask() {
+		return 1 << ordinal();
+	}
+	
+	/**
+	 * Create a packed attribute mask from varargs or an array of Attrs.
+	 * @param attrs Zero or more attributes to add to the mask.
+	 * @return Packed attribute mask.
+	 */
+	public static int toMask(Attr... attrs) {
+		int mask = 0;
+		if (attrs != null) {
+			for (Attr attr : attrs) {
+				if (attr != null) {
+					mask |= attr.mask();
+				}
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Create a packed attribute mask from an EnumSet of Attrs.
+	 * @param attrs Set of attributes to add to the mask.
+	 * @return Packed attribute mask.
+	 */
+	public static int toMask(EnumSet<Attr> attrs) {
+		int mask = 0;
+		if (attrs != null) {
+			for (Attr attr : attrs) {
+				mask |= attr.mask();
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Create an EnumSet of attributes from a packed attribute mask.
+	 * @param mask Packed attribute mask.
+	 * @return EnumSet of attributes.
+	 */
+	public static EnumSet<Attr> toSet(int mask) {
+		EnumSet<Attr> set = EnumSet.noneOf(Attr.class);
+		toSet(mask, set);
+		return set;
+	}
+	
+	/**
+	 * Replace the contents of the given EnumSet with the attributes in a packed attribute mask.
+	 * @param mask Packed attribute mask.
+	 * @param set EnumSet of attributes to fill.
+	 */
+	public static void toSet(int mask, EnumSet<Attr> set) {
+		set.clear();
+		for (Attr attr : VALUES) {
+			if ((mask & attr.mask()) != 0) {
+				set.add(attr);
+			}
+		}
+	}
+	
+	// cached, because values() returns a new array every time
+	private static final Attr[] VALUES = values();
 }
@@ -5,10 +5,8 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.FontFormatException;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
 import java.awt.font.FontRenderContext;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
@@ -16,6 +14,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.digger.ui.screen.JScreenCell;
 import net.digger.ui.screen.color.Attr;
@@ -57,11 +56,23 @@ public class JScreenFont {
 	private final boolean antiAlias;
 
 	// Set of fonts at various size multiples.
-	private final Map<Integer, Font> fonts = new HashMap<>();
+	// (concurrent, as a screen may be rendered on several threads at once)
+	private final Map<Integer, Font> fonts = new ConcurrentHashMap<>();
 	// Set of baseline offsets at various size multiples.
-	private final Map<Integer, Integer> offsets = new HashMap<>();
+	private final Map<Integer, Integer> offsets = new ConcurrentHashMap<>();
 	// Set of character cell dimensions at various size multiples.
-	private final Map<Integer, Dimension> sizes = new HashMap<>();
+	private final Map<Integer, Dimension> sizes = new ConcurrentHashMap<>();
+	// Set of glyph rasterizers at various size multiples, shared by the atlases and bitmaps.
+	private final Map<Integer, JScreenGlyphRasterizer> rasterizers = new ConcurrentHashMap<>();
+	// Set of pre-rasterized glyphs at various size multiples, built as they are drawn.
+	private final Map<Integer, JScreenGlyphAtlas> atlases = new ConcurrentHashMap<>();
+	// Set of 1-bit glyph bitmaps at various size multiples, built as they are drawn.
+	private final Map<Integer, JScreenGlyphBits> bitmaps = new ConcurrentHashMap<>();
+	// the glyph bitmaps last drawn, which are nearly always the ones wanted next
+	private volatile JScreenGlyphBits lastBitmaps = null;
+	// Number of renderers using the glyphs at various size multiples.
+	// (fonts are shared by every screen, so glyphs are only discarded once nothing uses them)
+	private final Map<Integer, Integer> glyphUsers = new HashMap<>();
 
 	/**
 	 * Create a new display font, not anti-aliased.
@@ -201,6 +212,9 @@ public class JScreenFont {
 	
 	/**
 	 * Fetch or calculate baseline offset at the given size multiple.
+	 * Because drawChars references the font baseline, and we have the coords of the
+	 * top left of the cell, we need to add to get the bottom, then subtract the
+	 * difference between the bottom and the base.
 	 * @param scale Multiplier of base point size.
 	 * @return Offset for the requested size.
 	 */
@@ -216,6 +230,71 @@ public class JScreenFont {
 		return offset;
 	}
 	
+	/**
+	 * Fetch or create the glyph rasterizer at the given size multiple.
+	 * @param scale Multiplier of base point size.
+	 * @return Glyph rasterizer for the requested size.
+	 */
+	private JScreenGlyphRasterizer getRasterizer(int scale) {
+		return rasterizers.computeIfAbsent(scale,
+				s -> new JScreenGlyphRasterizer(getFont(s), antiAlias, getCellSize(s), getYOffset(s)));
+	}
+	
+	/**
+	 * Fetch or create the glyph atlas at the given size multiple.
+	 * @param scale Multiplier of base point size.
+	 * @return Glyph atlas for the requested size.
+	 */
+	private JScreenGlyphAtlas getAtlas(int scale) {
+		return atlases.computeIfAbsent(scale, s -> new JScreenGlyphAtlas(getRasterizer(s)));
+	}
+	
+	/**
+	 * Fetch or create the glyph bitmaps at the given size multiple.
+	 * @param scale Multiplier of base point size.
+	 * @return Glyph bitmaps for the requested size.
+	 */
+	private JScreenGlyphBits getBitmaps(int scale) {
+		JScreenGlyphBits bits = lastBitmaps;
+		if ((bits != null) && (bits.scale == scale)) {
+			return bits;
+		}
+		bits = bitmaps.computeIfAbsent(scale, s -> new JScreenGlyphBits(s, getRasterizer(s)));
+		lastBitmaps = bits;
+		return bits;
+	}
+	
+	/**
+	 * Note that a renderer is using the glyphs at the given size multiple, so they are kept
+	 * until it calls releaseGlyphs().
+	 * @param scale Multiplier of base point size.
+	 */
+	public synchronized void acquireGlyphs(int scale) {
+		glyphUsers.merge(scale, 1, Integer::sum);
+	}
+	
+	/**
+	 * Note that a renderer has stopped using the glyphs at the given size multiple.
+	 * Once no renderer is using them, the pre-rasterized glyphs are discarded, and will be
+	 * rasterized again if that size is drawn again.
+	 * @param scale Multiplier of base point size.
+	 */
+	public synchronized void releaseGlyphs(int scale) {
+		Integer users = glyphUsers.get(scale);
+		if (users == null) {
+			return;
+		}
+		if (users > 1) {
+			glyphUsers.put(scale, users - 1);
+			return;
+		}
+		glyphUsers.remove(scale);
+		atlases.remove(scale);
+		bitmaps.remove(scale);
+		rasterizers.remove(scale);
+		lastBitmaps = null;
+	}
+	
 	/**
 	 * Render a character on screen.
 	 * @param g Graphics object to render to.
@@ -244,16 +323,31 @@ public class JScreenFont {
 		if (!cell.attrs.contains(Attr.BLINKING) || !cell.attrs.contains(Attr._IS_BLINKED)) {
 			// Also, only if the foreground color is different from the background
 			if (!fg.equals(bg)) {
-				g.setFont(getFont(scale));
-				g.setColor(fg);
-				if (antiAlias) {
-					((Graphics2D)g).setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-				}
-				// Because drawChars references the font baseline, and we are getting the coords
-				// of the top left of the cell, we need to add to get the bottom, then subtract 
-				// the difference between the bottom and the base.
-				g.drawChars(new char[] {cell.ch}, 0, 1, bounds.x, bounds.y + bounds.height - getYOffset(scale));
+				// Glyphs are rasterized once, then blitted from the atlas.
+				getAtlas(scale).drawGlyph(g, bounds.x, bounds.y, cell.ch, fg);
 			}
 		}
 	}
+	
+	/**
+	 * Render a character and its background straight into an array of RGB pixels, such as the data of
+	 * a TYPE_INT_RGB BufferedImage, from a 1-bit bitmap of its glyph.
+	 * This is much faster than drawing with a Graphics, and suits the bitmap fonts JScreen comes with,
+	 * but glyphs are never anti-aliased.  Attributes such as reverse and blinking are up to the caller.
+	 * @param pixels Pixels to render to.
+	 * @param offset Index of the top left pixel of the character cell in pixels.
+	 * @param scan Pixels per row of pixels.
+	 * @param ch Character to render.
+	 * @param fg Foreground RGB.
+	 * @param bg Background RGB.
+	 * @param scale Multiplier of base point size.
+	 */
+	public void drawChar(int[] pixels, int offset, int scan, char ch, int fg, int bg, int scale) {
+		JScreenGlyphBits bits = getBitmaps(scale);
+		if (fg == bg) {
+			bits.fill(pixels, offset, scan, bg);
+		} else {
+			bits.drawGlyph(pixels, offset, scan, ch, fg, bg);
+		}
+	}
 }
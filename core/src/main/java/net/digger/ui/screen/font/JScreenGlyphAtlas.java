@@ -0,0 +1,152 @@
+package net.digger.ui.screen.font;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Pre-rasterized glyphs of one font at one scale.
+ * Each glyph is rasterized once, the first time it is drawn, into an 8-bit coverage mask.
+ * The masks are tinted into a sheet per foreground color, so drawing a glyph is a single image blit.
+ * Drawing is synchronized, as the same font may be rendered by a view and other renderers on different threads.
+ * @author walton
+ */
+class JScreenGlyphAtlas {
+	// glyphs per row of a sheet
+	private static final int COLUMNS = 32;
+
+	private final JScreenGlyphRasterizer rasterizer;
+	private final int width;
+	private final int height;
+
+	// slot number + 1 of each rasterized glyph (0 if not rasterized), by high byte and then low byte of char
+	private final int[][] slots = new int[256][];
+	// coverage of each slot, width * height bytes per slot
+	private byte[] masks;
+	private int count = 0;
+	// tinted sheets, by foreground RGB
+	private final Map<Integer, Sheet> sheets = new HashMap<>();
+	// the sheet last drawn from, which is usually the one wanted next
+	private Sheet lastSheet = null;
+
+	private static class Sheet {
+		private final int rgb;
+		private BufferedImage image;
+		// number of slots which have been tinted into the image
+		private int filled = 0;
+
+		private Sheet(int rgb) {
+			this.rgb = rgb;
+		}
+	}
+
+	/**
+	 * Create an empty atlas.
+	 * @param rasterizer Rasterizer of the font at the scale to be rendered.
+	 */
+	JScreenGlyphAtlas(JScreenGlyphRasterizer rasterizer) {
+		this.rasterizer = rasterizer;
+		this.width = rasterizer.width;
+		this.height = rasterizer.height;
+		masks = new byte[COLUMNS * width * height];
+	}
+
+	/**
+	 * Draw a glyph in the given color, over whatever is already in the cell.
+	 * @param g Graphics object to render to.
+	 * @param x X position of left side of cell in g.
+	 * @param y Y position of top of cell in g.
+	 * @param ch Character to draw.
+	 * @param fg Color to draw the glyph in.
+	 */
+	synchronized void drawGlyph(Graphics g, int x, int y, char ch, Color fg) {
+		int slot = getSlot(ch);
+		Sheet sheet = getSheet(fg);
+		int sx = (slot % COLUMNS) * width;
+		int sy = (slot / COLUMNS) * height;
+		g.drawImage(sheet.image, x, y, x + width, y + height, sx, sy, sx + width, sy + height, null);
+	}
+
+	/**
+	 * Fetch or rasterize the slot for a glyph.
+	 * @param ch Character to find.
+	 * @return Slot number of the glyph.
+	 */
+	private int getSlot(char ch) {
+		int[] page = slots[ch >>> 8];
+		if (page == null) {
+			page = new int[256];
+			slots[ch >>> 8] = page;
+		} else if (page[ch & 0xff] != 0) {
+			return page[ch & 0xff] - 1;
+		}
+		int size = width * height;
+		if (((count + 1) * size) > masks.length) {
+			masks = Arrays.copyOf(masks, masks.length * 2);
+		}
+		System.arraycopy(rasterizer.rasterize(ch), 0, masks, count * size, size);
+		page[ch & 0xff] = count + 1;
+		return count++;
+	}
+
+	/**
+	 * Fetch or create the sheet for a color, and tint any glyphs it is missing.
+	 * @param fg Color to tint the glyphs.
+	 * @return Sheet of glyphs in the requested color.
+	 */
+	private Sheet getSheet(Color fg) {
+		int rgb = fg.getRGB() & 0x00ffffff;
+		Sheet sheet = lastSheet;
+		if ((sheet == null) || (sheet.rgb != rgb)) {
+			sheet = sheets.computeIfAbsent(rgb, Sheet::new);
+			lastSheet = sheet;
+		}
+		if (sheet.filled == count) {
+			return sheet;
+		}
+		int rows = (masks.length / (width * height)) / COLUMNS;
+		if ((sheet.image == null) || (sheet.image.getHeight() < (rows * height))) {
+			BufferedImage image = new BufferedImage(COLUMNS * width, rows * height, BufferedImage.TYPE_INT_ARGB);
+			if (sheet.image != null) {
+				Graphics g = image.getGraphics();
+				g.drawImage(sheet.image, 0, 0, null);
+				g.dispose();
+			}
+			sheet.image = image;
+		}
+		int size = width * height;
+		int[] argb = new int[size];
+		for (int slot=sheet.filled; slot<count; slot++) {
+			int offset = slot * size;
+			for (int i=0; i<size; i++) {
+				argb[i] = ((masks[offset + i] & 0xff) << 24) | rgb;
+			}
+			// setDataElements leaves the image eligible for acceleration, unlike touching the data buffer
+			sheet.image.getRaster().setDataElements((slot % COLUMNS) * width, (slot / COLUMNS) * height, width, height, argb);
+		}
+		sheet.filled = count;
+		return sheet;
+	}
+}
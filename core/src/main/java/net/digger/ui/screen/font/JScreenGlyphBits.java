@@ -0,0 +1,180 @@
+package net.digger.ui.screen.font;
+
+import java.util.Arrays;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * 1-bit bitmaps of the glyphs of one font at one scale, for drawing straight into arrays of int pixels.
+ * Each glyph is rasterized once, the first time it is drawn, and a pixel is set if its coverage is at least half.
+ * A row of a glyph is one long per 64 pixels, with the leftmost pixel in the lowest bit.
+ * Glyphs are looked up in pages of 256 chars without locking, so drawing takes no boxing, hashing or waiting;
+ * only rasterizing a new glyph is synchronized.
+ * @author walton
+ */
+class JScreenGlyphBits {
+	/**
+	 * Multiplier of base point size the glyphs are rasterized at.
+	 */
+	final int scale;
+	private final JScreenGlyphRasterizer rasterizer;
+	private final int width;
+	private final int height;
+	// longs per row of a glyph
+	private final int words;
+
+	// glyphs, by high byte and then low byte of char
+	private final Glyph[][] pages = new Glyph[256][];
+
+	/**
+	 * A rasterized glyph.  Its fields are final, so it can be read by other threads without locking once it is in a page.
+	 */
+	private static final class Glyph {
+		// bitmap, or null if the glyph sets no pixels
+		final long[] bits;
+
+		Glyph(long[] bits) {
+			this.bits = bits;
+		}
+	}
+
+	/**
+	 * Create an empty set of glyph bitmaps.
+	 * @param scale Multiplier of base point size.
+	 * @param rasterizer Rasterizer of the font at that scale.  Anti-aliased glyphs are reduced to 1 bit.
+	 */
+	JScreenGlyphBits(int scale, JScreenGlyphRasterizer rasterizer) {
+		this.scale = scale;
+		this.rasterizer = rasterizer;
+		this.width = rasterizer.width;
+		this.height = rasterizer.height;
+		words = (width + 63) >>> 6;
+	}
+
+	/**
+	 * Draw a glyph and its background into a cell of an array of pixels.
+	 * @param pixels Pixels to draw into.
+	 * @param offset Index of the top left pixel of the cell.
+	 * @param scan Pixels per row of the array.
+	 * @param ch Character to draw.
+	 * @param fg Foreground RGB.
+	 * @param bg Background RGB.
+	 */
+	void drawGlyph(int[] pixels, int offset, int scan, char ch, int fg, int bg) {
+		long[] bits = getGlyph(ch).bits;
+		if (bits == null) {
+			fill(pixels, offset, scan, bg);
+			return;
+		}
+		// a set bit selects the bits which differ between FG and BG, without branching
+		int diff = fg ^ bg;
+		if (words == 1) {
+			for (int y=0; y<height; y++) {
+				long row = bits[y];
+				for (int x=0; x<width; x++) {
+					pixels[offset + x] = bg ^ (diff & -(int)((row >>> x) & 1));
+				}
+				offset += scan;
+			}
+			return;
+		}
+		int index = 0;
+		for (int y=0; y<height; y++) {
+			int p = offset;
+			for (int w=0; w<words; w++) {
+				long row = bits[index++];
+				int end = Math.min(64, width - (w << 6));
+				for (int x=0; x<end; x++) {
+					pixels[p++] = bg ^ (diff & -(int)((row >>> x) & 1));
+				}
+			}
+			offset += scan;
+		}
+	}
+
+	/**
+	 * Fill a cell of an array of pixels with one color.
+	 * @param pixels Pixels to fill.
+	 * @param offset Index of the top left pixel of the cell.
+	 * @param scan Pixels per row of the array.
+	 * @param rgb Color to fill with.
+	 */
+	void fill(int[] pixels, int offset, int scan, int rgb) {
+		for (int y=0; y<height; y++) {
+			Arrays.fill(pixels, offset, offset + width, rgb);
+			offset += scan;
+		}
+	}
+
+	/**
+	 * Fetch the glyph for a char, rasterizing it if necessary.
+	 * @param ch Character to find.
+	 * @return Glyph of the char.
+	 */
+	private Glyph getGlyph(char ch) {
+		Glyph[] page = pages[ch >>> 8];
+		if (page != null) {
+			Glyph glyph = page[ch & 0xff];
+			if (glyph != null) {
+				return glyph;
+			}
+		}
+		return addGlyph(ch);
+	}
+
+	/**
+	 * Rasterize a glyph and add it to its page, unless another thread already has.
+	 * @param ch Character to rasterize.
+	 * @return Glyph of the char.
+	 */
+	private synchronized Glyph addGlyph(char ch) {
+		Glyph[] page = pages[ch >>> 8];
+		if (page == null) {
+			page = new Glyph[256];
+			pages[ch >>> 8] = page;
+		}
+		Glyph glyph = page[ch & 0xff];
+		if (glyph == null) {
+			glyph = new Glyph(rasterize(ch));
+			page[ch & 0xff] = glyph;
+		}
+		return glyph;
+	}
+
+	/**
+	 * Rasterize a glyph, and reduce it to 1 bit.
+	 * @param ch Character to rasterize.
+	 * @return Bitmap of the glyph, or null if it sets no pixels.
+	 */
+	private long[] rasterize(char ch) {
+		byte[] coverage = rasterizer.rasterize(ch);
+		long[] bits = new long[height * words];
+		boolean blank = true;
+		for (int y=0; y<height; y++) {
+			for (int x=0; x<width; x++) {
+				if ((coverage[(y * width) + x] & 0xff) >= 0x80) {
+					bits[(y * words) + (x >>> 6)] |= 1L << (x & 63);
+					blank = false;
+				}
+			}
+		}
+		return blank ? null : bits;
+	}
+}
@@ -0,0 +1,89 @@
+package net.digger.ui.screen.font;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Rasterizes the glyphs of one font at one scale into 8-bit coverage masks, one character cell each.
+ * The glyph caches at a scale (JScreenGlyphAtlas and JScreenGlyphBits) share one rasterizer,
+ * so glyphs look the same whichever way they are drawn.
+ * @author walton
+ */
+class JScreenGlyphRasterizer {
+	/**
+	 * Pixel width of a glyph.
+	 */
+	final int width;
+	/**
+	 * Pixel height of a glyph.
+	 */
+	final int height;
+	private final Font font;
+	private final boolean antiAlias;
+	private final int yOffset;
+	// scratch image glyphs are drawn into
+	private final BufferedImage scratch;
+
+	/**
+	 * Create a rasterizer.
+	 * @param font Font at the scale to be rendered.
+	 * @param antiAlias Rasterize glyphs anti-aliased.
+	 * @param cellSize Pixel dimensions of character cell.
+	 * @param yOffset Offset between the bottom of the cell and the font baseline.
+	 */
+	JScreenGlyphRasterizer(Font font, boolean antiAlias, Dimension cellSize, int yOffset) {
+		this.font = font;
+		this.antiAlias = antiAlias;
+		this.width = cellSize.width;
+		this.height = cellSize.height;
+		this.yOffset = yOffset;
+		scratch = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+	}
+
+	/**
+	 * Rasterize a glyph.  Synchronized, as the glyph caches sharing the rasterizer may be filled on different threads.
+	 * @param ch Character to rasterize.
+	 * @return Coverage of each pixel of the cell, row by row, from 0 (none) to 0xff (full).
+	 */
+	synchronized byte[] rasterize(char ch) {
+		Graphics2D g = scratch.createGraphics();
+		try {
+			g.setColor(Color.BLACK);
+			g.fillRect(0, 0, width, height);
+			g.setColor(Color.WHITE);
+			g.setFont(font);
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					antiAlias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+					antiAlias ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+			// drawChars references the font baseline, see JScreenFont.getYOffset().
+			g.drawChars(new char[] {ch}, 0, 1, 0, height - yOffset);
+		} finally {
+			g.dispose();
+		}
+		return (byte[])scratch.getRaster().getDataElements(0, 0, width, height, null);
+	}
+}
@@ -0,0 +1,314 @@
+package net.digger.ui.screen.io;
+
+import java.awt.Component;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Bounded lock-free queue of key events, for any number of producers and a single consumer.
+ * Events are stored encoded in primitive arrays rather than as KeyEvent objects, and a KeyEvent
+ * is only created when one is taken.
+ * Each slot has a sequence number which says whether it is free for the producer claiming that
+ * position, or filled for the consumer reading it (see Dmitry Vyukov's bounded MPMC queue).
+ * A slot can also hold a segment of text (a CharSequence or a Reader), which the consumer drains
+ * one char at a time as KEY_TYPED events, so pasting doesn't queue an event per char.
+ * <p>
+ * clear() may be called from any thread.  It only marks how far the queue is to be cleared,
+ * and the consumer discards those events the next time it takes one, so only the consumer
+ * ever frees slots or closes Readers.
+ * @author walton
+ */
+class JScreenKeyQueue {
+	// kind flag for a slot holding a text segment
+	private static final int TEXT = 0x20;
+	// chars read from a Reader segment at a time
+	private static final int CHUNK_SIZE = 4096;
+
+	private final int mask;
+	// sequence of each slot: position when free, position + 1 when filled
+	private final AtomicLongArray sequences;
+	// key char (bits 0-15), extended modifiers (bits 16-31) and key code (bits 32-63) of each slot
+	private final long[] codes;
+	// event ID (offset from KEY_FIRST, bits 0-1) and key location (bits 2-4) of each slot, or TEXT
+	private final int[] kinds;
+	private final long[] whens;
+	// CharSequence or Reader of each text slot
+	private final Object[] texts;
+	// next position to fill
+	private final AtomicLong tail = new AtomicLong(0);
+	// next position to take; only changed by the consumer
+	private volatile long head = 0;
+	// position before which everything is to be discarded by the consumer, set by clear()
+	private final AtomicLong clearTo = new AtomicLong(0);
+	// consumer's position in the text segment at head
+	private int textPos = 0;
+	// chars read from the Reader segment at head, from textPos to chunkLength
+	private char[] chunk = null;
+	private int chunkLength = 0;
+
+	/**
+	 * Create an empty queue.
+	 * @param capacity Maximum number of events held; rounded up to a power of 2.
+	 */
+	JScreenKeyQueue(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		sequences = new AtomicLongArray(size);
+		for (int i=0; i<size; i++) {
+			sequences.set(i, i);
+		}
+		codes = new long[size];
+		kinds = new int[size];
+		whens = new long[size];
+		texts = new Object[size];
+	}
+
+	/**
+	 * Add an event.  May be called from any thread.
+	 * @param event Event to add.
+	 * @return False if the queue is full, so the event was dropped.
+	 */
+	boolean offer(KeyEvent event) {
+		long code = (event.getKeyChar() & 0xFFFFL)
+				| ((event.getModifiersEx() & 0xFFFFL) << 16)
+				| ((event.getKeyCode() & 0xFFFFFFFFL) << 32);
+		int kind = ((event.getID() - KeyEvent.KEY_FIRST) & 0x3) | ((event.getKeyLocation() & 0x7) << 2);
+		return offer(code, kind, event.getWhen(), null);
+	}
+
+	/**
+	 * Add a segment of text, to be taken as KEY_TYPED events.  May be called from any thread.
+	 * The text takes one slot, however long it is.
+	 * @param text CharSequence or Reader holding the text.  A CharSequence must not be changed
+	 * until it has been taken, and a Reader is closed once it has been read to the end.
+	 * @param when Timestamp to give the events.
+	 * @return False if the queue is full, so the text was dropped.
+	 */
+	boolean offerText(Object text, long when) {
+		return offer(0, TEXT, when, text);
+	}
+
+	/**
+	 * Fill the next free slot.
+	 * @param code Encoded key char, modifiers and key code.
+	 * @param kind Encoded event ID and key location, or TEXT.
+	 * @param when Timestamp of event.
+	 * @param text Text of a TEXT slot, otherwise null.
+	 * @return False if the queue is full.
+	 */
+	private boolean offer(long code, int kind, long when, Object text) {
+		while (true) {
+			long pos = tail.get();
+			int index = (int)(pos & mask);
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					codes[index] = code;
+					kinds[index] = kind;
+					whens[index] = when;
+					texts[index] = text;
+					// publishes the slot contents to the consumer
+					sequences.lazySet(index, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				// the consumer hasn't freed this slot yet
+				return false;
+			}
+			// another producer claimed this position, try the next
+		}
+	}
+
+	/**
+	 * Is there an event ready to be taken?
+	 * This can be true for a Reader segment which turns out to have no more text.
+	 * @return True if poll() would usually return an event.
+	 */
+	boolean isReady() {
+		// anything before clearTo will be discarded rather than taken
+		long pos = Math.max(head, clearTo.get());
+		return sequences.get((int)(pos & mask)) == (pos + 1);
+	}
+
+	/**
+	 * Take the next event.  Must only be called by one thread at a time.
+	 * @param source Component to give as the event source.
+	 * @return Next event, or null if there is none ready.
+	 */
+	KeyEvent poll(Component source) {
+		discardCleared();
+		while (true) {
+			long pos = head;
+			int index = (int)(pos & mask);
+			if (sequences.get(index) != (pos + 1)) {
+				return null;
+			}
+			int kind = kinds[index];
+			long when = whens[index];
+			if (kind == TEXT) {
+				int ch = nextTextChar(pos, index);
+				if (ch < 0) {
+					// segment finished, try the next slot
+					continue;
+				}
+				int modifiers = Character.isUpperCase(ch) ? KeyEvent.SHIFT_DOWN_MASK : 0;
+				return new KeyEvent(source, KeyEvent.KEY_TYPED, when, modifiers, KeyEvent.VK_UNDEFINED, (char)ch);
+			}
+			long code = codes[index];
+			free(pos, index);
+			return new KeyEvent(source, KeyEvent.KEY_FIRST + (kind & 0x3), when, (int)((code >>> 16) & 0xFFFF),
+					(int)(code >>> 32), (char)(code & 0xFFFF), (kind >>> 2) & 0x7);
+		}
+	}
+
+	/**
+	 * Take the next char of text, if the next thing ready is a text segment.
+	 * This lets text be read without creating a KeyEvent for each char.
+	 * Must only be called by one thread at a time.
+	 * @return Next char, or -1 if the next thing ready isn't text, or there is nothing ready.
+	 */
+	int pollChar() {
+		discardCleared();
+		while (true) {
+			long pos = head;
+			int index = (int)(pos & mask);
+			if ((sequences.get(index) != (pos + 1)) || (kinds[index] != TEXT)) {
+				return -1;
+			}
+			int ch = nextTextChar(pos, index);
+			if (ch >= 0) {
+				return ch;
+			}
+		}
+	}
+
+	/**
+	 * Take the next char of the text segment at head.  When the segment is finished, its slot is freed.
+	 * @param pos Position of head.
+	 * @param index Slot of head.
+	 * @return Next char, or -1 if the segment is finished.
+	 */
+	private int nextTextChar(long pos, int index) {
+		Object text = texts[index];
+		if (text instanceof CharSequence) {
+			CharSequence chars = (CharSequence)text;
+			if (textPos < chars.length()) {
+				return chars.charAt(textPos++);
+			}
+		} else {
+			if ((textPos >= chunkLength) && fillChunk((Reader)text)) {
+				textPos = 0;
+			}
+			if (textPos < chunkLength) {
+				return chunk[textPos++];
+			}
+			close((Reader)text);
+		}
+		free(pos, index);
+		return -1;
+	}
+
+	/**
+	 * Read the next chunk of a Reader segment.
+	 * An exception reading is treated as the end of the text.
+	 * @param reader Reader to read from.
+	 * @return True if any chars were read.
+	 */
+	private boolean fillChunk(Reader reader) {
+		if (chunk == null) {
+			chunk = new char[CHUNK_SIZE];
+		}
+		try {
+			int count = reader.read(chunk, 0, chunk.length);
+			chunkLength = Math.max(count, 0);
+		} catch (IOException e) {
+			chunkLength = 0;
+		}
+		return chunkLength > 0;
+	}
+
+	/**
+	 * Close a Reader segment, ignoring any exception.
+	 * @param reader Reader to close.
+	 */
+	private void close(Reader reader) {
+		try {
+			reader.close();
+		} catch (IOException e) {
+			// nothing more to read from it anyway
+		}
+	}
+
+	/**
+	 * Free the slot at head, and move head to the next.
+	 * @param pos Position of head.
+	 * @param index Slot of head.
+	 */
+	private void free(long pos, int index) {
+		texts[index] = null;
+		textPos = 0;
+		chunkLength = 0;
+		// frees the slot for the producer which will reach it next time around
+		sequences.lazySet(index, pos + mask + 1);
+		head = pos + 1;
+	}
+
+	/**
+	 * Discard every event added so far.  May be called from any thread.
+	 * The events are discarded by the consumer, before it next takes one.
+	 */
+	void clear() {
+		long pos = tail.get();
+		clearTo.accumulateAndGet(pos, Math::max);
+	}
+
+	/**
+	 * Discard the events before the position marked by clear().  Called by the consumer.
+	 * A slot which is still being filled is discarded once it has been filled.
+	 */
+	private void discardCleared() {
+		long to = clearTo.get();
+		while (true) {
+			long pos = head;
+			if (pos >= to) {
+				return;
+			}
+			int index = (int)(pos & mask);
+			if (sequences.get(index) != (pos + 1)) {
+				return;
+			}
+			if (texts[index] instanceof Reader) {
+				close((Reader)texts[index]);
+			}
+			free(pos, index);
+		}
+	}
+}
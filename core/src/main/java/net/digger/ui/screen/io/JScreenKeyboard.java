@@ -9,9 +9,13 @@ import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.io.Reader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -43,17 +47,35 @@ import net.digger.ui.screen.JScreen;
 public class JScreenKeyboard {
 	// When true, dumps KeyEvent details to assist in troubleshooting.
 	private static boolean KEY_DEBUG = false;
+	// source of generated key events when the screen has no component
+	private static final Component HEADLESS_SOURCE = new Component() {
+		private static final long serialVersionUID = 1L;
+	};
 
 	private final JScreen screen;
-	private boolean keyBufferEnabled = false;
-	private ArrayDeque<KeyEvent> keyBuffer = new ArrayDeque<>();
+	// Maximum number of events in the key buffer.  Any more are dropped until some are read.
+	private static final int KEY_BUFFER_CAPACITY = 1024;
+
+	private volatile boolean keyBufferEnabled = false;
+	private final JScreenKeyQueue keyBuffer = new JScreenKeyQueue(KEY_BUFFER_CAPACITY);
+	// event taken from the buffer for a cancelled future, to be read next
+	private volatile KeyEvent unread = null;
+	// thread waiting in awaitKeyEvent() or pollKeyEvent()
+	private volatile Thread waiter = null;
+	// future waiting in nextKeyEvent()
+	private final AtomicReference<CompletableFuture<KeyEvent>> pending = new AtomicReference<>();
+	// set when the screen is closed, after which no more key events arrive
+	private volatile boolean closed = false;
+	private final KeyListener listener;
+	private final JScreenLineEditor lineEditor;
 
 	/**
-	 * Constructor.  Sets up the key event buffer, and adds a KeyListener to the underlying component.
+	 * Constructor.  Sets up the key event buffer, and adds a KeyListener to the underlying component, if there is one.
 	 * @param screen Screen to listen for key events from.
 	 */
 	public JScreenKeyboard(JScreen screen) {
 		this.screen = screen;
+		lineEditor = new JScreenLineEditor(screen, this);
 		
 		/**
 		 * Key listener.
@@ -63,7 +85,7 @@ public class JScreenKeyboard {
 		 * and then if the events actually occur (such as on Linux) will suppress the duplicate
 		 * real event.
 		 */
-		KeyListener listener = new KeyListener() {
+		listener = new KeyListener() {
 			/**
 			 * Map of KEY_PRESSED key code to KEY_TYPED key character to fake.
 			 */
@@ -191,7 +213,19 @@ public class JScreenKeyboard {
 				}
 			}
 		};
-		screen.getComponent().addKeyListener(listener);
+		Component component = screen.getComponent();
+		if (component != null) {
+			attach(component);
+		}
+	}
+	
+	/**
+	 * Listen for key events from the given component.
+	 * Used when a view is attached to the screen.
+	 * @param component Component to listen to.
+	 */
+	public void attach(Component component) {
+		component.addKeyListener(listener);
 	}
 
 	// ##### Key buffer methods #####
@@ -217,80 +251,293 @@ public class JScreenKeyboard {
 	}
 	
 	/**
-	 * Discard any key events in the buffer.
+	 * Discard any key events in the buffer.  May be called from any thread: the events are
+	 * discarded by the thread reading them, before it next reads one.
 	 */
 	public void clearKeyBuffer() {
+		unread = null;
 		keyBuffer.clear();
 	}
 	
+	/**
+	 * Called when the screen is closed.  Discards any key events, and stops accepting more.
+	 * Anything waiting for a key event is released: awaitKeyEvent(), pollKeyEvent() and readLine()
+	 * throw IllegalStateException, and a future from nextKeyEvent() completes exceptionally with it.
+	 */
+	public void close() {
+		closed = true;
+		clearKeyBuffer();
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+		CompletableFuture<KeyEvent> future = pending.getAndSet(null);
+		if (future != null) {
+			future.completeExceptionally(closedException());
+		}
+	}
+
+	/**
+	 * Check whether the screen has been closed, so no more key events will arrive.
+	 * @return True if closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return Exception for waiting on a closed keyboard.
+	 */
+	private static IllegalStateException closedException() {
+		return new IllegalStateException("Screen is closed.");
+	}
+
 	/**
 	 * Check whether there are any key events waiting in the buffer.
 	 * @return True if an event is in the buffer.
 	 */
 	public boolean isKeyEvent() {
-		return !keyBuffer.isEmpty();
+		return (unread != null) || keyBuffer.isReady();
 	}
 	
 	/**
 	 * Returns the first waiting key event, or null if the buffer is empty.
+	 * Key events may be added from any thread, but should only be read by one thread at a time.
 	 * @return First event from buffer.
 	 */
 	public KeyEvent getKeyEvent() {
-		return keyBuffer.poll();
+		KeyEvent event = unread;
+		if (event != null) {
+			unread = null;
+			return event;
+		}
+		return keyBuffer.poll(getEventSource());
 	}
 	
 	/**
 	 * Returns the first waiting key event, or waits for an event if the buffer is empty.
 	 * @return First event from buffer.
 	 * @throws RuntimeException If called when the key buffer is not enabled (or else it'll block forever).
+	 * @throws IllegalStateException If the screen is closed, or is closed while waiting.
 	 * @throws InterruptedException If wait is interrupted.
 	 */
 	public KeyEvent awaitKeyEvent() throws InterruptedException {
 		if (!keyBufferEnabled) {
 			throw new RuntimeException("Key buffer is not enabled.");
 		}
-		synchronized(keyBuffer) {
-			while (keyBuffer.isEmpty()) {
-				keyBuffer.wait();
+		return awaitKeyEvent(false, 0);
+	}
+	
+	/**
+	 * Returns the first waiting key event, or waits up to the given time for an event if the buffer is empty.
+	 * @param timeout Maximum time to wait.
+	 * @param unit Unit of timeout.
+	 * @return First event from buffer, or null if none arrived in time.
+	 * @throws IllegalStateException If the screen is closed, or is closed while waiting.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public KeyEvent pollKeyEvent(long timeout, TimeUnit unit) throws InterruptedException {
+		return awaitKeyEvent(true, unit.toNanos(timeout));
+	}
+	
+	/**
+	 * Wait for a key event.
+	 * @param timed If true, give up after the timeout.
+	 * @param timeout Maximum time to wait (in nanos).
+	 * @return First event from buffer, or null if timed out.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	private KeyEvent awaitKeyEvent(boolean timed, long timeout) throws InterruptedException {
+		KeyEvent event = getKeyEvent();
+		if (event != null) {
+			return event;
+		}
+		long deadline = System.nanoTime() + timeout;
+		// register before checking again, so an event added in between will unpark this thread
+		waiter = Thread.currentThread();
+		try {
+			while ((event = getKeyEvent()) == null) {
+				if (closed) {
+					// nothing more will arrive
+					throw closedException();
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				if (timed) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return null;
+					}
+					LockSupport.parkNanos(this, remaining);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+			return event;
+		} finally {
+			waiter = null;
+		}
+	}
+	
+	/**
+	 * Returns a future which completes with the next key event, so input can be handled without a blocked thread.
+	 * If an event is waiting in the buffer, the future is already complete.  Otherwise it is completed
+	 * by the thread which adds the next event, so dependent actions should be quick or run asynchronously.
+	 * Calling this again before the future completes returns the same future.
+	 * If the screen is closed, the future completes exceptionally with IllegalStateException.
+	 * @return Future for the next key event.
+	 * @throws RuntimeException If called when the key buffer is not enabled (or else it'll never complete).
+	 */
+	public CompletableFuture<KeyEvent> nextKeyEvent() {
+		if (!keyBufferEnabled) {
+			throw new RuntimeException("Key buffer is not enabled.");
+		}
+		CompletableFuture<KeyEvent> waiting = pending.get();
+		if (waiting != null) {
+			return waiting;
+		}
+		CompletableFuture<KeyEvent> future = new CompletableFuture<>();
+		KeyEvent event = getKeyEvent();
+		if (event != null) {
+			future.complete(event);
+			return future;
+		}
+		if (closed) {
+			future.completeExceptionally(closedException());
+			return future;
+		}
+		if (!pending.compareAndSet(null, future)) {
+			return pending.get();
+		}
+		// the screen may have been closed before the future was registered
+		if (closed && pending.compareAndSet(future, null)) {
+			future.completeExceptionally(closedException());
+			return future;
+		}
+		// an event may have been added before the future was registered
+		if (isKeyEvent() && pending.compareAndSet(future, null)) {
+			completeFuture(future);
+		}
+		return future;
+	}
+	
+	/**
+	 * Complete a future taken from pending with the next key event.
+	 * If no event is ready yet, the future is put back to be completed when one is added.
+	 * @param future Future to complete.
+	 */
+	private void completeFuture(CompletableFuture<KeyEvent> future) {
+		while (true) {
+			KeyEvent event = getKeyEvent();
+			if (event != null) {
+				if (!future.complete(event)) {
+					// cancelled, so keep the event for the next reader
+					unread = event;
+				}
+				return;
+			}
+			// another thread is still adding an earlier event, and will find the future when it is done
+			if (!pending.compareAndSet(null, future) || !isKeyEvent() || !pending.compareAndSet(future, null)) {
+				return;
 			}
-			return keyBuffer.remove();
 		}
 	}
 	
 	/**
 	 * Add a KeyEvent to the key buffer.
+	 * If the buffer is full, the event is dropped.
 	 * @param event Event to add to buffer.
 	 */
 	public void addKeyEvent(KeyEvent event) {
-		if (!keyBufferEnabled) {
+		if (!keyBufferEnabled || closed) {
 			return;
 		}
-		synchronized(keyBuffer) {
-			keyBuffer.add(event);
-			if (KEY_DEBUG) {
-				dumpKey(keyBuffer.peekLast());
-			}
-			keyBuffer.notify();
+		if (!keyBuffer.offer(event)) {
+			return;
+		}
+		if (KEY_DEBUG) {
+			dumpKey(event);
 		}
+		signalKeyEvent();
+	}
+	
+	/**
+	 * Wake whoever is waiting for a key event.
+	 */
+	private void signalKeyEvent() {
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+		CompletableFuture<KeyEvent> future = pending.getAndSet(null);
+		if (future != null) {
+			completeFuture(future);
+		}
+	}
+	
+	/**
+	 * Returns the next char of text added with addText() or addKeyEvents(), without creating a KeyEvent for it.
+	 * @return Next char, or -1 if the next key event isn't from text, or there is none waiting.
+	 */
+	int getTextChar() {
+		return (unread != null) ? -1 : keyBuffer.pollChar();
+	}
+	
+	/**
+	 * Returns the component to give as the source of key events.
+	 * @return Screen's component, or a placeholder if the screen is headless.
+	 */
+	private Component getEventSource() {
+		Component source = screen.getComponent();
+		return (source == null) ? HEADLESS_SOURCE : source;
 	}
 
 	/**
 	 * Add KeyEvents replicating the given string to the key buffer.
 	 * This can be used for pasting text, and it will be handled as though it was typed.
+	 * Same as addText(text).
 	 * @param text Text to add to buffer as key events.
 	 */
 	public void addKeyEvents(String text) {
-		if (!keyBufferEnabled || (text == null)) {
+		addText(text);
+	}
+	
+	/**
+	 * Add text to the key buffer, to be read as KEY_TYPED events as though it was typed.
+	 * The text is queued as a single entry, however long it is, and events are only created
+	 * as it is read.  If the buffer is full, the text is dropped.
+	 * @param text Text to add to buffer.  Must not be changed until it has been read.
+	 */
+	public void addText(CharSequence text) {
+		if (!keyBufferEnabled || closed || (text == null) || (text.length() == 0)) {
 			return;
 		}
-		for (int i=0; i<text.length(); i++) {
-			int modifiers = 0;
-			char ch = text.charAt(i);
-			if (Character.isUpperCase(ch)) {
-				modifiers |= KeyEvent.SHIFT_DOWN_MASK;
-			}
-			KeyEvent event = new KeyEvent(screen.getComponent(), KeyEvent.KEY_TYPED, System.currentTimeMillis(), modifiers, KeyEvent.VK_UNDEFINED, ch);
-			addKeyEvent(event);
+		if (keyBuffer.offerText(text, System.currentTimeMillis())) {
+			signalKeyEvent();
+		}
+	}
+	
+	/**
+	 * Add text from a Reader to the key buffer, to be read as KEY_TYPED events as though it was typed.
+	 * The reader is read a chunk at a time as the events are read, so large amounts of text can be
+	 * streamed in without holding them all in memory.  Reads happen on the thread reading events, so
+	 * the reader shouldn't block for long.  It is closed when it reaches the end, has an error, or
+	 * the key buffer is cleared.  If the buffer is full, the reader is closed and nothing is added.
+	 * @param reader Reader of text to add to buffer.
+	 */
+	public void addText(Reader reader) {
+		if (reader == null) {
+			return;
+		}
+		if (keyBufferEnabled && !closed && keyBuffer.offerText(reader, System.currentTimeMillis())) {
+			signalKeyEvent();
+			return;
+		}
+		try {
+			reader.close();
+		} catch (IOException e) {
+			// it wasn't going to be read anyway
 		}
 	}
 	
@@ -305,7 +552,7 @@ public class JScreenKeyboard {
 			if ((contents != null) && (contents.isDataFlavorSupported(DataFlavor.stringFlavor))) {
 				text = (String)contents.getTransferData(DataFlavor.stringFlavor);
 			}
-			addKeyEvents(text);
+			addText(text);
 		} catch (IllegalStateException | UnsupportedFlavorException | IOException ex) {
 			// If something goes wrong, just don't paste.
 		}
@@ -324,44 +571,22 @@ public class JScreenKeyboard {
 	
 	/**
 	 * Inputs a line with the given max length at the current cursor position.
+	 * The line can be edited, and previous lines recalled (see JScreenLineEditor).
 	 * @param maxLength Maximum length of string to read.
 	 * @return Input string, when the user presses CR.
+	 * @throws IllegalStateException If the screen is closed while waiting.
 	 * @throws InterruptedException If wait is interrupted.
 	 */
 	public String readLine(int maxLength) throws InterruptedException {
-		String input = "";
-		char ch = 0;
-		do {
-			KeyEvent event = awaitKeyEvent();
-			if (event.getID() != KeyEvent.KEY_TYPED) {
-				continue;
-			}
-			ch = event.getKeyChar();
-			switch (ch) {
-				case 8:		// BS
-					if (input.length() > 0) {
-						input = input.substring(0, input.length() - 1);
-						screen.print(ch);
-					}
-					break;
-				case 10:	// CR
-					screen.println();
-					break;
-				case 27:	// ESC
-					while (input.length() > 0) {
-						input = input.substring(0, input.length() - 1);
-						screen.print((char)8);
-					}
-					break;
-				default:
-					if (input.length() < maxLength) {
-						input += ch;
-						screen.print(ch);
-					}
-					break;
-			}
-		} while (ch != 10);
-		return input;
+		return lineEditor.readLine(maxLength);
+	}
+	
+	/**
+	 * Returns the line editor used by readLine(), to configure its history.
+	 * @return Line editor.
+	 */
+	public JScreenLineEditor getLineEditor() {
+		return lineEditor;
 	}
 	
 	/**
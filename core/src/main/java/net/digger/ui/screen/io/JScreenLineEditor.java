@@ -0,0 +1,402 @@
+package net.digger.ui.screen.io;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.KeyEvent;
+
+import net.digger.ui.screen.JScreen;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Implements line input, with editing and history.
+ * The line is edited in a reusable char buffer, and only the cells which changed are redrawn.
+ * Pasted text is inserted a segment at a time, and drawn once the segment has been read.
+ * <p>
+ * Keys:
+ * <ul>
+ * <li>Left/Right: move the cursor.</li>
+ * <li>Home/End: move the cursor to the start/end of the line.</li>
+ * <li>Backspace/Delete: delete the char before/at the cursor.</li>
+ * <li>Up/Down: recall older/newer lines from the history.</li>
+ * <li>Esc: clear the line.</li>
+ * <li>Enter: finish the line.</li>
+ * </ul>
+ * Only one thread should read lines at a time.
+ * @author walton
+ */
+public class JScreenLineEditor {
+	/**
+	 * Default number of lines kept in the history.
+	 */
+	public static final int DEFAULT_HISTORY_SIZE = 20;
+	// initial size of line buffer
+	private static final int INITIAL_CAPACITY = 80;
+
+	private final JScreen screen;
+	private final JScreenKeyboard keyboard;
+	// line being edited, from 0 to length
+	private char[] buffer = new char[INITIAL_CAPACITY];
+	private int length = 0;
+	// position of cursor in line
+	private int position = 0;
+	// window-relative position of the start of the line on screen
+	private int originX;
+	private int originY;
+	// first position in line not yet drawn, and length of line when last drawn
+	private int dirtyFrom;
+	private int shownLength;
+	// ring of previous lines, most recent at historyNext - 1
+	private String[] history;
+	private int historyCount = 0;
+	private int historyNext = 0;
+	// how far back in history the line is from (0 is the line being typed)
+	private int historyIndex;
+	// line being typed, saved while looking at history
+	private String draft;
+
+	/**
+	 * Create a line editor with the default history size.
+	 * @param screen Screen to echo input to.
+	 * @param keyboard Keyboard to read input from.
+	 */
+	public JScreenLineEditor(JScreen screen, JScreenKeyboard keyboard) {
+		this(screen, keyboard, DEFAULT_HISTORY_SIZE);
+	}
+
+	/**
+	 * Create a line editor.
+	 * @param screen Screen to echo input to.
+	 * @param keyboard Keyboard to read input from.
+	 * @param historySize Number of lines to keep in the history.  0 for no history.
+	 */
+	public JScreenLineEditor(JScreen screen, JScreenKeyboard keyboard, int historySize) {
+		if (historySize < 0) {
+			throw new IllegalArgumentException("History size must not be negative.");
+		}
+		this.screen = screen;
+		this.keyboard = keyboard;
+		history = new String[historySize];
+	}
+
+	// ##### History methods #####
+
+	/**
+	 * @return Number of lines kept in the history.
+	 */
+	public int getHistorySize() {
+		return history.length;
+	}
+
+	/**
+	 * Set the number of lines kept in the history.
+	 * If it is reduced, the oldest lines are discarded.
+	 * @param historySize Number of lines to keep.  0 for no history.
+	 */
+	public void setHistorySize(int historySize) {
+		if (historySize < 0) {
+			throw new IllegalArgumentException("History size must not be negative.");
+		}
+		String[] newHistory = new String[historySize];
+		int count = Math.min(historyCount, historySize);
+		for (int i=0; i<count; i++) {
+			newHistory[count - 1 - i] = getHistory(i + 1);
+		}
+		history = newHistory;
+		historyCount = count;
+		historyNext = (historySize == 0) ? 0 : (count % historySize);
+	}
+
+	/**
+	 * Discard all lines in the history.
+	 */
+	public void clearHistory() {
+		for (int i=0; i<history.length; i++) {
+			history[i] = null;
+		}
+		historyCount = 0;
+		historyNext = 0;
+	}
+
+	/**
+	 * Add a line to the history, unless it is empty or the same as the most recent line.
+	 * @param line Line to add.
+	 */
+	public void addHistory(String line) {
+		if ((history.length == 0) || (line == null) || line.isEmpty()) {
+			return;
+		}
+		if ((historyCount > 0) && line.equals(getHistory(1))) {
+			return;
+		}
+		history[historyNext] = line;
+		historyNext = (historyNext + 1) % history.length;
+		historyCount = Math.min(historyCount + 1, history.length);
+	}
+
+	/**
+	 * Get a line from the history.
+	 * @param back How far back the line is, from 1 (most recent) to historyCount.
+	 * @return Line from history.
+	 */
+	private String getHistory(int back) {
+		return history[(historyNext - back + history.length) % history.length];
+	}
+
+	// ##### Line input methods #####
+
+	/**
+	 * Inputs a line with the given max length at the current cursor position.
+	 * The key buffer must be enabled.
+	 * @param maxLength Maximum length of string to read.
+	 * @return Input string, when the user presses CR.
+	 * @throws IllegalStateException If the screen is closed while waiting.
+	 * @throws InterruptedException If wait is interrupted.
+	 */
+	public String readLine(int maxLength) throws InterruptedException {
+		Point origin = screen.getCursor();
+		originX = origin.x;
+		originY = origin.y;
+		length = 0;
+		position = 0;
+		dirtyFrom = Integer.MAX_VALUE;
+		shownLength = 0;
+		historyIndex = 0;
+		draft = null;
+		while (true) {
+			int ch = keyboard.getTextChar();
+			if (ch < 0) {
+				// nothing more pasted for now, so show what has changed before waiting
+				update();
+				KeyEvent event = keyboard.awaitKeyEvent();
+				if (event.getID() == KeyEvent.KEY_PRESSED) {
+					keyPressed(event.getKeyCode(), maxLength);
+					continue;
+				}
+				if (event.getID() != KeyEvent.KEY_TYPED) {
+					continue;
+				}
+				ch = event.getKeyChar();
+			}
+			if (ch == 10) {		// CR
+				position = length;
+				update();
+				screen.println();
+				break;
+			}
+			keyTyped((char)ch, maxLength);
+		}
+		String line = new String(buffer, 0, length);
+		addHistory(line);
+		draft = null;
+		return line;
+	}
+
+	/**
+	 * Handle a typed char.
+	 * @param ch Character typed.
+	 * @param maxLength Maximum length of line.
+	 */
+	private void keyTyped(char ch, int maxLength) {
+		switch (ch) {
+			case 8:		// BS
+				if (position > 0) {
+					position--;
+					delete(position, 1);
+				}
+				break;
+			case 27:	// ESC
+				delete(0, length);
+				position = 0;
+				break;
+			case 127:	// DEL
+				if (position < length) {
+					delete(position, 1);
+				}
+				break;
+			default:
+				if (!Character.isISOControl(ch) && (length < maxLength)) {
+					insert(ch);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Handle a pressed action key.
+	 * @param keyCode Key code of key pressed.
+	 * @param maxLength Maximum length of line.
+	 */
+	private void keyPressed(int keyCode, int maxLength) {
+		switch (keyCode) {
+			case KeyEvent.VK_LEFT:
+			case KeyEvent.VK_KP_LEFT:
+				if (position > 0) {
+					position--;
+				}
+				break;
+			case KeyEvent.VK_RIGHT:
+			case KeyEvent.VK_KP_RIGHT:
+				if (position < length) {
+					position++;
+				}
+				break;
+			case KeyEvent.VK_HOME:
+				position = 0;
+				break;
+			case KeyEvent.VK_END:
+				position = length;
+				break;
+			case KeyEvent.VK_UP:
+			case KeyEvent.VK_KP_UP:
+				if (historyIndex < historyCount) {
+					if (historyIndex == 0) {
+						draft = new String(buffer, 0, length);
+					}
+					historyIndex++;
+					replace(getHistory(historyIndex), maxLength);
+				}
+				break;
+			case KeyEvent.VK_DOWN:
+			case KeyEvent.VK_KP_DOWN:
+				if (historyIndex > 0) {
+					historyIndex--;
+					replace((historyIndex == 0) ? draft : getHistory(historyIndex), maxLength);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	// ##### Buffer methods #####
+
+	/**
+	 * Insert a char at the cursor, and move the cursor past it.
+	 * @param ch Character to insert.
+	 */
+	private void insert(char ch) {
+		if (length == buffer.length) {
+			char[] newBuffer = new char[buffer.length * 2];
+			System.arraycopy(buffer, 0, newBuffer, 0, length);
+			buffer = newBuffer;
+		}
+		System.arraycopy(buffer, position, buffer, position + 1, length - position);
+		buffer[position] = ch;
+		length++;
+		dirtyFrom = Math.min(dirtyFrom, position);
+		position++;
+	}
+
+	/**
+	 * Delete chars from the line.
+	 * @param start Position of first char to delete.
+	 * @param count Number of chars to delete.
+	 */
+	private void delete(int start, int count) {
+		if (count < 1) {
+			return;
+		}
+		System.arraycopy(buffer, start + count, buffer, start, length - start - count);
+		length -= count;
+		dirtyFrom = Math.min(dirtyFrom, start);
+	}
+
+	/**
+	 * Replace the whole line, and move the cursor to the end.
+	 * Only the part after what the old and new lines have in common needs redrawing.
+	 * @param line New line.
+	 * @param maxLength Maximum length of line; a longer line is truncated, as it may have been
+	 * entered at a prompt which allowed more.
+	 */
+	private void replace(String line, int maxLength) {
+		int newLength = Math.min(line.length(), maxLength);
+		if (newLength > buffer.length) {
+			char[] newBuffer = new char[Math.max(newLength, buffer.length * 2)];
+			System.arraycopy(buffer, 0, newBuffer, 0, length);
+			buffer = newBuffer;
+		}
+		int same = 0;
+		while ((same < length) && (same < newLength) && (buffer[same] == line.charAt(same))) {
+			same++;
+		}
+		line.getChars(same, newLength, buffer, same);
+		length = newLength;
+		if (same < Math.max(length, shownLength)) {
+			dirtyFrom = Math.min(dirtyFrom, same);
+		}
+		position = length;
+	}
+
+	// ##### Display methods #####
+
+	/**
+	 * Redraw the part of the line which changed since it was last drawn, and place the cursor.
+	 * The line wraps at the right edge of the current text window, which scrolls if needed.
+	 */
+	private void update() {
+		screen.beginUpdate();
+		try {
+			Rectangle window = screen.getWindow();
+			int width = window.width;
+			int height = window.height;
+			if (dirtyFrom < length) {
+				// lines scrolled off the top of the window can't be redrawn
+				int start = Math.max(dirtyFrom, (-originY * width) - originX);
+				if (start < length) {
+					screen.setCursor(columnOf(start, width), rowOf(start, width));
+					screen.putStr(buffer, start, length - start);
+					// putStr() scrolls the window if the line runs off the bottom
+					originY -= rowOf(length, width) - screen.getCursor().y;
+				}
+			}
+			for (int i=Math.max(length, dirtyFrom); i<shownLength; i++) {
+				int row = rowOf(i, width);
+				if ((row >= 0) && (row < height)) {
+					screen.putChar(columnOf(i, width), row, ' ');
+				}
+			}
+			dirtyFrom = Integer.MAX_VALUE;
+			shownLength = length;
+			int row = Math.max(0, Math.min(height - 1, rowOf(position, width)));
+			screen.setCursor(columnOf(position, width), row);
+		} finally {
+			screen.endUpdate();
+		}
+	}
+
+	/**
+	 * @param index Position in line.
+	 * @param width Width of window.
+	 * @return Window-relative column the given position is displayed in.
+	 */
+	private int columnOf(int index, int width) {
+		return (originX + index) % width;
+	}
+
+	/**
+	 * @param index Position in line.
+	 * @param width Width of window.
+	 * @return Window-relative row the given position is displayed in.
+	 */
+	private int rowOf(int index, int width) {
+		return originY + ((originX + index) / width);
+	}
+}
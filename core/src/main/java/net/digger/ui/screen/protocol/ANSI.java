@@ -5,14 +5,12 @@ import java.awt.Rectangle;
 import java.util.List;
 import java.util.function.Consumer;
 
-import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import net.digger.ui.screen.JScreen;
 import net.digger.ui.screen.color.Attr;
 import net.digger.util.vt.Action;
 import net.digger.util.vt.VTEmulator;
-import net.digger.util.vt.VTParser;
 
 /**
  * Copyright © 2017,2018  David Walton
@@ -40,20 +38,54 @@ import net.digger.util.vt.VTParser;
  * https://vt100.net/docs/
  * https://vt100.net/emu/dec_ansi_parser
  * 
+ * Text is parsed by ANSIParser, and sequences are looked up by final character in tables of handlers.
+ * The VTEmulator methods are kept so this can still be driven by a VTParser.
+ * 
  * @author walton
  */
 public class ANSI extends PlainText implements VTEmulator {
 	// The escape character
 	private static final char ESCAPE = 0x1B;
-	// Implemented ANSI escape sequence letters
-	private enum EscapeSequence { D, E, M };
 	private static final String CSI = ESCAPE + "[";
-	// Implemented ANSI control sequence letters
-	private enum ControlSequence { A, B, C, D, f, H, J, K, M, m, n, r, s, u }
-	// not in ANSI.SYS:  E, F, G, S, T
-	// not implemented:  i, l, h
+	// Implemented ANSI escape sequences and control sequences, indexed by final character
+	private static final SequenceHandler[] ESC_HANDLERS = new SequenceHandler[128];
+	private static final SequenceHandler[] CSI_HANDLERS = new SequenceHandler[128];
+	static {
+		ESC_HANDLERS['D'] = ANSI::doIND;	// IND - Index
+		ESC_HANDLERS['E'] = ANSI::doNEL;	// NEL - NExt Line
+		ESC_HANDLERS['M'] = ANSI::doRI;		// RI - Reverse Index
+		
+		CSI_HANDLERS['A'] = ANSI::doCUU;	// CUU - CUrsor Up
+		CSI_HANDLERS['B'] = ANSI::doCUD;	// CUD - CUrsor Down
+		CSI_HANDLERS['C'] = ANSI::doCUF;	// CUF - CUrsor Forward
+		CSI_HANDLERS['D'] = ANSI::doCUB;	// CUB - CUrsor Back
+		CSI_HANDLERS['f'] = ANSI::doHVPCUP;	// HVP - Horizontal and Vertical Position
+		CSI_HANDLERS['H'] = ANSI::doHVPCUP;	// CUP - CUrsor Position
+		CSI_HANDLERS['J'] = ANSI::doED;		// ED - Erase in Display
+		CSI_HANDLERS['K'] = ANSI::doEL;		// EL - Erase in Line
+		CSI_HANDLERS['M'] = ANSI::doMusic;	// ANSI music start
+		CSI_HANDLERS['m'] = ANSI::doSGR;	// SGR - Select Graphic Rendition
+		CSI_HANDLERS['n'] = ANSI::doDSR;	// DSR - Device Status Report
+		CSI_HANDLERS['r'] = ANSI::doDECSTBM;	// DECSTBM - DEC Set Top and Bottom Margins (scrolling region)
+		CSI_HANDLERS['s'] = ANSI::doSCP;	// SCP - Save Cursor Position
+		CSI_HANDLERS['u'] = ANSI::doRCP;	// RCP - Restore Cursor Position
+		// not in ANSI.SYS:  E, F, G, S, T
+		// not implemented:  i, l, h
+	}
+
+	/**
+	 * Performs an escape or control sequence.
+	 */
+	@FunctionalInterface
+	private interface SequenceHandler {
+		void run(ANSI ansi);
+	}
 
-	private VTParser parser;
+	private final ANSIParser parser;
+	// Parameters of the sequence being performed, and the next one to be used.
+	private final int[] args = new int[ANSIParser.MAX_PARAMS];
+	private int argCount = 0;
+	private int argIndex = 0;
 	private ANSIColor palette;
 	private Consumer<String> dsrCallback = null;	// Optional callback for DSR (ESC[6n) support.
 	private Point cursor = null;		// Stored cursor position
@@ -94,7 +126,44 @@ public class ANSI extends PlainText implements VTEmulator {
 		super(screen);
 		this.palette = palette;
 		this.dsrCallback = dsrCallback;
-		parser = new VTParser(this, true);
+		parser = new ANSIParser(new ANSIParser.Handler() {
+			@Override
+			public void print(char ch) {
+				printChar(ch);
+			}
+
+			@Override
+			public void execute(char ch) {
+				// Unless we have some reason to specially handle a control character here, just print it.
+				printChar(ch);
+			}
+
+			@Override
+			public void escDispatch(char ch, ANSIParser parser) {
+				argCount = 0;
+				argIndex = 0;
+				if ((parser.getIntermediateCount() > 0) || !dispatch(ESC_HANDLERS, ch)) {
+					System.err.println("ANSI: Unimplemented Escape Sequence: Esc" + getIntermediates(parser) + ch);
+				}
+			}
+
+			@Override
+			public void csiDispatch(char ch, ANSIParser parser) {
+				argCount = parser.getParamCount();
+				for (int i=0; i<argCount; i++) {
+					args[i] = parser.getParam(i, 0);
+				}
+				argIndex = 0;
+				if ((parser.getIntermediateCount() > 0) || !dispatch(CSI_HANDLERS, ch)) {
+					System.err.println("ANSI: Unimplemented Control Sequence: Esc[" + getIntermediates(parser) + getArgs() + ch);
+				}
+			}
+
+			@Override
+			public void ignoreString(char ch) {
+				System.err.println("ANSI: Unimplemented Control String: Esc" + ch);
+			}
+		});
 	}
 	
 	/**
@@ -125,99 +194,95 @@ public class ANSI extends PlainText implements VTEmulator {
 		parser.parse(ch);
 	}
 	
+	/**
+	 * Print a run of characters to screen, processing them for ANSI escape sequences.
+	 * While the parser is between sequences, runs of printable characters are put on screen in bulk.
+	 * @param chars Characters to inspect and display.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to print.
+	 */
 	@Override
-	public void actionCSIDispatch(char ch, List<Character> intermediateChars, List<Integer> params) {
-		ControlSequence ctrlseq = EnumUtils.getEnum(ControlSequence.class, String.valueOf(ch));
-		if ((ctrlseq == null) || (intermediateChars.size() > 0)) {
-			System.out.println("ANSI: Unimplemented Control Sequence: Esc[" + StringUtils.join(intermediateChars, null) + StringUtils.join(params, ';') + ch);
-			return;
+	public void print(char[] chars, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		while (i < end) {
+			int start = i;
+			if (parser.isGround() && !inANSIMusic) {
+				while ((i < end) && (chars[i] >= 0x20)) {
+					i++;
+				}
+			}
+			if (i > start) {
+				super.print(chars, start, i - start);
+			} else {
+				print(chars[i++]);
+			}
 		}
-		switch (ctrlseq) {
-			case A:		// CUU - CUrsor Up
-				doCUU(intermediateChars, params);
-				break;
-			case B:		// CUD - CUrsor Down
-				doCUD(intermediateChars, params);
-				break;
-			case C:		// CUF - CUrsor Forward
-				doCUF(intermediateChars, params);
-				break;
-			case D:		// CUB - CUrsor Back
-				doCUB(intermediateChars, params);
-				break;
-			case f:		// HVP - Horizontal and Vertical Position
-			case H:		// CUP - CUrsor Position
-				doHVPCUP(intermediateChars, params);
-				break;
-			case J:		// ED - Erase in Display
-				doED(intermediateChars, params);
-				break;
-			case K:		// EL - Erase in Line
-				doEL(intermediateChars, params);
-				break;
-			case M:		// ANSI music start
-				inANSIMusic = true;
-				music.setLength(0);
-				music.append('M');
-				break;
-			case m:		// SGR - Select Graphic Rendition
-				doSGR(intermediateChars, params);
-				break;
-			case n:		// DSR - Device Status Report
-				doDSR(intermediateChars, params);
-				break;
-			case r:		// DECSTBM - DEC Set Top and Bottom Margins (scrolling region)
-				doDECSTBM(intermediateChars, params);
-				break;
-			case s:		// SCP - Save Cursor Position
-				doSCP(intermediateChars, params);
-				break;
-			case u:		// RCP - Restore Cursor Position
-				doRCP(intermediateChars, params);
-				break;
+	}
+	
+	/**
+	 * Perform the sequence with the given final character, using the parameters in args.
+	 * @param handlers Table of implemented sequences.
+	 * @param ch Final character of the sequence.
+	 * @return Was the sequence implemented?
+	 */
+	private boolean dispatch(SequenceHandler[] handlers, char ch) {
+		SequenceHandler handler = (ch < handlers.length) ? handlers[ch] : null;
+		if (handler == null) {
+			return false;
+		}
+		handler.run(this);
+		return true;
+	}
+	
+	@Override
+	public void actionCSIDispatch(char ch, List<Character> intermediateChars, List<Integer> params) {
+		setArgs(params);
+		if (!intermediateChars.isEmpty() || !dispatch(CSI_HANDLERS, ch)) {
+			System.err.println("ANSI: Unimplemented Control Sequence: Esc[" + StringUtils.join(intermediateChars, null) + StringUtils.join(params, ';') + ch);
 		}
 	}
 
-	private void doCUU(List<Character> intermediateChars, List<Integer> params) {
+	private void doCUU() {
 		Point coord = screen.getCursor();
 		// move cursor, stopping at top margin
-		coord.y = Math.max(0, coord.y - nextParam(params, 1));
+		coord.y = Math.max(0, coord.y - nextParam(1));
 		if (topMargin > 0) {
 			coord.y = Math.max(coord.y, topMargin - 1);
 		}
 		screen.setCursor(coord);
 	}
 	
-	private void doCUD(List<Character> intermediateChars, List<Integer> params) {
+	private void doCUD() {
 		Point coord = screen.getCursor();
 		Rectangle window = screen.getWindow();
 		// move cursor, stopping at bottom margin
-		coord.y = Math.min(window.height - 1, coord.y + nextParam(params, 1));
+		coord.y = Math.min(window.height - 1, coord.y + nextParam(1));
 		if (bottomMargin > 0) {
 			coord.y = Math.min(coord.y, bottomMargin - 1);
 		}
 		screen.setCursor(coord);
 	}
 	
-	private void doCUF(List<Character> intermediateChars, List<Integer> params) {
+	private void doCUF() {
 		Point coord = screen.getCursor();
 		Rectangle window = screen.getWindow();
 		// move cursor, stopping at right margin
-		coord.x = Math.min(window.width - 1, coord.x + nextParam(params, 1));
+		coord.x = Math.min(window.width - 1, coord.x + nextParam(1));
 		screen.setCursor(coord);
 	}
 	
-	private void doCUB(List<Character> intermediateChars, List<Integer> params) {
+	private void doCUB() {
 		Point coord = screen.getCursor();
 		// move cursor, stopping at left margin
-		coord.x = Math.max(0, coord.x - nextParam(params, 1));
+		coord.x = Math.max(0, coord.x - nextParam(1));
 		screen.setCursor(coord);
 	}
 	
-	private void doHVPCUP(List<Character> intermediateChars, List<Integer> params) {
+	private void doHVPCUP() {
 		Rectangle window;
-		int y = nextParam(params, 1);
-		int x = nextParam(params, 1);
+		int y = nextParam(1);
+		int x = nextParam(1);
 		window = screen.getWindow();
 		// move cursor, stopping at edge of screen
 		x = Math.max(1, Math.min(window.width, x));
@@ -225,8 +290,8 @@ public class ANSI extends PlainText implements VTEmulator {
 		screen.setCursor(x - 1, y - 1);
 	}
 	
-	private void doED(List<Character> intermediateChars, List<Integer> params) {
-		int param = nextParam(params, 0);
+	private void doED() {
+		int param = nextParam(0);
 		switch (param) {
 			case 0:		// Clear from cursor to end of screen
 				screen.clearToBottom();
@@ -239,13 +304,13 @@ public class ANSI extends PlainText implements VTEmulator {
 				screen.clearWindow();
 				break;
 			default:
-				System.out.printf("ANSI: Unimplemented ED parameter: %d\n", param);
+				System.err.printf("ANSI: Unimplemented ED parameter: %d\n", param);
 				break;
 		}
 	}
 
-	private void doEL(List<Character> intermediateChars, List<Integer> params) {
-		int param = nextParam(params, 0);
+	private void doEL() {
+		int param = nextParam(0);
 		switch (param) {
 			case 0:		// Clear from cursor to end of line
 				screen.clearToEOL();
@@ -257,18 +322,16 @@ public class ANSI extends PlainText implements VTEmulator {
 				screen.clearLine();
 				break;
 			default:
-				System.out.printf("ANSI: Unimplemented EL parameter: %d\n", param);
+				System.err.printf("ANSI: Unimplemented EL parameter: %d\n", param);
 				break;
 		}
 	}
 
-	private void doSGR(List<Character> intermediateChars, List<Integer> params) {
-		if (params.isEmpty()) {
-			// make sure we have at least one (default) param
-			params.add(null);
-		}
-		while (!params.isEmpty()) {
-			int param = nextParam(params, 0);
+	private void doSGR() {
+		// make sure we have at least one (default) param
+		int count = Math.max(1, argCount);
+		while (argIndex < count) {
+			int param = nextParam(0);
 			switch (param) {
 				case 0:		// Reset / Normal [all attributes off]
 					screen.setTextColors(palette.getDefaultFG(), palette.getDefaultBG());
@@ -387,15 +450,15 @@ public class ANSI extends PlainText implements VTEmulator {
 //				case 100: case 101: case 102: case 103: case 104: case 105: case 106: case 107:
 //					// Set background color, high intensity [aixterm (not in standard)]
 				default:
-					System.out.printf("ANSI: Unimplemented SGR parameter: %d\n", param);
+					System.err.printf("ANSI: Unimplemented SGR parameter: %d\n", param);
 					break;
 			}
 		}
 	}
 	
-	private void doDSR(List<Character> intermediateChars, List<Integer> params) {
+	private void doDSR() {
 		String response;
-		int param = nextParam(params, 0);
+		int param = nextParam(0);
 		switch (param) {
 			case 5:		// Send DSR (0=ready, 3=malfunction)
 				if (dsrCallback != null) {
@@ -411,31 +474,33 @@ public class ANSI extends PlainText implements VTEmulator {
 				}
 				break;
 			default:
-				System.out.printf("ANSI: Unimplemented DSR parameter: %d\n", param);
+				System.err.printf("ANSI: Unimplemented DSR parameter: %d\n", param);
 				break;
 		}
 	}
 
-	private void doDECSTBM(List<Character> intermediateChars, List<Integer> params) {
+	private void doDECSTBM() {
 		Rectangle window = screen.getWindow();
-		int top = nextParam(params, 1);
-		int bottom = nextParam(params, window.height);
+		int top = nextParam(1);
+		int bottom = nextParam(window.height);
 		if ((top == 1) && (bottom == window.height)) {
 			topMargin = 0;
 			bottomMargin = 0;
+			screen.clearScrollMargins();
 //System.out.printf("Top: %d, Bottom: %d\n", topMargin, bottomMargin);
 		} else if ((top > 0) && (bottom > 0) && (bottom > top)) {
 			topMargin = top;
 			bottomMargin = bottom;
+			screen.setScrollMargins(top - 1, bottom - 1);
 //System.out.printf("Top: %d, Bottom: %d\n", topMargin, bottomMargin);
 		}
 	}
 	
-	private void doSCP(List<Character> intermediateChars, List<Integer> params) {
+	private void doSCP() {
 		cursor = screen.getCursor();
 	}
 	
-	private void doRCP(List<Character> intermediateChars, List<Integer> params) {
+	private void doRCP() {
 		if (cursor != null) {
 			screen.setCursor(cursor);
 		}
@@ -443,65 +508,45 @@ public class ANSI extends PlainText implements VTEmulator {
 	
 	@Override
 	public void actionEscapeDispatch(char ch, List<Character> intermediateChars) {
-		EscapeSequence escseq = EnumUtils.getEnum(EscapeSequence.class, String.valueOf(ch));
-		if ((escseq == null) || (intermediateChars.size() > 0)) {
-			System.out.println("ANSI: Unimplemented Escape Sequence: Esc" + StringUtils.join(intermediateChars, null) + ch);
-			return;
-		}
-		switch (escseq) {
-			case D:		// IND - Index
-				doIND();
-				break;
-			case E:		// NEL - NExt Line
-				doNEL();
-				break;
-			case M:		// RI - Reverse Index
-				doRI();
-				break;
+		setArgs(null);
+		if (!intermediateChars.isEmpty() || !dispatch(ESC_HANDLERS, ch)) {
+			System.err.println("ANSI: Unimplemented Escape Sequence: Esc" + StringUtils.join(intermediateChars, null) + ch);
 		}
 	}
 	
+	private void doMusic() {
+		inANSIMusic = true;
+		music.setLength(0);
+		music.append('M');
+	}
+	
 	private void doIND() {
-		insideMargin(() -> {
-			Point coord = screen.getCursor();
-			Rectangle window = screen.getWindow();
-			if (coord.y < (window.height - 1)) {
-				screen.setCursor(coord.x, coord.y + 1);
-			} else {
-				screen.scrollWindowUp();
-			}
-		});
+		// the screen handles the scrolling region (DECSTBM)
+		screen.lineFeed();
 	}
 
 	private void doNEL() {
-		insideMargin(() -> {
-			super.print('\r');
-			super.print('\n');
-		});
+		screen.carriageReturn();
+		screen.lineFeed();
 	}
 
 	private void doRI() {
-		insideMargin(() -> {
-			Point coord = screen.getCursor();
-			if (coord.y > 0) {
-				screen.setCursor(coord.x, coord.y - 1);
-			} else {
-				screen.scrollWindowDown();
-			}
-		});
+		screen.reverseLineFeed();
 	}
 
 	@Override
 	public void actionExecute(char ch) {
 		// Unless we have some reason to specially handle a control character here, just print it.
-		actionPrint(ch);
+		printChar(ch);
 	}
 
 	@Override
 	public void actionPrint(char ch) {
-		insideMargin(() -> {
-			super.print(ch);
-		});
+		printChar(ch);
+	}
+	
+	private void printChar(char ch) {
+		super.print(ch);
 	}
 
 	@Override
@@ -534,79 +579,92 @@ public class ANSI extends PlainText implements VTEmulator {
 	};
 	
 	private void printAction(Action action, Character ch, List<Character> intermediateChars, List<Integer> params) {
-		System.out.printf("ANSI: Unimplemented Parser Action %s", action);
+		System.err.printf("ANSI: Unimplemented Parser Action %s", action);
 		if ((ch != null) && (ch != 0)) {
-			System.out.printf(", Char: 0x%02x ('%c')\n", (int)ch, ch);
+			System.err.printf(", Char: 0x%02x ('%c')\n", (int)ch, ch);
 		}
 		if ((intermediateChars != null) && !intermediateChars.isEmpty()) {
-			System.out.printf("\t%d Intermediate chars: ", intermediateChars.size());
+			System.err.printf("\t%d Intermediate chars: ", intermediateChars.size());
 			for (Character intch : intermediateChars) {
-				System.out.printf("0x%02x ('%c'), ", (int)intch, intch);
+				System.err.printf("0x%02x ('%c'), ", (int)intch, intch);
 			}
-			System.out.println();
+			System.err.println();
 		}
 		if ((params != null) && !params.isEmpty()) {
-			System.out.printf("\t%d Parameters: ", params.size());
+			System.err.printf("\t%d Parameters: ", params.size());
 			for (Integer param : params) {
-				System.out.printf("%d, ", param);
+				System.err.printf("%d, ", param);
 			}
-			System.out.println();
+			System.err.println();
 		}
-		System.out.println();
+		System.err.println();
 	}
 
 
 	/**
-	 * Removes the next parameter from the given list and returns it.
-	 * If the list is null or empty, or the parameter is null or 0, returns the given default value.
-	 * @param params
-	 * @param defaultValue
-	 * @return
+	 * Returns the next parameter of the sequence being performed.
+	 * If there are no more parameters, or the parameter is 0, returns the given default value.
+	 * @param defaultValue Value to use for a missing parameter.
+	 * @return Parameter value.
 	 */
-	private int nextParam(List<Integer> params, int defaultValue) {
-		if (params == null) {
-			return defaultValue;
+	private int nextParam(int defaultValue) {
+		int param = (argIndex < argCount) ? args[argIndex] : 0;
+		argIndex++;
+		return (param == 0) ? defaultValue : param;
+	}
+	
+	/**
+	 * Load the parameters of a sequence from the VTEmulator interface.
+	 * Missing (null) parameters are treated as 0.
+	 * @param params Parameters, or null if none.
+	 */
+	private void setArgs(List<Integer> params) {
+		argCount = 0;
+		argIndex = 0;
+		if (params != null) {
+			for (Integer param : params) {
+				if (argCount < args.length) {
+					args[argCount++] = (param == null) ? 0 : param;
+				}
+			}
 		}
-		if (params.isEmpty()) {
-			return defaultValue;
+	}
+	
+	/**
+	 * @return Parameters of the sequence being performed, as they would appear in the sequence.
+	 */
+	private String getArgs() {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<argCount; i++) {
+			if (i > 0) {
+				sb.append(';');
+			}
+			sb.append(args[i]);
 		}
-		Integer param = params.remove(0);
-		if ((param == null) || (param == 0)) {
-			return defaultValue;
+		return sb.toString();
+	}
+	
+	/**
+	 * @param parser Parser dispatching a sequence.
+	 * @return Intermediate characters of the sequence.
+	 */
+	private static String getIntermediates(ANSIParser parser) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<parser.getIntermediateCount(); i++) {
+			sb.append(parser.getIntermediate(i));
 		}
-		return param;
+		return sb.toString();
 	}
 
-
 	/**
 	 * Use the given callback to print output, abiding by any scrolling region (DECSTBM) which is set.
+	 * The screen now holds the scrolling region itself, so this just runs the callback.
 	 * 
 	 * @param callback Callback to perform output.
+	 * @deprecated Scroll margins are handled by JScreen.setScrollMargins().
 	 */
+	@Deprecated
 	protected void insideMargin(Runnable callback) {
-		int dy = 0;
-		int dh = 0;
-		// if scrolling region has been set, adjust current window
-		if ((topMargin > 0) && (bottomMargin > 0)) {
-			Point cursor = screen.getCursor();
-			Rectangle window = screen.getWindow();
-			int bottom = Math.min(bottomMargin, window.height);
-			// only adjust if cursor is inside scrolling region
-			if (((cursor.y + 1) >= topMargin) && ((cursor.y + 1) <= bottom)) {
-				dy = topMargin - 1;
-				int height = (bottom - topMargin) + 1;
-				dh = height - window.height;
-				if ((dy != 0) || (dh != 0)) {
-//System.out.printf("DY: %d, DH: %d\n", dy, dh);
-					screen.adjustWindow(0, dy, 0, dh);
-				}
-			}
-		}
-		// call the callback
 		callback.run();
-		// if current window was adjusted, undo adjustment
-		if ((dy != 0) || (dh != 0)) {
-			screen.adjustWindow(0, -dy, 0, -dh);
-		}
 	}
 }
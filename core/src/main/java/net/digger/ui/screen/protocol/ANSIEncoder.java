@@ -0,0 +1,890 @@
+package net.digger.ui.screen.protocol;
+
+import java.util.Arrays;
+
+import net.digger.ui.screen.JScreenBuffer;
+import net.digger.ui.screen.charmap.JScreenCharMap;
+import net.digger.ui.screen.color.Attr;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Encodes the differences between two states of a screen as ANSI/VT sequences, so a screen can be
+ * mirrored to a real terminal without resending all of it.  Snapshots are taken with
+ * JScreen.readScreenCells().
+ * <p>
+ * Like curses, the encoder keeps track of the terminal's cursor position and SGR attributes, and
+ * picks the shortest way to make each change:
+ * <ul>
+ * <li>The cursor is moved with CUP, CUF/CUB/CUU/CUD, CR, LF or RI, or by reprinting the
+ * unchanged cells in between, whichever is shortest.  BS isn't used, since some terminals
+ * (including JScreen) erase the char backspaced over.</li>
+ * <li>SGR sends only the params which changed, or a reset and the params needed, whichever is shorter.
+ * Blank cells only need the background set.</li>
+ * <li>Blanks to the end of a line are cleared with EL, and long runs of blanks with ECH.</li>
+ * <li>When most of the screen has scrolled, the terminal is scrolled (LF at the bottom, or RI at
+ * the top) instead of redrawing it.</li>
+ * </ul>
+ * Colors are mapped back to SGR 30-37 and 40-47 through the same ANSIColor palette the ANSI protocol
+ * uses.  The palette's default colors are sent as SGR 39 and 49, as are colors not in the palette.
+ * Only bold, blinking and reverse attributes are sent.
+ * <p>
+ * The terminal is assumed to be VT100 compatible and the same size as the screen, with deferred
+ * autowrap, no scrolling region set, and no newline translation (LF only moves down).
+ * A blank in the bottom right corner is cleared with EL rather than printed, so terminals which wrap
+ * immediately don't scroll.
+ * Terminals which don't support ECH (such as ANSI.SYS, or the ANSI protocol) need setEraseChars(false).
+ * ANSI.SYS also only turns attributes off with a reset, so it needs setAttributesOff(false) too.
+ * @author walton
+ */
+public class ANSIEncoder {
+	private static final char ESCAPE = 0x1B;
+	// cell as the terminal shows it: char (bits 0-15), fg code (bits 16-19), bg code (bits 20-23), SGR attrs (bits 24-26)
+	private static final int FG_SHIFT = 16;
+	private static final int BG_SHIFT = 20;
+	private static final int ATTR_SHIFT = 24;
+	// color code of the terminal's default color (SGR 39/49)
+	private static final int DEFAULT = 9;
+	// color code of a color which doesn't show, so it can be anything
+	private static final int ANY = 0xF;
+	// SGR attributes
+	private static final int BOLD = 0x1;
+	private static final int BLINK = 0x2;
+	private static final int REVERSE = 0x4;
+	private static final int ALL_ATTRS = BOLD | BLINK | REVERSE;
+	// blank with the default background, as left by clearing or scrolling
+	private static final int BLANK = ' ' | (ANY << FG_SHIFT) | (DEFAULT << BG_SHIFT);
+	// cost of EL (ESC[K)
+	private static final int EL_COST = 3;
+	// position or SGR state which isn't known
+	private static final int UNKNOWN = -1;
+	// ways to move the cursor
+	private static final int MOVE_NONE = 0;
+	private static final int MOVE_ABSOLUTE = 1;
+	private static final int MOVE_RELATIVE = 2;
+	private static final int MOVE_RETURN = 3;
+
+	// color code of each palette index
+	private final byte[] fgCodes = new byte[0x1000];
+	private final byte[] bgCodes = new byte[0x1000];
+	private final JScreenCharMap charMap;
+	private boolean eraseChars = true;
+	private boolean attributesOff = true;
+	private boolean scrolling = true;
+	// terminal's cursor position
+	private int cursorX = UNKNOWN;
+	private int cursorY = UNKNOWN;
+	// terminal's SGR state
+	private int sgrFG = UNKNOWN;
+	private int sgrBG = UNKNOWN;
+	private int sgrAttrs = UNKNOWN;
+	// what the terminal shows, and what it should show
+	private int[] shown = new int[0];
+	private int[] wanted = new int[0];
+	private int width;
+	private int height;
+	// SGR params being sent
+	private final int[] params = new int[8];
+	// how the last move was planned
+	private int moveKind;
+
+	/**
+	 * Create an encoder for screens with no character map.
+	 * @param palette Palette of ANSI colors.
+	 */
+	public ANSIEncoder(ANSIColor palette) {
+		this(palette, null);
+	}
+
+	/**
+	 * Create an encoder.
+	 * @param palette Palette of ANSI colors.
+	 * @param charMap Character map of the screen, to show glyphs from private-use fonts (such as PETSCII)
+	 * as Unicode with JScreenCharMap.toUnicode().  Cells which hold Unicode glyphs (such as CP437) are sent
+	 * unchanged.  May be null.
+	 */
+	public ANSIEncoder(ANSIColor palette, JScreenCharMap charMap) {
+		this.charMap = charMap;
+		int[] colors = {
+				palette.getBlack(), palette.getRed(), palette.getGreen(), palette.getBrown(),
+				palette.getBlue(), palette.getMagenta(), palette.getCyan(), palette.getLightGrey()
+		};
+		Arrays.fill(fgCodes, (byte)DEFAULT);
+		Arrays.fill(bgCodes, (byte)DEFAULT);
+		for (int i=colors.length-1; i>=0; i--) {
+			fgCodes[colors[i] & 0xFFF] = (byte)i;
+			bgCodes[colors[i] & 0xFFF] = (byte)i;
+		}
+		fgCodes[palette.getDefaultFG() & 0xFFF] = DEFAULT;
+		bgCodes[palette.getDefaultBG() & 0xFFF] = DEFAULT;
+	}
+
+	/**
+	 * Set whether runs of blanks may be erased with ECH.  Default is true.
+	 * @param eraseChars True if the terminal supports ECH.
+	 */
+	public void setEraseChars(boolean eraseChars) {
+		this.eraseChars = eraseChars;
+	}
+
+	/**
+	 * Set whether attributes may be turned off one at a time with SGR 22, 25 and 27.  Default is true.
+	 * If not, turning any attribute off is done with a reset (SGR 0), followed by whatever is still needed.
+	 * @param attributesOff True if the terminal supports SGR 22, 25 and 27.
+	 */
+	public void setAttributesOff(boolean attributesOff) {
+		this.attributesOff = attributesOff;
+	}
+
+	/**
+	 * Set whether the terminal may be scrolled to match a scrolled screen.  Default is true.
+	 * @param scrolling True to detect scrolling.
+	 */
+	public void setScrolling(boolean scrolling) {
+		this.scrolling = scrolling;
+	}
+
+	/**
+	 * Forget the terminal's cursor position and SGR state, such as after other output has been sent
+	 * to it.  The next output sets them from scratch.
+	 */
+	public void reset() {
+		cursorX = UNKNOWN;
+		cursorY = UNKNOWN;
+		sgrAttrs = UNKNOWN;
+		sgrFG = UNKNOWN;
+		sgrBG = UNKNOWN;
+	}
+
+	// ##### Encoding methods #####
+
+	/**
+	 * Append the sequences which change the terminal from showing one state of the screen to showing another.
+	 * Afterwards the cursor is wherever the last change left it; use moveCursor() to place it.
+	 * @param from Packed cells the terminal shows (see JScreen.readScreenCells()), or null if unknown,
+	 * in which case the terminal is cleared first.
+	 * @param to Packed cells the terminal should show.
+	 * @param width Width of screen.
+	 * @param height Height of screen.
+	 * @param out Buffer to append sequences to.
+	 */
+	public void encode(long[] from, long[] to, int width, int height, StringBuilder out) {
+		if ((width < 1) || (height < 1)) {
+			throw new IllegalArgumentException("Width and height must be at least 1.");
+		}
+		int size = width * height;
+		if ((to.length < size) || ((from != null) && (from.length < size))) {
+			throw new IllegalArgumentException("Cell arrays must hold at least width * height cells.");
+		}
+		if (shown.length != size) {
+			shown = new int[size];
+			wanted = new int[size];
+		}
+		if ((width != this.width) || (height != this.height)) {
+			// the terminal must have been resized, and may have moved the cursor
+			cursorX = UNKNOWN;
+			cursorY = UNKNOWN;
+		}
+		this.width = width;
+		this.height = height;
+		for (int i=0; i<size; i++) {
+			wanted[i] = toTerminal(to[i]);
+		}
+		if (from == null) {
+			clearScreen(out);
+		} else {
+			for (int i=0; i<size; i++) {
+				shown[i] = toTerminal(from[i]);
+			}
+			if (scrolling) {
+				scroll(out);
+			}
+		}
+		for (int y=0; y<height; y++) {
+			encodeRow(y, out);
+		}
+	}
+
+	/**
+	 * Append the shortest sequence which moves the terminal's cursor.
+	 * Must be called after encode(), which sets the screen size.
+	 * @param x X position on screen.
+	 * @param y Y position on screen.
+	 * @param out Buffer to append sequence to.
+	 */
+	public void moveCursor(int x, int y, StringBuilder out) {
+		if ((x < 0) || (x >= width) || (y < 0) || (y >= height)) {
+			throw new IllegalArgumentException("Cursor position is off screen.");
+		}
+		moveTo(x, y, out);
+	}
+
+	/**
+	 * Reset SGR and clear the terminal.
+	 * @param out Buffer to append sequences to.
+	 */
+	private void clearScreen(StringBuilder out) {
+		out.append(ESCAPE).append("[m").append(ESCAPE).append("[2J");
+		sgrFG = DEFAULT;
+		sgrBG = DEFAULT;
+		sgrAttrs = 0;
+		// ANSI.SYS homes the cursor, VT100 doesn't
+		cursorX = UNKNOWN;
+		cursorY = UNKNOWN;
+		Arrays.fill(shown, BLANK);
+	}
+
+	/**
+	 * Append the changes to one row, left to right.
+	 * @param y Row to update.
+	 * @param out Buffer to append sequences to.
+	 */
+	private void encodeRow(int y, StringBuilder out) {
+		int start = y * width;
+		int last = width - 1;
+		while ((last >= 0) && (shown[start + last] == wanted[start + last])) {
+			last--;
+		}
+		if (last < 0) {
+			return;
+		}
+		// blanks running to the end of the row, which EL can clear
+		int tail = width;
+		int blank = wanted[start + width - 1];
+		if (isPlainBlank(blank)) {
+			tail--;
+			while ((tail > 0) && (wanted[start + tail - 1] == blank)) {
+				tail--;
+			}
+		}
+		int x = nextChange(start, 0, last);
+		while (x >= 0) {
+			if (x >= tail) {
+				goTo(x, y, out);
+				setSGR(blank, out);
+				// printing in the bottom right corner scrolls terminals which don't defer autowrap
+				if (((last - x + 1) > EL_COST) || ((y == (height - 1)) && (last == (width - 1)))) {
+					out.append(ESCAPE).append("[K");
+					Arrays.fill(shown, start + x, start + width, blank);
+				} else {
+					while (x <= last) {
+						writeCell(start, x++, out);
+					}
+				}
+				return;
+			}
+			goTo(x, y, out);
+			int run = eraseChars ? blankRun(start, x, tail) : 0;
+			if (run > 0) {
+				// erase the run if that is shorter than printing it and moving on to the next change
+				int next = nextChange(start, x + run, last);
+				int gap = (next < 0) ? 0 : (next - x - run);
+				int eraseCost = csiCost(run) + ((next < 0) ? 0 : csiCost(next - x));
+				int printCost = run + ((gap == 0) ? 0 : Math.min(gap, csiCost(gap)));
+				if (eraseCost < printCost) {
+					setSGR(wanted[start + x], out);
+					appendCSI(run, 'X', out);
+					Arrays.fill(shown, start + x, start + x + run, wanted[start + x]);
+					x = next;
+					continue;
+				}
+			}
+			writeCell(start, x, out);
+			x = nextChange(start, x + 1, last);
+		}
+	}
+
+	/**
+	 * @param start Index of first cell in row.
+	 * @param x First column to check.
+	 * @param last Last column to check.
+	 * @return Column of the first cell from x to last which needs changing, or -1 if none.
+	 */
+	private int nextChange(int start, int x, int last) {
+		for (; x<=last; x++) {
+			if (shown[start + x] != wanted[start + x]) {
+				return x;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param start Index of first cell in row.
+	 * @param x Column of first cell.
+	 * @param end Column to stop at.
+	 * @return Number of the same plain blank cells from x, or 0 if the cell at x isn't a plain blank.
+	 */
+	private int blankRun(int start, int x, int end) {
+		int blank = wanted[start + x];
+		if (!isPlainBlank(blank)) {
+			return 0;
+		}
+		int run = 1;
+		while (((x + run) < end) && (wanted[start + x + run] == blank)) {
+			run++;
+		}
+		return run;
+	}
+
+	/**
+	 * Print a cell, and advance the cursor past it.
+	 * @param start Index of first cell in row.
+	 * @param x Column of cell.
+	 * @param out Buffer to append sequences to.
+	 */
+	private void writeCell(int start, int x, StringBuilder out) {
+		int cell = wanted[start + x];
+		setSGR(cell, out);
+		out.append((char)(cell & 0xFFFF));
+		shown[start + x] = cell;
+		cursorX++;
+		if (cursorX >= width) {
+			// the terminal is waiting to wrap, which some terminals treat differently
+			cursorX = UNKNOWN;
+			cursorY = UNKNOWN;
+		}
+	}
+
+	// ##### Scrolling methods #####
+
+	/**
+	 * If the screen has mostly scrolled, scroll the terminal to match, if that is shorter than redrawing.
+	 * @param out Buffer to append sequences to.
+	 */
+	private void scroll(StringBuilder out) {
+		if (height < 2) {
+			return;
+		}
+		int[] shownHashes = rowHashes(shown);
+		int[] wantedHashes = rowHashes(wanted);
+		int bestShift = 0;
+		int bestMatches = matchingRows(shownHashes, wantedHashes, 0);
+		for (int shift=1; shift<height; shift++) {
+			// can't match more rows than are left
+			if ((height - shift) <= bestMatches) {
+				break;
+			}
+			int up = matchingRows(shownHashes, wantedHashes, shift);
+			if (up > bestMatches) {
+				bestMatches = up;
+				bestShift = shift;
+			}
+			int down = matchingRows(shownHashes, wantedHashes, -shift);
+			if (down > bestMatches) {
+				bestMatches = down;
+				bestShift = -shift;
+			}
+		}
+		if (bestShift == 0) {
+			return;
+		}
+		int lines = Math.abs(bestShift);
+		int x = (cursorX == UNKNOWN) ? 0 : cursorX;
+		int y = (bestShift > 0) ? (height - 1) : 0;
+		int scrollCost = planMove(x, y) + ((bestShift > 0) ? lines : (2 * lines));
+		if ((changedCells(bestShift) + scrollCost) >= changedCells(0)) {
+			return;
+		}
+		// new lines are filled with the background, so make it the default
+		setSGR(BLANK, out);
+		moveTo(x, y, out);
+		for (int i=0; i<lines; i++) {
+			if (bestShift > 0) {
+				out.append('\n');
+			} else {
+				out.append(ESCAPE).append('M');
+			}
+		}
+		int size = width * height;
+		int moved = width * lines;
+		if (bestShift > 0) {
+			System.arraycopy(shown, moved, shown, 0, size - moved);
+			Arrays.fill(shown, size - moved, size, BLANK);
+		} else {
+			System.arraycopy(shown, 0, shown, moved, size - moved);
+			Arrays.fill(shown, 0, moved, BLANK);
+		}
+	}
+
+	/**
+	 * @param cells Cells to hash.
+	 * @return Hash of each row of cells.
+	 */
+	private int[] rowHashes(int[] cells) {
+		int[] hashes = new int[height];
+		for (int y=0; y<height; y++) {
+			int hash = 1;
+			for (int i=y*width; i<((y + 1) * width); i++) {
+				hash = (31 * hash) + cells[i];
+			}
+			hashes[y] = hash;
+		}
+		return hashes;
+	}
+
+	/**
+	 * @param shownHashes Row hashes of what the terminal shows.
+	 * @param wantedHashes Row hashes of what it should show.
+	 * @param shift Number of lines scrolled up (negative for down).
+	 * @return Number of rows which would be right after scrolling, not counting new lines.
+	 */
+	private int matchingRows(int[] shownHashes, int[] wantedHashes, int shift) {
+		int matches = 0;
+		for (int y=Math.max(0, -shift); y<Math.min(height, height - shift); y++) {
+			if ((wantedHashes[y] == shownHashes[y + shift]) && rowsEqual(y + shift, y)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @param shownY Row of what the terminal shows.
+	 * @param wantedY Row of what it should show.
+	 * @return True if the rows are the same.
+	 */
+	private boolean rowsEqual(int shownY, int wantedY) {
+		int s = shownY * width;
+		int w = wantedY * width;
+		for (int x=0; x<width; x++) {
+			if (shown[s + x] != wanted[w + x]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param shift Number of lines scrolled up (negative for down).
+	 * @return Number of non-blank cells which would need printing after scrolling.
+	 */
+	private int changedCells(int shift) {
+		int count = 0;
+		for (int y=0; y<height; y++) {
+			int sy = y + shift;
+			for (int x=0; x<width; x++) {
+				int cell = wanted[(y * width) + x];
+				int old = ((sy >= 0) && (sy < height)) ? shown[(sy * width) + x] : BLANK;
+				if ((cell != old) && !isPlainBlank(cell)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	// ##### Cursor methods #####
+
+	/**
+	 * Move the cursor to a cell in a row being updated.  A short gap on the same row is crossed
+	 * by reprinting the cells in it, if they need no SGR change.
+	 * @param x X position on screen.
+	 * @param y Y position on screen.
+	 * @param out Buffer to append sequences to.
+	 */
+	private void goTo(int x, int y, StringBuilder out) {
+		if ((cursorY == y) && (cursorX != UNKNOWN) && (cursorX < x)) {
+			int start = y * width;
+			int gap = x - cursorX;
+			if (gap <= planMove(x, y)) {
+				boolean ready = true;
+				for (int i=cursorX; ready && (i<x); i++) {
+					ready = isSGRReady(wanted[start + i]);
+				}
+				if (ready) {
+					for (int i=cursorX; i<x; i++) {
+						out.append((char)(wanted[start + i] & 0xFFFF));
+					}
+					cursorX = x;
+					return;
+				}
+			}
+		}
+		moveTo(x, y, out);
+	}
+
+	/**
+	 * Move the cursor with the shortest sequence.
+	 * @param x X position on screen.
+	 * @param y Y position on screen.
+	 * @param out Buffer to append sequences to.
+	 */
+	private void moveTo(int x, int y, StringBuilder out) {
+		planMove(x, y);
+		switch (moveKind) {
+			case MOVE_NONE:
+				return;
+			case MOVE_ABSOLUTE:
+				out.append(ESCAPE).append('[');
+				if ((x > 0) || (y > 0)) {
+					out.append(y + 1);
+				}
+				if (x > 0) {
+					out.append(';').append(x + 1);
+				}
+				out.append('H');
+				break;
+			case MOVE_RETURN:
+				out.append('\r');
+				moveVertical(y - cursorY, out);
+				moveHorizontal(x, out);
+				break;
+			default:
+				moveVertical(y - cursorY, out);
+				moveHorizontal(x - cursorX, out);
+				break;
+		}
+		cursorX = x;
+		cursorY = y;
+	}
+
+	/**
+	 * Find the shortest way to move the cursor, and set moveKind to it.
+	 * @param x X position on screen.
+	 * @param y Y position on screen.
+	 * @return Number of chars needed.
+	 */
+	private int planMove(int x, int y) {
+		if ((x == cursorX) && (y == cursorY)) {
+			moveKind = MOVE_NONE;
+			return 0;
+		}
+		moveKind = MOVE_ABSOLUTE;
+		int cost = 3;
+		if (x > 0) {
+			cost += digits(y + 1) + 1 + digits(x + 1);
+		} else if (y > 0) {
+			cost += digits(y + 1);
+		}
+		if ((cursorX == UNKNOWN) || (cursorY == UNKNOWN)) {
+			return cost;
+		}
+		int vertical = verticalCost(y - cursorY);
+		int relative = vertical + horizontalCost(x - cursorX);
+		if (relative < cost) {
+			moveKind = MOVE_RELATIVE;
+			cost = relative;
+		}
+		int ret = 1 + vertical + horizontalCost(x);
+		if (ret < cost) {
+			moveKind = MOVE_RETURN;
+			cost = ret;
+		}
+		return cost;
+	}
+
+	/**
+	 * @param dy Rows to move down (negative for up).
+	 * @return Number of chars needed.
+	 */
+	private int verticalCost(int dy) {
+		if (dy > 0) {
+			return Math.min(dy, csiCost(dy));
+		}
+		if (dy < 0) {
+			return Math.min(-2 * dy, csiCost(-dy));
+		}
+		return 0;
+	}
+
+	/**
+	 * @param dx Columns to move right (negative for left).
+	 * @return Number of chars needed.
+	 */
+	private int horizontalCost(int dx) {
+		return (dx == 0) ? 0 : csiCost(Math.abs(dx));
+	}
+
+	/**
+	 * Move the cursor up or down, with LF or RI if they are shorter than CUD or CUU.
+	 * The cursor never starts on the edge it moves towards, so these never scroll.
+	 * @param dy Rows to move down (negative for up).
+	 * @param out Buffer to append sequences to.
+	 */
+	private void moveVertical(int dy, StringBuilder out) {
+		if (dy > 0) {
+			if (dy <= csiCost(dy)) {
+				for (int i=0; i<dy; i++) {
+					out.append('\n');
+				}
+			} else {
+				appendCSI(dy, 'B', out);
+			}
+		} else if (dy < 0) {
+			if ((-2 * dy) <= csiCost(-dy)) {
+				for (int i=0; i<-dy; i++) {
+					out.append(ESCAPE).append('M');
+				}
+			} else {
+				appendCSI(-dy, 'A', out);
+			}
+		}
+	}
+
+	/**
+	 * Move the cursor left or right.
+	 * @param dx Columns to move right (negative for left).
+	 * @param out Buffer to append sequences to.
+	 */
+	private void moveHorizontal(int dx, StringBuilder out) {
+		if (dx > 0) {
+			appendCSI(dx, 'C', out);
+		} else if (dx < 0) {
+			appendCSI(-dx, 'D', out);
+		}
+	}
+
+	// ##### SGR methods #####
+
+	/**
+	 * Set the SGR state the terminal needs to show a cell, with the shortest sequence.
+	 * @param cell Cell to show.
+	 * @param out Buffer to append sequences to.
+	 */
+	private void setSGR(int cell, StringBuilder out) {
+		if (isSGRReady(cell)) {
+			return;
+		}
+		int fg = (cell >>> FG_SHIFT) & 0xF;
+		int bg = (cell >>> BG_SHIFT) & 0xF;
+		int attrs = (cell >>> ATTR_SHIFT) & ALL_ATTRS;
+		int care = careMask(cell);
+		// reset, then set what is needed
+		int resetFG = (fg == ANY) ? DEFAULT : fg;
+		int resetBG = (bg == ANY) ? DEFAULT : bg;
+		int resetAttrs = attrs & care;
+		int count = sgrParams(true, DEFAULT, DEFAULT, 0, resetFG, resetBG, resetAttrs);
+		int cost = sgrCost(count);
+		int newAttrs = (sgrAttrs & ~care) | (attrs & care);
+		// without SGR 22/25/27, an attribute can only be turned off by a reset
+		if ((sgrAttrs != UNKNOWN) && (attributesOff || ((sgrAttrs & ~newAttrs) == 0))) {
+			// or change just what differs
+			int newFG = (fg == ANY) ? sgrFG : fg;
+			int newBG = (bg == ANY) ? sgrBG : bg;
+			int changes = sgrParams(false, sgrFG, sgrBG, sgrAttrs, newFG, newBG, newAttrs);
+			if (sgrCost(changes) <= cost) {
+				appendSGR(changes, out);
+				sgrFG = newFG;
+				sgrBG = newBG;
+				sgrAttrs = newAttrs;
+				return;
+			}
+			sgrParams(true, DEFAULT, DEFAULT, 0, resetFG, resetBG, resetAttrs);
+		}
+		appendSGR(count, out);
+		sgrFG = resetFG;
+		sgrBG = resetBG;
+		sgrAttrs = resetAttrs;
+	}
+
+	/**
+	 * @param cell Cell to show.
+	 * @return True if the terminal's SGR state already shows the cell correctly.
+	 */
+	private boolean isSGRReady(int cell) {
+		if (sgrAttrs == UNKNOWN) {
+			return false;
+		}
+		int fg = (cell >>> FG_SHIFT) & 0xF;
+		int bg = (cell >>> BG_SHIFT) & 0xF;
+		int attrs = (cell >>> ATTR_SHIFT) & ALL_ATTRS;
+		return ((fg == ANY) || (fg == sgrFG))
+				&& ((bg == ANY) || (bg == sgrBG))
+				&& (((attrs ^ sgrAttrs) & careMask(cell)) == 0);
+	}
+
+	/**
+	 * Fill params with the SGR params which change one state to another.
+	 * @param reset True to start with a reset.
+	 * @param fromFG Current fg code.
+	 * @param fromBG Current bg code.
+	 * @param fromAttrs Current attributes.
+	 * @param toFG New fg code.
+	 * @param toBG New bg code.
+	 * @param toAttrs New attributes.
+	 * @return Number of params.
+	 */
+	private int sgrParams(boolean reset, int fromFG, int fromBG, int fromAttrs, int toFG, int toBG, int toAttrs) {
+		int count = 0;
+		if (reset) {
+			params[count++] = 0;
+		}
+		int off = fromAttrs & ~toAttrs;
+		int on = toAttrs & ~fromAttrs;
+		if ((off & BOLD) != 0) {
+			params[count++] = 22;
+		}
+		if ((off & BLINK) != 0) {
+			params[count++] = 25;
+		}
+		if ((off & REVERSE) != 0) {
+			params[count++] = 27;
+		}
+		if ((on & BOLD) != 0) {
+			params[count++] = 1;
+		}
+		if ((on & BLINK) != 0) {
+			params[count++] = 5;
+		}
+		if ((on & REVERSE) != 0) {
+			params[count++] = 7;
+		}
+		if (toFG != fromFG) {
+			params[count++] = 30 + toFG;
+		}
+		if (toBG != fromBG) {
+			params[count++] = 40 + toBG;
+		}
+		return count;
+	}
+
+	/**
+	 * @param count Number of params in params.
+	 * @return Number of chars needed to send the params.
+	 */
+	private int sgrCost(int count) {
+		if ((count == 1) && (params[0] == 0)) {
+			// a reset on its own needs no param
+			return 3;
+		}
+		int cost = 2 + count;
+		for (int i=0; i<count; i++) {
+			cost += digits(params[i]);
+		}
+		return cost;
+	}
+
+	/**
+	 * Append an SGR sequence.
+	 * @param count Number of params in params.
+	 * @param out Buffer to append sequence to.
+	 */
+	private void appendSGR(int count, StringBuilder out) {
+		out.append(ESCAPE).append('[');
+		if ((count != 1) || (params[0] != 0)) {
+			for (int i=0; i<count; i++) {
+				if (i > 0) {
+					out.append(';');
+				}
+				out.append(params[i]);
+			}
+		}
+		out.append('m');
+	}
+
+	// ##### Cell methods #####
+
+	/**
+	 * Convert a packed cell to how the terminal shows it.
+	 * Colors and attributes which don't show on a blank are dropped, so blanks which look the same compare the same.
+	 * @param cell Packed cell.
+	 * @return Cell as the terminal shows it.
+	 */
+	private int toTerminal(long cell) {
+		char ch = JScreenBuffer.getChar(cell);
+		if (charMap != null) {
+			ch = charMap.toUnicode(ch);
+		}
+		if ((ch < ' ') || (ch == 0x7F) || ((ch >= 0x80) && (ch < 0xA0))) {
+			// control chars would be performed rather than shown
+			ch = ' ';
+		}
+		int attrs = JScreenBuffer.getAttrs(cell);
+		int sgr = 0;
+		if ((attrs & Attr.BOLD.mask()) != 0) {
+			sgr |= BOLD;
+		}
+		if ((attrs & Attr.BLINKING.mask()) != 0) {
+			sgr |= BLINK;
+		}
+		if ((attrs & Attr.REVERSE.mask()) != 0) {
+			sgr |= REVERSE;
+		}
+		int fg = fgCodes[JScreenBuffer.getFG(cell) & 0xFFF];
+		int bg = bgCodes[JScreenBuffer.getBG(cell) & 0xFFF];
+		if (ch == ' ') {
+			if ((sgr & REVERSE) == 0) {
+				fg = ANY;
+				sgr = 0;
+			} else {
+				bg = ANY;
+				sgr &= REVERSE | BOLD;
+			}
+		}
+		return ch | (fg << FG_SHIFT) | (bg << BG_SHIFT) | (sgr << ATTR_SHIFT);
+	}
+
+	/**
+	 * @param cell Cell as the terminal shows it.
+	 * @return Mask of the attributes which change how the cell looks.
+	 */
+	private int careMask(int cell) {
+		if ((cell & 0xFFFF) != ' ') {
+			return ALL_ATTRS;
+		}
+		return ((cell & (REVERSE << ATTR_SHIFT)) == 0) ? REVERSE : (REVERSE | BOLD);
+	}
+
+	/**
+	 * @param cell Cell as the terminal shows it.
+	 * @return True if the cell is a blank which EL or ECH can produce.
+	 */
+	private boolean isPlainBlank(int cell) {
+		return ((cell & 0xFFFF) == ' ') && ((cell & (REVERSE << ATTR_SHIFT)) == 0);
+	}
+
+	// ##### Utility methods #####
+
+	/**
+	 * @param n Parameter of a sequence.
+	 * @return Number of chars needed for a CSI sequence with one param, which is left out if it's 1.
+	 */
+	private static int csiCost(int n) {
+		return (n == 1) ? 3 : (3 + digits(n));
+	}
+
+	/**
+	 * Append a CSI sequence with one param, which is left out if it's 1.
+	 * @param n Parameter.
+	 * @param command Final char.
+	 * @param out Buffer to append sequence to.
+	 */
+	private static void appendCSI(int n, char command, StringBuilder out) {
+		out.append(ESCAPE).append('[');
+		if (n != 1) {
+			out.append(n);
+		}
+		out.append(command);
+	}
+
+	/**
+	 * @param n Non-negative number.
+	 * @return Number of decimal digits in n.
+	 */
+	private static int digits(int n) {
+		int count = 1;
+		while (n >= 10) {
+			n /= 10;
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,349 @@
+package net.digger.ui.screen.protocol;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Allocation-free parser for ANSI escape and control sequences, following the state machine at
+ * https://vt100.net/emu/dec_ansi_parser
+ *
+ * Parameters and intermediate characters are collected into reusable arrays, which the handler
+ * reads from during dispatch.  Unlike a VT500, 0x80-0x9F are printed rather than treated as C1
+ * controls, since ANSI art uses those codes for CP437 characters.  OSC, DCS, SOS, PM and APC
+ * strings are recognized, so their contents aren't printed, but are otherwise ignored.
+ *
+ * @author walton
+ */
+class ANSIParser {
+	/**
+	 * Maximum number of parameters kept for a sequence.  Any more are dropped.
+	 */
+	static final int MAX_PARAMS = 16;
+	/**
+	 * Maximum number of intermediate characters for a sequence.  Sequences with more are ignored.
+	 */
+	static final int MAX_INTERMEDIATES = 2;
+	// Largest parameter value kept.  Larger values are limited to this.
+	private static final int MAX_PARAM_VALUE = 0xFFFF;
+
+	/**
+	 * Receives the actions of the parser.
+	 */
+	interface Handler {
+		/**
+		 * Display a character.
+		 * @param ch Character to display.
+		 */
+		void print(char ch);
+
+		/**
+		 * Perform a C0 control function.
+		 * This may happen in the middle of a sequence, which then continues.
+		 * @param ch Control character.
+		 */
+		void execute(char ch);
+
+		/**
+		 * Perform an escape sequence.
+		 * @param ch Final character of the sequence.
+		 * @param parser Parser holding the intermediate characters.
+		 */
+		void escDispatch(char ch, ANSIParser parser);
+
+		/**
+		 * Perform a control sequence.
+		 * @param ch Final character of the sequence.
+		 * @param parser Parser holding the parameters and intermediate characters.
+		 */
+		void csiDispatch(char ch, ANSIParser parser);
+
+		/**
+		 * A control string (OSC, DCS, SOS, PM or APC) has started, and will be ignored.
+		 * @param ch Character which started the string.
+		 */
+		void ignoreString(char ch);
+	}
+
+	private enum State {
+		GROUND,
+		ESCAPE,
+		ESCAPE_INTERMEDIATE,
+		CSI_ENTRY,
+		CSI_PARAM,
+		CSI_INTERMEDIATE,
+		CSI_IGNORE,
+		STRING,
+		STRING_ESCAPE,
+	}
+
+	private final Handler handler;
+	private State state = State.GROUND;
+	private final int[] params = new int[MAX_PARAMS];
+	private int paramCount = 0;
+	private final char[] intermediates = new char[MAX_INTERMEDIATES];
+	private int intermediateCount = 0;
+	// too many intermediate characters, so the sequence is ignored
+	private boolean overflow = false;
+
+	/**
+	 * Create a new parser.
+	 * @param handler Handler to receive the parser actions.
+	 */
+	ANSIParser(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * @return Is the parser between sequences, so printable characters will be printed?
+	 */
+	boolean isGround() {
+		return state == State.GROUND;
+	}
+
+	/**
+	 * @return Number of parameters in the sequence being dispatched.
+	 */
+	int getParamCount() {
+		return paramCount;
+	}
+
+	/**
+	 * Get a parameter of the sequence being dispatched.
+	 * @param index Index of parameter.
+	 * @param defaultValue Value to return if the parameter is missing or 0.
+	 * @return Parameter value.
+	 */
+	int getParam(int index, int defaultValue) {
+		if ((index >= paramCount) || (params[index] == 0)) {
+			return defaultValue;
+		}
+		return params[index];
+	}
+
+	/**
+	 * @return Number of intermediate characters in the sequence being dispatched.
+	 */
+	int getIntermediateCount() {
+		return intermediateCount;
+	}
+
+	/**
+	 * Get an intermediate character (or private marker) of the sequence being dispatched.
+	 * @param index Index of intermediate character.
+	 * @return Intermediate character.
+	 */
+	char getIntermediate(int index) {
+		return intermediates[index];
+	}
+
+	/**
+	 * Parse the next character.
+	 * @param ch Character to parse.
+	 */
+	void parse(char ch) {
+		// transitions from anywhere
+		switch (ch) {
+			case 0x18:		// CAN
+			case 0x1a:		// SUB
+				handler.execute(ch);
+				state = State.GROUND;
+				return;
+			case 0x1b:		// ESC
+				if (state == State.STRING) {
+					// probably ST (ESC \)
+					state = State.STRING_ESCAPE;
+					return;
+				}
+				clear();
+				state = State.ESCAPE;
+				return;
+		}
+		switch (state) {
+			case GROUND:
+				if (ch < 0x20) {
+					handler.execute(ch);
+				} else {
+					handler.print(ch);
+				}
+				break;
+			case ESCAPE:
+				parseEscape(ch);
+				break;
+			case ESCAPE_INTERMEDIATE:
+				if (ch < 0x20) {
+					handler.execute(ch);
+				} else if (ch < 0x30) {
+					collect(ch);
+				} else if (ch < 0x7f) {
+					escDispatch(ch);
+				}
+				break;
+			case CSI_ENTRY:
+			case CSI_PARAM:
+				parseCSIParam(ch);
+				break;
+			case CSI_INTERMEDIATE:
+				if (ch < 0x20) {
+					handler.execute(ch);
+				} else if (ch < 0x30) {
+					collect(ch);
+				} else if (ch < 0x40) {
+					state = State.CSI_IGNORE;
+				} else if (ch < 0x7f) {
+					csiDispatch(ch);
+				}
+				break;
+			case CSI_IGNORE:
+				if (ch < 0x20) {
+					handler.execute(ch);
+				} else if ((ch >= 0x40) && (ch < 0x7f)) {
+					state = State.GROUND;
+				}
+				break;
+			case STRING:
+				if (ch == 0x07) {
+					// BEL ends OSC strings in xterm
+					state = State.GROUND;
+				}
+				break;
+			case STRING_ESCAPE:
+				if (ch == '\\') {
+					// ST
+					state = State.GROUND;
+				} else {
+					// not ST, so the string ended with a new escape sequence
+					clear();
+					state = State.ESCAPE;
+					parseEscape(ch);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Parse a character following ESC.
+	 * @param ch Character to parse.
+	 */
+	private void parseEscape(char ch) {
+		if (ch < 0x20) {
+			handler.execute(ch);
+		} else if (ch < 0x30) {
+			collect(ch);
+			state = State.ESCAPE_INTERMEDIATE;
+		} else {
+			switch (ch) {
+				case '[':		// CSI
+					state = State.CSI_ENTRY;
+					break;
+				case ']':		// OSC
+				case 'P':		// DCS
+				case 'X':		// SOS
+				case '^':		// PM
+				case '_':		// APC
+					state = State.STRING;
+					handler.ignoreString(ch);
+					break;
+				default:
+					if (ch < 0x7f) {
+						escDispatch(ch);
+					}
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Parse a character in the parameters of a control sequence.
+	 * @param ch Character to parse.
+	 */
+	private void parseCSIParam(char ch) {
+		if (ch < 0x20) {
+			handler.execute(ch);
+		} else if (ch < 0x30) {
+			collect(ch);
+			state = State.CSI_INTERMEDIATE;
+		} else if (ch <= '9') {
+			if (paramCount == 0) {
+				paramCount = 1;
+			}
+			if (paramCount <= MAX_PARAMS) {
+				int index = paramCount - 1;
+				params[index] = Math.min(MAX_PARAM_VALUE, (params[index] * 10) + (ch - '0'));
+			}
+			state = State.CSI_PARAM;
+		} else if (ch == ';') {
+			if (paramCount == 0) {
+				paramCount = 1;
+			}
+			if (paramCount < MAX_PARAMS) {
+				params[paramCount] = 0;
+			}
+			paramCount++;
+			state = State.CSI_PARAM;
+		} else if (ch < 0x40) {
+			if ((state == State.CSI_ENTRY) && (ch != ':')) {
+				// private marker (< = > ?)
+				collect(ch);
+				state = State.CSI_PARAM;
+			} else {
+				state = State.CSI_IGNORE;
+			}
+		} else if (ch < 0x7f) {
+			csiDispatch(ch);
+		}
+	}
+
+	/**
+	 * Reset the collected parameters and intermediate characters.
+	 */
+	private void clear() {
+		params[0] = 0;
+		paramCount = 0;
+		intermediateCount = 0;
+		overflow = false;
+	}
+
+	/**
+	 * Collect an intermediate character.
+	 * @param ch Intermediate character.
+	 */
+	private void collect(char ch) {
+		if (intermediateCount < MAX_INTERMEDIATES) {
+			intermediates[intermediateCount++] = ch;
+		} else {
+			overflow = true;
+		}
+	}
+
+	private void escDispatch(char ch) {
+		state = State.GROUND;
+		if (!overflow) {
+			handler.escDispatch(ch, this);
+		}
+	}
+
+	private void csiDispatch(char ch) {
+		state = State.GROUND;
+		// parameters beyond the maximum were dropped
+		paramCount = Math.min(paramCount, MAX_PARAMS);
+		if (!overflow) {
+			handler.csiDispatch(ch, this);
+		}
+	}
+}
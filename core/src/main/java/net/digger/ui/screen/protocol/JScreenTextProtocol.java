@@ -26,6 +26,9 @@ import net.digger.ui.screen.JScreen;
  * @author walton
  */
 public class JScreenTextProtocol {
+	// Maximum number of chars copied out of a CharSequence at a time.
+	private static final int CHUNK_SIZE = 4096;
+	
 	/**
 	 * JScreen used to display text.
 	 */
@@ -46,4 +49,39 @@ public class JScreenTextProtocol {
 	public void print(char ch) {
 		screen.putChar(ch);
 	}
+	
+	/**
+	 * Print a run of characters to screen, processing them according to the implemented text protocol.
+	 * By default, each character is passed to print(char).  Protocols should override this to
+	 * handle runs of printable characters in bulk.
+	 * @param chars Characters to inspect and display.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to print.
+	 */
+	public void print(char[] chars, int offset, int length) {
+		for (int i=offset; i<(offset + length); i++) {
+			print(chars[i]);
+		}
+	}
+	
+	/**
+	 * Print text to screen, processing it according to the implemented text protocol.
+	 * The text is passed to print(char[], int, int) in chunks.
+	 * @param text Text to inspect and display.
+	 */
+	public void print(CharSequence text) {
+		int length = text.length();
+		char[] chunk = new char[Math.min(length, CHUNK_SIZE)];
+		for (int start=0; start<length; start+=chunk.length) {
+			int count = Math.min(chunk.length, length - start);
+			if (text instanceof String) {
+				((String)text).getChars(start, start + count, chunk, 0);
+			} else {
+				for (int i=0; i<count; i++) {
+					chunk[i] = text.charAt(start + i);
+				}
+			}
+			print(chunk, 0, count);
+		}
+	}
 }
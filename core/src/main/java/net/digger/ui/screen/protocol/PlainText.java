@@ -61,10 +61,34 @@ public class PlainText extends JScreenTextProtocol {
 				break;
 			default:
 				if (ch < 32) {
-					System.out.println("PlainText: Unimplemented Control Character: 0x" + Integer.toHexString(ch));
+					System.err.println("PlainText: Unimplemented Control Character: 0x" + Integer.toHexString(ch));
 				}
 				super.print(ch);
 				break;
 		}
 	}
+	
+	/**
+	 * Print a run of characters to screen, processing them for certain control characters.
+	 * Runs of printable characters are put on screen in bulk.
+	 * @param chars Characters to inspect and display.
+	 * @param offset Index of first character in chars.
+	 * @param length Number of characters to print.
+	 */
+	@Override
+	public void print(char[] chars, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		while (i < end) {
+			int start = i;
+			while ((i < end) && (chars[i] >= 32)) {
+				i++;
+			}
+			if (i > start) {
+				screen.putStr(chars, start, i - start);
+			} else {
+				print(chars[i++]);
+			}
+		}
+	}
 }
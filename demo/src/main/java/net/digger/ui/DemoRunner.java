@@ -23,6 +23,12 @@ public class DemoRunner {
 			case "helloworld":
 				HelloWorld.main(args);
 				break;
+			case "parserbench":
+				ParserBench.main(args);
+				break;
+			case "serverload":
+				ServerLoad.main(args);
+				break;
 			default:
 				usage();
 				break;
@@ -33,10 +39,12 @@ public class DemoRunner {
 		System.out.println();
 		System.out.println("Run the JScreen demo programs.");
 		System.out.println("Usage:");
-		System.out.println("\tjava -jar jscreen-demo.jar (Demo|DisplayANSI|HelloWorld)");
+		System.out.println("\tjava -jar jscreen-demo.jar (Demo|DisplayANSI|HelloWorld|ParserBench|ServerLoad)");
 		System.out.println("\t\tDemo: Plays a short demo showing some of what JScreen can do.");
 		System.out.println("\t\tDisplayANSI: A simple ANSI art viewer.");
 		System.out.println("\t\tHelloWorld: Runs a minimal Hello World program.");
+		System.out.println("\t\tParserBench: Times ANSI parsing by ANSIParser against VTParser.");
+		System.out.println("\t\tServerLoad: Connects thousands of loopback clients to a JScreenServer.");
 		System.out.println();
 		System.out.println("\tIf a demo program needs additional arguments, running it without");
 		System.out.println("\targuments will display usage details for that demo.");
@@ -9,6 +9,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.ButtonGroup;
 import javax.swing.JFrame;
@@ -19,6 +20,7 @@ import javax.swing.JRadioButtonMenuItem;
 import javax.swing.SwingUtilities;
 
 import net.digger.ui.screen.JScreen;
+import net.digger.ui.screen.JScreenPacer;
 import net.digger.ui.screen.mode.IBMScreenMode;
 import net.digger.ui.screen.protocol.ANSI;
 import net.digger.ui.screen.protocol.ANSIColor;
@@ -135,6 +137,8 @@ public class DisplayANSI {
 				@Override
 				public void actionPerformed(ActionEvent e) {
 					bps = Integer.parseInt(e.getActionCommand());
+					// takes effect on the text already being displayed
+					screen.getPacer().setBPS(bps);
 				}
 			});
 		}
@@ -165,25 +169,29 @@ public class DisplayANSI {
 	
 	public boolean display() throws IOException {
 		restart = false;
-		int oldbps = bps;
-		int wait = (int)(1000000 / (bps / 8.0));
-		System.out.println("Wait: " + wait);
+		StringBuilder text = new StringBuilder();
 		for (byte b : Files.readAllBytes(file)) {
-			char ch = (char)(b & 0xff);		// convert signed byte to unsigned char
-			if (bps != oldbps) {
-				oldbps = bps;
-				wait = (int)(1000000 / (bps / 8.0));
-				System.out.println("Wait: " + wait);
-			}
-			screen.print(ch);
-			Pause.micro(wait);
-			if (restart) {
-				screen.printlnBPS(bps);
-				return false;
-			}
-			if (checkEscape()) {
-				return true;
+			text.append((char)(b & 0xff));		// convert signed byte to unsigned char
+		}
+		JScreenPacer pacer = screen.getPacer();
+		pacer.setBPS(bps);
+		pacer.print(text);
+		try {
+			while (!pacer.await(50, TimeUnit.MILLISECONDS)) {
+				if (restart) {
+					pacer.clear();
+					pacer.await();
+					screen.printlnBPS(bps);
+					return false;
+				}
+				if (checkEscape()) {
+					pacer.clear();
+					return true;
+				}
 			}
+		} catch (InterruptedException e) {
+			pacer.clear();
+			return true;
 		}
 		System.out.println("Done.");
 		return false;
@@ -214,9 +222,8 @@ public class DisplayANSI {
 					screen.carriageReturn();
 					break;
 				default:
-					insideMargin(() -> {
-						screen.putChar(ch);
-					});
+					// the scroll margins set by DECSTBM are held by the screen
+					screen.putChar(ch);
 					break;
 			}
 		}
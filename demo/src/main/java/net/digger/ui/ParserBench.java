@@ -0,0 +1,177 @@
+package net.digger.ui;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.digger.ui.screen.JScreen;
+import net.digger.ui.screen.mode.IBMScreenMode;
+import net.digger.ui.screen.protocol.ANSI;
+import net.digger.ui.screen.protocol.CGAANSIColor;
+import net.digger.util.vt.VTParser;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Benchmark of the ANSI protocol's parsing.  Feeds the same ANSI text (a file, or generated ANSI art
+ * which sets colors for nearly every character) to headless screens three ways: through a VTParser
+ * driving the ANSI VTEmulator methods (actionPrint(), actionCSIDispatch() and so on), as ANSI did before
+ * it had ANSIParser; through ANSIParser a character at a time; and through ANSIParser with runs of
+ * printable characters put on screen in bulk.  Each is warmed up, then timed, and the screens are
+ * compared afterwards to check all three did the same thing.
+ * @author walton
+ */
+public class ParserBench {
+	private static final int DEFAULT_ROUNDS = 20;
+	private static final int WARMUP_ROUNDS = 10;
+	// size of generated ANSI art: 80x25 screens of it
+	private static final int GENERATED_SCREENS = 40;
+	private static final char ESCAPE = 0x1B;
+
+	/**
+	 * A way of feeding text to an ANSI protocol handler.
+	 */
+	private interface Feeder {
+		void feed(char[] text);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if ((args.length > 0) && (args[0].startsWith("-") || args[0].equals("?"))) {
+			System.out.println();
+			System.out.println("ParserBench, a benchmark of ANSI parsing.");
+			System.out.println("Usage:");
+			System.out.println("\tjava -jar jscreen-demo.jar ParserBench [<filename> [<rounds>]]");
+			System.out.println("\tWithout a file, SGR-heavy ANSI art is generated.  Default is " + DEFAULT_ROUNDS + " timed rounds.");
+			System.out.println();
+			return;
+		}
+		char[] text;
+		if ((args.length > 0) && !args[0].equals("")) {
+			byte[] bytes = Files.readAllBytes(Paths.get(args[0]));
+			text = new char[bytes.length];
+			for (int i=0; i<bytes.length; i++) {
+				text[i] = (char)(bytes[i] & 0xff);		// convert signed byte to unsigned char
+			}
+		} else {
+			text = generate();
+		}
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+		System.out.printf("%d chars of ANSI, %d rounds%n", text.length, rounds);
+
+		JScreen vtScreen = JScreen.createHeadlessScreen(IBMScreenMode.VGA_80x25);
+		ANSI vtANSI = new ANSI(vtScreen, new CGAANSIColor());
+		VTParser vtParser = new VTParser(vtANSI, true);
+		long[] vt = run("VTParser", rounds, text, t -> {
+			for (char ch : t) {
+				vtParser.parse(ch);
+			}
+		}, vtScreen);
+
+		JScreen charScreen = JScreen.createHeadlessScreen(IBMScreenMode.VGA_80x25);
+		ANSI charANSI = new ANSI(charScreen, new CGAANSIColor());
+		long[] chars = run("ANSIParser", rounds, text, t -> {
+			for (char ch : t) {
+				charANSI.print(ch);
+			}
+		}, charScreen);
+
+		JScreen runScreen = JScreen.createHeadlessScreen(IBMScreenMode.VGA_80x25);
+		ANSI runANSI = new ANSI(runScreen, new CGAANSIColor());
+		long[] runs = run("ANSIParser runs", rounds, text, t -> runANSI.print(t, 0, t.length), runScreen);
+
+		boolean same = Arrays.equals(vt, chars) && Arrays.equals(vt, runs);
+		System.out.println(same ? "All screens match." : "Screens differ!");
+		vtScreen.close();
+		charScreen.close();
+		runScreen.close();
+		System.exit(same ? 0 : 1);
+	}
+
+	/**
+	 * Warm up, then time, one way of feeding the text, and print its speed.
+	 * @param name Name to print.
+	 * @param rounds Number of timed rounds.
+	 * @param text ANSI text to feed.
+	 * @param feeder Feeds the text to the screen.
+	 * @param screen Screen being fed.
+	 * @return Cells of the screen afterwards.
+	 */
+	private static long[] run(String name, int rounds, char[] text, Feeder feeder, JScreen screen) {
+		for (int i=0; i<WARMUP_ROUNDS; i++) {
+			feeder.feed(text);
+		}
+		long start = System.nanoTime();
+		for (int i=0; i<rounds; i++) {
+			feeder.feed(text);
+		}
+		long elapsed = System.nanoTime() - start;
+		double seconds = elapsed / 1e9;
+		System.out.printf("%-16s %8.2f ms per round, %7.2f ns per char, %7.2f MB/s%n", name + ":",
+				(elapsed / 1e6) / rounds, (double)elapsed / ((long)rounds * text.length),
+				((double)rounds * text.length) / seconds / 1e6);
+		return screen.readScreenCells(null);
+	}
+
+	/**
+	 * Generate ANSI art which, like most ANSI art, sets the colors for nearly every character,
+	 * with occasional cursor moves.  It is the same every time, so runs can be compared.
+	 * @return Generated ANSI text.
+	 */
+	private static char[] generate() {
+		final char[] blocks = {' ', 0xB0, 0xB1, 0xB2, 0xDB, 0xDC, 0xDF, 'A', 'n', 's', 'i'};
+		Random random = new Random(437);
+		StringBuilder text = new StringBuilder();
+		for (int screen=0; screen<GENERATED_SCREENS; screen++) {
+			text.append(ESCAPE).append("[0m").append(ESCAPE).append("[2J").append(ESCAPE).append("[H");
+			for (int y=0; y<25; y++) {
+				text.append(ESCAPE).append('[').append(y + 1).append(";1H");
+				for (int x=0; x<80; x++) {
+					switch (random.nextInt(4)) {
+						case 0:
+							text.append(ESCAPE).append("[0;").append(30 + random.nextInt(8)).append(';')
+									.append(40 + random.nextInt(8)).append('m');
+							break;
+						case 1:
+							text.append(ESCAPE).append("[1;").append(30 + random.nextInt(8)).append('m');
+							break;
+						case 2:
+							text.append(ESCAPE).append('[').append(40 + random.nextInt(8)).append('m');
+							break;
+						default:
+							// keep the colors for a run of characters
+							break;
+					}
+					if ((x > 0) && (random.nextInt(40) == 0)) {
+						text.append(ESCAPE).append("[1C");
+						x++;
+						if (x >= 80) {
+							break;
+						}
+					}
+					text.append(blocks[random.nextInt(blocks.length)]);
+				}
+			}
+		}
+		text.append(ESCAPE).append("[0m");
+		char[] chars = new char[text.length()];
+		text.getChars(0, chars.length, chars, 0);
+		return chars;
+	}
+}
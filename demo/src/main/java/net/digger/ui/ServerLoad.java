@@ -0,0 +1,221 @@
+package net.digger.ui;
+
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import net.digger.ui.screen.JScreen;
+import net.digger.ui.screen.mode.IBMScreenMode;
+import net.digger.ui.screen.protocol.CGAANSIColor;
+import net.digger.ui.screen.server.JScreenServer;
+import net.digger.ui.screen.server.JScreenSession;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Load test for JScreenServer.  Starts a server on the loopback address, with an app which echoes
+ * what is typed, then connects the given number of clients to it from this JVM.  Each client
+ * waits for the greeting (which ends with CP437 shading, to check glyphs reach the client as Unicode),
+ * types a line, and waits for it to be echoed back.
+ * @author walton
+ */
+public class ServerLoad {
+	private static final int DEFAULT_CLIENTS = 3000;
+	private static final String GREETING = "Hello.";
+	// CP437 shading, as an app (or ANSI art) prints it
+	private static final String SHADING = "\u00B0\u00B1\u00B2";
+	// the shading as it should reach the client: UTF-8, read a byte per char
+	private static final String SHADING_SENT = new String("\u2591\u2592\u2593".getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+	private static final String TYPED = "hello";
+	private static final long TIMEOUT = 60000;
+
+	private final int clientCount;
+	private final JScreenServer server;
+	private final Selector selector;
+	private final SocketChannel[] clients;
+	// what each client has received since it last typed
+	private final StringBuilder[] received;
+	private final ByteBuffer buffer = ByteBuffer.allocate(65536);
+	private final long start = System.nanoTime();
+
+	public static void main(String[] args) throws IOException {
+		if ((args.length > 0) && !args[0].matches("\\d+")) {
+			System.out.println();
+			System.out.println("ServerLoad, a load test for JScreenServer.");
+			System.out.println("Usage:");
+			System.out.println("\tjava -jar jscreen-demo.jar ServerLoad [<clients> [<selector threads>]]");
+			System.out.println("\tDefault is " + DEFAULT_CLIENTS + " clients, and the server's default number of threads.");
+			System.out.println("\tEach client uses two file handles, so the limit (ulimit -n) may need raising.");
+			System.out.println();
+			return;
+		}
+		int clients = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : JScreenServer.DEFAULT_SELECTOR_THREADS;
+		boolean passed;
+		ServerLoad load = new ServerLoad(clients, threads);
+		try {
+			passed = load.run();
+		} finally {
+			load.close();
+		}
+		System.exit(passed ? 0 : 1);
+	}
+
+	public ServerLoad(int clientCount, int selectorThreads) throws IOException {
+		this.clientCount = clientCount;
+		server = new JScreenServer(new InetSocketAddress("127.0.0.1", 0), IBMScreenMode.DEFAULT_MODE,
+				new CGAANSIColor(), this::echo, selectorThreads);
+		selector = Selector.open();
+		clients = new SocketChannel[clientCount];
+		received = new StringBuilder[clientCount];
+	}
+
+	/**
+	 * The app run for each session: greet the client, then echo what it types.
+	 * @param session New session.
+	 */
+	private void echo(JScreenSession session) {
+		session.getScreen().print(GREETING + SHADING + "\r\n> ");
+		echoNext(session.getScreen());
+	}
+
+	/**
+	 * Echo the next key typed, without needing a thread to wait for it.
+	 * @param screen Screen of session.
+	 */
+	private void echoNext(JScreen screen) {
+		screen.keyboard.nextKeyEvent().thenAccept(event -> {
+			if (event.getID() == KeyEvent.KEY_TYPED) {
+				if (event.getKeyChar() == '\n') {
+					screen.print("\r\n> ");
+				} else {
+					screen.print(String.valueOf(event.getKeyChar()));
+				}
+			}
+			echoNext(screen);
+		});
+	}
+
+	/**
+	 * Connect the clients, and check every session greets them and echoes what they type.
+	 * @return True if every client got what it expected.
+	 * @throws IOException If a client can't connect.
+	 */
+	public boolean run() throws IOException {
+		InetSocketAddress address = server.getLocalAddress();
+		for (int i=0; i<clientCount; i++) {
+			clients[i] = SocketChannel.open(address);
+			clients[i].configureBlocking(false);
+			clients[i].register(selector, SelectionKey.OP_READ, i);
+			received[i] = new StringBuilder();
+		}
+		report("connected " + clientCount + " clients");
+		if (!await(GREETING + SHADING_SENT)) {
+			return false;
+		}
+		report("all clients greeted");
+		for (int i=0; i<clientCount; i++) {
+			received[i].setLength(0);
+			clients[i].write(ByteBuffer.wrap((TYPED + "\r").getBytes(StandardCharsets.US_ASCII)));
+		}
+		if (!await(TYPED)) {
+			return false;
+		}
+		report("all lines echoed");
+		return true;
+	}
+
+	/**
+	 * Read from the clients until every one has received the given text.
+	 * @param text Text to wait for.
+	 * @return True if they all received it before timing out.
+	 * @throws IOException If reading fails.
+	 */
+	private boolean await(String text) throws IOException {
+		boolean[] done = new boolean[clientCount];
+		int count = 0;
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (count < clientCount) {
+			if (System.currentTimeMillis() > deadline) {
+				report("timed out: " + count + " of " + clientCount + " clients received \"" + text + "\"");
+				return false;
+			}
+			selector.select(100);
+			for (SelectionKey key : selector.selectedKeys()) {
+				int i = (Integer)key.attachment();
+				buffer.clear();
+				int read = clients[i].read(buffer);
+				if (read < 0) {
+					report("client " + i + " was disconnected");
+					return false;
+				}
+				received[i].append(new String(buffer.array(), 0, read, StandardCharsets.ISO_8859_1));
+				if (!done[i] && (received[i].indexOf(text) >= 0)) {
+					done[i] = true;
+					count++;
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+		return true;
+	}
+
+	/**
+	 * Disconnect the clients, and stop the server once their sessions have closed.
+	 */
+	public void close() {
+		for (SocketChannel client : clients) {
+			if (client != null) {
+				try {
+					client.close();
+				} catch (IOException e) {
+					// closed anyway
+				}
+			}
+		}
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while ((server.getSessionCount() > 0) && (System.currentTimeMillis() < deadline)) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		report("clients disconnected");
+		server.close();
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+	}
+
+	/**
+	 * Print a progress line, with the time since starting, and the server's sessions and the JVM's threads.
+	 * @param message What has happened.
+	 */
+	private void report(String message) {
+		System.out.printf("%7.2fs: %s (%d sessions, %d threads)%n", (System.nanoTime() - start) / 1e9,
+				message, server.getSessionCount(), Thread.activeCount());
+	}
+}
@@ -32,16 +32,68 @@ public class CBMCharMap extends JScreenCharMap {
 	public static final CBMCharMap C64CharMap = PetCharMap;
 	public static final CBMCharMap C128CharMap = VIC20CharMap;
 	
+	// first private-use char of the font's PETSCII glyphs
+	private final char base;
+	
 	/**
 	 * Create a new instance of the PETSCII translation map.
 	 * @param base Unicode character to start incrementing from.
 	 */
 	public CBMCharMap(int base) {
+		this.base = (char)base;
 		for (int i=0; i<256; i++) {
-			charMap.put((char)i, (char)(base + i));
+			put((char)i, (char)(base + i));
 		}
 	}
 	
+	/**
+	 * Returns the Unicode character a text terminal should show for a PETSCII glyph.
+	 * Graphics with no Unicode equivalent in the BMP are shown as the nearest box drawing
+	 * or block character, and control codes as themselves.
+	 * @param ch Display character, as held in a screen cell.
+	 * @return Character for a terminal to show.
+	 */
+	@Override
+	public char toUnicode(char ch) {
+		int code = ch - base;
+		if ((code < 0) || (code > 0xFF)) {
+			return ch;
+		}
+		if ((code < 0x20) || ((code >= 0x80) && (code < 0xA0))) {
+			return (char)code;
+		}
+		if ((code >= 0xC0) && (code < 0xE0)) {
+			// 0xC0-0xDF repeat 0x60-0x7F
+			code -= 0x60;
+		} else if ((code >= 0xE0) && (code < 0xFF)) {
+			// 0xE0-0xFE repeat 0xA0-0xBE
+			code -= 0x40;
+		} else if (code == 0xFF) {
+			code = 0x7E;
+		}
+		if (code < 0x80) {
+			return PETSCIItoUnicode[code - 0x20];
+		}
+		return PETSCIItoUnicode[(code - 0xA0) + 0x60];
+	}
+	
+	/**
+	 * PETSCII 0x20-0x7F and 0xA0-0xBF (upper case and graphics set), as Unicode.
+	 * https://en.wikipedia.org/wiki/PETSCII
+	 */
+	private final static char[] PETSCIItoUnicode = (
+			// 0x20-0x3F: as ASCII
+			" !\"#$%&'()*+,-./0123456789:;<=>?"
+			// 0x40-0x5F: as ASCII, but with pound and arrows
+			+ "@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\u00A3]\u2191\u2190"
+			// 0x60-0x7F: lines, suits and shapes
+			+ "\u2500\u2660\u2502\u2500\u2500\u2500\u2500\u2502\u2502\u256E\u2570\u256F\u2514\u2572\u2571\u250C"
+			+ "\u2510\u25CF\u2581\u2665\u258F\u256D\u2573\u25CB\u2663\u2595\u2666\u253C\u2592\u2502\u03C0\u25E5"
+			// 0xA0-0xBF: blocks and box drawing
+			+ " \u258C\u2584\u2594\u2581\u258F\u2592\u2595\u2592\u25E4\u2590\u251C\u2597\u2514\u2510\u2582"
+			+ "\u250C\u2534\u252C\u2524\u258E\u258D\u2590\u2580\u2580\u2583\u2518\u2596\u259D\u2518\u2598\u259A"
+			).toCharArray();
+	
 	/*
 	 * https://damieng.com/blog/2011/02/20/typography-in-8-bits-system-fonts
 	 * http://www.kreativekorp.com/software/fonts/c64.shtml
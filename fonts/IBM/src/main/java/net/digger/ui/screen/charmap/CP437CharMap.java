@@ -29,7 +29,7 @@ public class CP437CharMap extends JScreenCharMap {
 	 */
 	public CP437CharMap() {
 		for (int i=0; i<256; i++) {
-			charMap.put((char)i, CP437toUnicode[i]);
+			put((char)i, CP437toUnicode[i]);
 		}
 	}
 	
@@ -0,0 +1,368 @@
+package net.digger.ui.screen.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import net.digger.ui.screen.mode.JScreenMode;
+import net.digger.ui.screen.protocol.ANSIColor;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Telnet server which gives each client its own headless JScreen (see JScreenSession).
+ * Connections are multiplexed over a few selector threads with non-blocking NIO, so a session
+ * costs no thread of its own: it is only a socket, a screen, and the buffers used to send it.
+ * Screens are sent as ANSI diffs by ANSIEncoder, so clients need a VT100 compatible terminal
+ * the same size as the screen mode.
+ * <p>
+ * The handler is called for each new session on its selector thread, so it must not block.
+ * Apps which wait for input with readLine() or awaitKeyEvent() should be run on their own thread
+ * or executor; apps which use nextKeyEvent() can run without a thread.  When a client disconnects,
+ * its screen is closed, so readLine() and awaitKeyEvent() throw IllegalStateException and the
+ * future from nextKeyEvent() completes exceptionally, letting the app finish.
+ * A session which throws an exception on its selector thread is closed the same way, without
+ * affecting the other sessions on that thread.
+ * @author walton
+ */
+public class JScreenServer implements Closeable {
+	/**
+	 * Default number of selector threads.
+	 */
+	public static final int DEFAULT_SELECTOR_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+	// bytes read from a client at a time
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	private final JScreenMode mode;
+	private final ANSIColor palette;
+	private final Consumer<JScreenSession> handler;
+	private final ServerSocketChannel serverChannel;
+	private final SelectorLoop[] loops;
+	private final AtomicInteger sessionCount = new AtomicInteger(0);
+	private volatile boolean closed = false;
+	// selector thread the next connection is given to
+	private int nextLoop = 0;
+
+	/**
+	 * Start a server with the default number of selector threads.
+	 * @param address Address to listen on.
+	 * @param mode Screen mode of session screens.
+	 * @param palette Palette the screens' colors are mapped to ANSI colors with.
+	 * @param handler Called with each new session, on its selector thread.
+	 * @throws IOException If the server can't listen on the address.
+	 */
+	public JScreenServer(InetSocketAddress address, JScreenMode mode, ANSIColor palette, Consumer<JScreenSession> handler) throws IOException {
+		this(address, mode, palette, handler, DEFAULT_SELECTOR_THREADS);
+	}
+
+	/**
+	 * Start a server.
+	 * @param address Address to listen on.
+	 * @param mode Screen mode of session screens.
+	 * @param palette Palette the screens' colors are mapped to ANSI colors with.
+	 * @param handler Called with each new session, on its selector thread.
+	 * @param selectorThreads Number of selector threads to spread sessions over.
+	 * @throws IOException If the server can't listen on the address.
+	 */
+	public JScreenServer(InetSocketAddress address, JScreenMode mode, ANSIColor palette, Consumer<JScreenSession> handler,
+			int selectorThreads) throws IOException {
+		if (selectorThreads < 1) {
+			throw new IllegalArgumentException("Must have at least 1 selector thread.");
+		}
+		this.mode = mode;
+		this.palette = palette;
+		this.handler = handler;
+		serverChannel = ServerSocketChannel.open();
+		loops = new SelectorLoop[selectorThreads];
+		try {
+			serverChannel.bind(address, 1024);
+			serverChannel.configureBlocking(false);
+			for (int i=0; i<loops.length; i++) {
+				loops[i] = new SelectorLoop(i + 1);
+			}
+			serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		for (SelectorLoop loop : loops) {
+			loop.thread.start();
+		}
+	}
+
+	/**
+	 * @return Address the server is listening on.
+	 * @throws IOException If the address can't be read.
+	 */
+	public InetSocketAddress getLocalAddress() throws IOException {
+		return (InetSocketAddress)serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * @return Number of sessions connected.
+	 */
+	public int getSessionCount() {
+		return sessionCount.get();
+	}
+
+	/**
+	 * Stop listening, close every session, and wait for the selector threads to finish.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+		for (SelectorLoop loop : loops) {
+			if (loop != null) {
+				loop.selector.wakeup();
+			}
+		}
+		for (SelectorLoop loop : loops) {
+			if ((loop != null) && (loop.thread != Thread.currentThread())) {
+				try {
+					loop.thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called by a session when it closes.
+	 */
+	void sessionClosed() {
+		sessionCount.decrementAndGet();
+	}
+
+	/**
+	 * Accept every waiting connection, and give them to the selector threads in turn.
+	 * Runs on the first selector thread.
+	 */
+	private void accept() {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (IOException e) {
+				// out of file handles or similar; try again when the next client is waiting
+				return;
+			}
+			if (channel == null) {
+				return;
+			}
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			} catch (IOException e) {
+				close(channel);
+				continue;
+			}
+			loops[nextLoop].accepted(channel);
+			nextLoop = (nextLoop + 1) % loops.length;
+		}
+	}
+
+	/**
+	 * Close a channel, ignoring any exception.
+	 * @param channel Channel to close.
+	 */
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+	}
+
+	/**
+	 * A selector thread, which handles the IO of its share of the sessions, and sends their frames.
+	 */
+	class SelectorLoop implements Runnable {
+		final Selector selector;
+		final Thread thread;
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		// connections to start sessions for, and sessions with frames to send
+		private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+		private final Queue<JScreenSession> frames = new ConcurrentLinkedQueue<>();
+		// set once the selector has been woken, until it next wakes up
+		private final AtomicBoolean woken = new AtomicBoolean(false);
+
+		/**
+		 * Create a selector thread.
+		 * @param number Number of thread, for its name.
+		 * @throws IOException If the selector can't be opened.
+		 */
+		SelectorLoop(int number) throws IOException {
+			selector = Selector.open();
+			thread = new Thread(this, "JScreen server " + number);
+		}
+
+		/**
+		 * Give this thread a new connection to start a session for.
+		 * @param channel Connection to client.
+		 */
+		void accepted(SocketChannel channel) {
+			accepted.add(channel);
+			wakeup();
+		}
+
+		/**
+		 * Ask this thread to send a session's next frame.  May be called from any thread.
+		 * @param session Session to send.
+		 */
+		void frameNeeded(JScreenSession session) {
+			frames.add(session);
+			wakeup();
+		}
+
+		/**
+		 * Wake the selector, unless it has already been woken.
+		 */
+		private void wakeup() {
+			if ((Thread.currentThread() != thread) && woken.compareAndSet(false, true)) {
+				selector.wakeup();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!closed) {
+					selector.select();
+					woken.set(false);
+					startSessions();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+							continue;
+						}
+						JScreenSession session = (JScreenSession)key.attachment();
+						try {
+							if (key.isReadable()) {
+								session.read(readBuffer);
+							}
+							if (key.isValid() && key.isWritable()) {
+								session.write();
+							}
+						} catch (RuntimeException e) {
+							failed(session);
+						}
+					}
+					JScreenSession session;
+					while ((session = frames.poll()) != null) {
+						try {
+							session.sendFrame();
+						} catch (RuntimeException e) {
+							failed(session);
+						}
+					}
+				}
+			} catch (IOException e) {
+				// selector failed, so nothing more can be done on this thread
+			} finally {
+				shutdown();
+			}
+		}
+
+		/**
+		 * Start sessions for the connections given to this thread.
+		 */
+		private void startSessions() {
+			SocketChannel channel;
+			while ((channel = accepted.poll()) != null) {
+				if (closed) {
+					close(channel);
+					continue;
+				}
+				JScreenSession session;
+				try {
+					session = new JScreenSession(JScreenServer.this, channel, mode, palette);
+				} catch (RuntimeException e) {
+					close(channel);
+					continue;
+				}
+				sessionCount.incrementAndGet();
+				try {
+					session.register(this);
+					handler.accept(session);
+				} catch (IOException | RuntimeException e) {
+					session.close();
+				}
+			}
+		}
+
+		/**
+		 * Close a session which threw an exception, so that one broken session doesn't stop this
+		 * thread, and every other session on it.
+		 * @param session Session to close.
+		 */
+		private void failed(JScreenSession session) {
+			try {
+				session.close();
+			} catch (RuntimeException e) {
+				// closed as far as it can be
+			}
+		}
+
+		/**
+		 * Close every session on this thread, and the selector.
+		 */
+		private void shutdown() {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof JScreenSession) {
+					failed((JScreenSession)key.attachment());
+				}
+			}
+			SocketChannel channel;
+			while ((channel = accepted.poll()) != null) {
+				close(channel);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// closed anyway
+			}
+		}
+	}
+}
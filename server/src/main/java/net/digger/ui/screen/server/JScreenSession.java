@@ -0,0 +1,334 @@
+package net.digger.ui.screen.server;
+
+import java.awt.Component;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.digger.ui.screen.JScreen;
+import net.digger.ui.screen.JScreenFrame;
+import net.digger.ui.screen.mode.JScreenMode;
+import net.digger.ui.screen.protocol.ANSIColor;
+import net.digger.ui.screen.protocol.ANSIEncoder;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A client connected to a JScreenServer, with its own headless JScreen.
+ * Keys from the client go to the screen's keyboard (with the key buffer enabled), and the session renders
+ * each frame of the screen (see JScreenRenderer) by sending the changes to the client as ANSI sequences, in UTF-8.
+ * <p>
+ * While the client is slow to take output, frames are skipped rather than queued: the next frame
+ * is sent once the last has been written, with everything which changed in between.
+ * @author walton
+ */
+public class JScreenSession {
+	/**
+	 * Default frame rate of session screens.
+	 */
+	public static final int DEFAULT_FRAME_RATE = 30;
+	// initial size of output buffer
+	private static final int INITIAL_OUTPUT = 4096;
+	// source of key events from clients
+	private static final Component SOURCE = new Component() {
+		private static final long serialVersionUID = 1L;
+	};
+	private static final char ESCAPE = 0x1B;
+
+	private final JScreenServer server;
+	private final SocketChannel channel;
+	private final JScreen screen;
+	private final JScreenTelnetDecoder decoder;
+	private final ANSIEncoder encoder;
+	private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	// set when the screen has changed since the last frame was sent
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+	// selector thread which handles this session, and its key
+	private JScreenServer.SelectorLoop loop;
+	private SelectionKey key;
+	// newest frame from the screen, copied for the selector thread, and set when it hasn't been sent
+	private JScreenFrame latest = null;
+	private boolean fresh = false;
+	// frame the client shows, or null if unknown, and the frame being sent
+	private JScreenFrame shown = null;
+	private JScreenFrame sending = null;
+	// is the cursor shown on the client, or null if unknown?
+	private Boolean cursorShown = null;
+	// frame being encoded
+	private final StringBuilder text = new StringBuilder();
+	// bytes waiting to be written, from position to limit
+	private ByteBuffer output = ByteBuffer.allocate(INITIAL_OUTPUT);
+
+	/**
+	 * Create a session for a newly accepted connection.
+	 * @param server Server which accepted the connection.
+	 * @param channel Connection to client.
+	 * @param mode Screen mode of session screen.
+	 * @param palette Palette the screen's colors are mapped to ANSI colors with.
+	 */
+	JScreenSession(JScreenServer server, SocketChannel channel, JScreenMode mode, ANSIColor palette) {
+		this.server = server;
+		this.channel = channel;
+		// before the screen, so if it fails there is no screen left to close;
+		// the char map only changes private-use glyphs (such as PETSCII), as cells hold Unicode glyphs
+		encoder = new ANSIEncoder(palette, (mode == null) ? null : mode.charMap);
+		screen = JScreen.createHeadlessScreen(mode);
+		screen.setMaxFrameRate(DEFAULT_FRAME_RATE);
+		screen.keyboard.enableKeyBuffer(true);
+		decoder = new JScreenTelnetDecoder(screen.keyboard, SOURCE);
+		output.flip();
+	}
+
+	/**
+	 * @return Screen of this session.
+	 */
+	public JScreen getScreen() {
+		return screen;
+	}
+
+	/**
+	 * @return Address of client, or null if it isn't known.
+	 */
+	public SocketAddress getRemoteAddress() {
+		try {
+			return channel.getRemoteAddress();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return True until the session has been closed.
+	 */
+	public boolean isOpen() {
+		return !closed.get();
+	}
+
+	/**
+	 * Get a future which completes when the session is closed, by either end.
+	 * @return Future completed on close.
+	 */
+	public CompletableFuture<Void> getCloseFuture() {
+		return closeFuture;
+	}
+
+	/**
+	 * Disconnect the client, and close the screen.  Output not yet sent is discarded.
+	 * May be called from any thread.
+	 */
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+		try {
+			screen.close();
+		} finally {
+			server.sessionClosed();
+			closeFuture.complete(null);
+		}
+	}
+
+	// ##### Selector thread methods #####
+
+	/**
+	 * Register the session with the selector thread which will handle it, and start sending frames.
+	 * Called on that selector thread.
+	 * @param loop Selector thread.
+	 * @throws IOException If the channel can't be registered.
+	 */
+	void register(JScreenServer.SelectorLoop loop) throws IOException {
+		this.loop = loop;
+		key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+		// the client echoes nothing, and sends each key as it is typed
+		append(new byte[] {
+				(byte)JScreenTelnetDecoder.IAC, (byte)JScreenTelnetDecoder.WILL, JScreenTelnetDecoder.ECHO,
+				(byte)JScreenTelnetDecoder.IAC, (byte)JScreenTelnetDecoder.WILL, JScreenTelnetDecoder.SUPPRESS_GO_AHEAD
+		});
+		write();
+		screen.addRenderer(this::render);
+	}
+
+	/**
+	 * Called on the screen's scheduler with each frame, which is copied for the selector thread.
+	 * @param frame Snapshot of the screen.
+	 * @param damage Bounds of the cells which changed.
+	 */
+	private void render(JScreenFrame frame, Rectangle damage) {
+		synchronized (this) {
+			latest = frame.copy(latest);
+			fresh = true;
+		}
+		if (dirty.compareAndSet(false, true)) {
+			loop.frameNeeded(this);
+		}
+	}
+
+	/**
+	 * Read what the client has sent, and send it to the keyboard.
+	 * @param buffer Buffer to read into.
+	 */
+	void read(ByteBuffer buffer) {
+		buffer.clear();
+		int count;
+		try {
+			count = channel.read(buffer);
+		} catch (IOException e) {
+			count = -1;
+		}
+		if (count < 0) {
+			close();
+			return;
+		}
+		buffer.flip();
+		decoder.decode(buffer);
+	}
+
+	/**
+	 * Write as much waiting output as the client will take.  When it has all been written,
+	 * the next frame is sent if the screen has changed.
+	 */
+	void write() {
+		if (!isOpen()) {
+			return;
+		}
+		try {
+			channel.write(output);
+		} catch (IOException e) {
+			close();
+			return;
+		}
+		if (output.hasRemaining()) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			return;
+		}
+		key.interestOps(SelectionKey.OP_READ);
+		if (dirty.get()) {
+			sendFrame();
+		}
+	}
+
+	/**
+	 * Encode the changes from the frame last sent to the newest frame, and start writing them.
+	 * If the last frame is still being written, this waits until it has been.
+	 */
+	void sendFrame() {
+		if (!isOpen() || output.hasRemaining()) {
+			return;
+		}
+		dirty.set(false);
+		synchronized (this) {
+			if (!fresh) {
+				return;
+			}
+			fresh = false;
+			// take the newest frame, leaving the one last sent to be copied into
+			JScreenFrame swap = sending;
+			sending = latest;
+			latest = swap;
+		}
+		JScreenFrame frame = sending;
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		text.setLength(0);
+		long[] from = ((shown != null) && (shown.getWidth() == width) && (shown.getHeight() == height)) ? shown.getCells() : null;
+		encoder.encode(from, frame.getCells(), width, height, text);
+		boolean visible = frame.isCursorShown();
+		if ((cursorShown == null) || (visible != cursorShown)) {
+			text.append(ESCAPE).append(visible ? "[?25h" : "[?25l");
+			cursorShown = visible;
+		}
+		Point cursor = frame.getCursor();
+		if ((cursor.x < width) && (cursor.y < height)) {
+			encoder.moveCursor(cursor.x, cursor.y, text);
+		}
+		sending = shown;
+		shown = frame;
+		if (text.length() > 0) {
+			encodeText();
+			write();
+		}
+	}
+
+	/**
+	 * Encode the frame text as UTF-8 into the output buffer, which must be empty.
+	 */
+	private void encodeText() {
+		CharBuffer chars = CharBuffer.wrap(text);
+		output.clear();
+		utf8.reset();
+		while (true) {
+			CoderResult result = utf8.encode(chars, output, true);
+			if (result.isOverflow()) {
+				grow(output.capacity() * 2);
+				continue;
+			}
+			if (utf8.flush(output).isOverflow()) {
+				grow(output.capacity() * 2);
+				continue;
+			}
+			break;
+		}
+		output.flip();
+	}
+
+	/**
+	 * Add bytes to the waiting output.
+	 * @param bytes Bytes to add.
+	 */
+	private void append(byte[] bytes) {
+		output.compact();
+		if (output.remaining() < bytes.length) {
+			grow(output.position() + bytes.length);
+		}
+		output.put(bytes);
+		output.flip();
+	}
+
+	/**
+	 * Make the output buffer bigger, keeping what has been put in it.  The buffer must be in write mode.
+	 * @param capacity Minimum new capacity.
+	 */
+	private void grow(int capacity) {
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(capacity, output.capacity() * 2));
+		output.flip();
+		bigger.put(output);
+		output = bigger;
+	}
+}
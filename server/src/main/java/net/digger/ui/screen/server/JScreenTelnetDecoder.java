@@ -0,0 +1,320 @@
+package net.digger.ui.screen.server;
+
+import java.awt.Component;
+import java.awt.event.KeyEvent;
+import java.nio.ByteBuffer;
+
+import net.digger.ui.screen.io.JScreenKeyboard;
+
+/**
+ * Copyright © 2018  David Walton
+ *
+ * This file is part of JScreen.
+ *
+ * JScreen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Decodes bytes from a telnet client into key input for a JScreenKeyboard.
+ * Telnet commands are skipped, text is decoded as UTF-8, CR LF and CR NUL become a single Enter,
+ * and DEL becomes Backspace (which is what most terminals send for it).
+ * VT escape sequences for the cursor, editing and function keys become KEY_PRESSED/KEY_RELEASED events.
+ * Runs of typed chars are queued as one text entry each, so typing fast or pasting is cheap.
+ * <p>
+ * An Esc at the end of what was read is taken as the Esc key, so an escape sequence split across
+ * reads comes out as Esc and the rest as typed chars.
+ * @author walton
+ */
+class JScreenTelnetDecoder {
+	// telnet commands
+	static final int IAC = 255;
+	static final int DONT = 254;
+	static final int DO = 253;
+	static final int WONT = 252;
+	static final int WILL = 251;
+	static final int SB = 250;
+	static final int SE = 240;
+	// telnet options
+	static final int ECHO = 1;
+	static final int SUPPRESS_GO_AHEAD = 3;
+	// decoder states
+	private static final int DATA = 0;
+	private static final int COMMAND = 1;
+	private static final int OPTION = 2;
+	private static final int SUBNEGOTIATION = 3;
+	private static final int SUBNEGOTIATION_IAC = 4;
+	private static final int ESCAPE = 5;
+	private static final int CSI = 6;
+	private static final int SS3 = 7;
+
+	private final JScreenKeyboard keyboard;
+	private final Component source;
+	private int state = DATA;
+	// was the last char CR?
+	private boolean afterCR = false;
+	// UTF-8 char being decoded, and how many more bytes it needs
+	private int utf8Char = 0;
+	private int utf8Needed = 0;
+	// param of the CSI sequence being decoded
+	private int param = 0;
+	// typed chars not yet queued
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Create a decoder.
+	 * @param keyboard Keyboard to send input to.
+	 * @param source Component to give as the source of key events.
+	 */
+	JScreenTelnetDecoder(JScreenKeyboard keyboard, Component source) {
+		this.keyboard = keyboard;
+		this.source = source;
+	}
+
+	/**
+	 * Decode bytes read from the client, and send the keys to the keyboard.
+	 * @param in Buffer of bytes read, which are all consumed.
+	 */
+	void decode(ByteBuffer in) {
+		while (in.hasRemaining()) {
+			int b = in.get() & 0xFF;
+			switch (state) {
+				case COMMAND:
+					if (b == IAC) {
+						// escaped 0xFF data byte
+						state = DATA;
+						decodeByte(b);
+					} else if ((b >= WILL) && (b <= DONT)) {
+						state = OPTION;
+					} else if (b == SB) {
+						state = SUBNEGOTIATION;
+					} else {
+						state = DATA;
+					}
+					break;
+				case OPTION:
+					// the client's answers to our options need no reply, and other options are refused by ignoring them
+					state = DATA;
+					break;
+				case SUBNEGOTIATION:
+					if (b == IAC) {
+						state = SUBNEGOTIATION_IAC;
+					}
+					break;
+				case SUBNEGOTIATION_IAC:
+					state = (b == SE) ? DATA : SUBNEGOTIATION;
+					break;
+				default:
+					if (b == IAC) {
+						state = COMMAND;
+					} else {
+						decodeByte(b);
+					}
+					break;
+			}
+		}
+		if (state == ESCAPE) {
+			// nothing followed it, so it's the Esc key
+			state = DATA;
+			text.append((char)27);
+		}
+		flushText();
+	}
+
+	/**
+	 * Decode a byte of UTF-8.
+	 * @param b Byte of data.
+	 */
+	private void decodeByte(int b) {
+		if (utf8Needed > 0) {
+			if ((b & 0xC0) == 0x80) {
+				utf8Char = (utf8Char << 6) | (b & 0x3F);
+				if (--utf8Needed == 0) {
+					decodeChar(utf8Char);
+				}
+				return;
+			}
+			// truncated sequence
+			utf8Needed = 0;
+			decodeChar('?');
+		}
+		if (b < 0x80) {
+			decodeChar(b);
+		} else if ((b & 0xE0) == 0xC0) {
+			utf8Char = b & 0x1F;
+			utf8Needed = 1;
+		} else if ((b & 0xF0) == 0xE0) {
+			utf8Char = b & 0x0F;
+			utf8Needed = 2;
+		} else if ((b & 0xF8) == 0xF0) {
+			utf8Char = b & 0x07;
+			utf8Needed = 3;
+		} else {
+			decodeChar('?');
+		}
+	}
+
+	/**
+	 * Decode a char typed by the client.
+	 * @param ch Code point of char.
+	 */
+	private void decodeChar(int ch) {
+		switch (state) {
+			case ESCAPE:
+				if (ch == '[') {
+					state = CSI;
+					param = 0;
+					return;
+				}
+				if (ch == 'O') {
+					state = SS3;
+					return;
+				}
+				// not a sequence, so it was the Esc key
+				state = DATA;
+				text.append((char)27);
+				break;
+			case CSI:
+				if ((ch >= '0') && (ch <= '9')) {
+					param = (param * 10) + (ch - '0');
+				} else if (ch == ';') {
+					// modifiers aren't supported
+					param = 0;
+				} else if ((ch >= 0x40) && (ch <= 0x7E)) {
+					state = DATA;
+					if (ch == '~') {
+						keyTilde(param);
+					} else {
+						keyFinal(ch);
+					}
+				}
+				return;
+			case SS3:
+				state = DATA;
+				if ((ch >= 'P') && (ch <= 'S')) {
+					pressKey(KeyEvent.VK_F1 + (ch - 'P'));
+				} else {
+					keyFinal(ch);
+				}
+				return;
+			default:
+				break;
+		}
+		if ((ch == 0) || (ch == 10)) {
+			if (!afterCR && (ch == 10)) {
+				text.append('\n');
+			}
+			afterCR = false;
+			return;
+		}
+		afterCR = (ch == 13);
+		if (ch == 13) {
+			text.append('\n');
+		} else if (ch == 27) {
+			flushText();
+			state = ESCAPE;
+		} else if (ch == 127) {
+			text.append((char)8);
+		} else {
+			text.appendCodePoint(ch);
+		}
+	}
+
+	/**
+	 * Handle the final char of a cursor key sequence (ESC [ x or ESC O x).
+	 * @param ch Final char.
+	 */
+	private void keyFinal(int ch) {
+		switch (ch) {
+			case 'A':
+				pressKey(KeyEvent.VK_UP);
+				break;
+			case 'B':
+				pressKey(KeyEvent.VK_DOWN);
+				break;
+			case 'C':
+				pressKey(KeyEvent.VK_RIGHT);
+				break;
+			case 'D':
+				pressKey(KeyEvent.VK_LEFT);
+				break;
+			case 'H':
+				pressKey(KeyEvent.VK_HOME);
+				break;
+			case 'F':
+				pressKey(KeyEvent.VK_END);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Handle an editing or function key sequence (ESC [ n ~).
+	 * @param n Param of sequence.
+	 */
+	private void keyTilde(int n) {
+		switch (n) {
+			case 1:
+			case 7:
+				pressKey(KeyEvent.VK_HOME);
+				break;
+			case 2:
+				pressKey(KeyEvent.VK_INSERT);
+				break;
+			case 3:
+				text.append((char)127);
+				break;
+			case 4:
+			case 8:
+				pressKey(KeyEvent.VK_END);
+				break;
+			case 5:
+				pressKey(KeyEvent.VK_PAGE_UP);
+				break;
+			case 6:
+				pressKey(KeyEvent.VK_PAGE_DOWN);
+				break;
+			default:
+				if ((n >= 11) && (n <= 15)) {
+					pressKey(KeyEvent.VK_F1 + (n - 11));
+				} else if ((n >= 17) && (n <= 21)) {
+					pressKey(KeyEvent.VK_F6 + (n - 17));
+				} else if ((n == 23) || (n == 24)) {
+					pressKey(KeyEvent.VK_F11 + (n - 23));
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Send a press and release of an action key, after any chars typed before it.
+	 * @param keyCode Key code of key.
+	 */
+	private void pressKey(int keyCode) {
+		flushText();
+		long when = System.currentTimeMillis();
+		keyboard.addKeyEvent(new KeyEvent(source, KeyEvent.KEY_PRESSED, when, 0, keyCode, KeyEvent.CHAR_UNDEFINED));
+		keyboard.addKeyEvent(new KeyEvent(source, KeyEvent.KEY_RELEASED, when, 0, keyCode, KeyEvent.CHAR_UNDEFINED));
+	}
+
+	/**
+	 * Queue the typed chars which are waiting.
+	 */
+	private void flushText() {
+		if (text.length() > 0) {
+			keyboard.addText(text.toString());
+			text.setLength(0);
+		}
+	}
+}